@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics.endpoint;
+
+import com.codahale.metrics.MetricRegistry;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves every sdk {@link MetricRegistry} registered as an OSGi service for Prometheus to scrape,
+ * in one pass over the registries, rather than reading MBeans one attribute at a time.
+ *
+ * <p>A registry is published by registering it under {@code com.codahale.metrics.MetricRegistry}
+ * with a {@value #DOMAIN_PROPERTY} service property, the same domain its JmxReporter uses.
+ */
+@Path("/")
+public class PrometheusMetricsEndpoint {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PrometheusMetricsEndpoint.class);
+
+  public static final String DOMAIN_PROPERTY = "metrics.domain";
+
+  private static final String DEFAULT_DOMAIN = "sdk.metrics";
+
+  private final Map<MetricRegistry, String> registries = new ConcurrentHashMap<>();
+
+  /** Called as each registry service is registered. */
+  public void bind(MetricRegistry registry, Map<String, ?> properties) {
+    if (registry == null) {
+      return;
+    }
+    Object domain = properties == null ? null : properties.get(DOMAIN_PROPERTY);
+    registries.put(registry, domain == null ? DEFAULT_DOMAIN : domain.toString());
+    LOGGER.debug("Serving metrics of domain {}", registries.get(registry));
+  }
+
+  /** Called as each registry service is unregistered. */
+  public void unbind(MetricRegistry registry, Map<String, ?> properties) {
+    if (registry != null) {
+      registries.remove(registry);
+    }
+  }
+
+  @GET
+  @Produces(PrometheusTextWriter.CONTENT_TYPE)
+  public Response getMetrics() {
+    StreamingOutput output =
+        stream -> {
+          Writer writer =
+              new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+          write(writer);
+          writer.flush();
+        };
+    return Response.ok(output, PrometheusTextWriter.CONTENT_TYPE).build();
+  }
+
+  /** Writes every bound registry to {@code writer}. */
+  public void write(Writer writer) throws IOException {
+    PrometheusTextWriter prometheus = new PrometheusTextWriter(writer);
+    for (Map.Entry<MetricRegistry, String> registry : registries.entrySet()) {
+      prometheus.write(registry.getValue(), registry.getKey());
+    }
+  }
+}
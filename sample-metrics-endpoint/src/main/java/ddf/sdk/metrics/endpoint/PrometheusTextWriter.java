@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics.endpoint;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics of registries in the Prometheus text exposition format, version 0.0.4. Each
+ * metric is written as it is read, so nothing is buffered beyond the writer itself.
+ *
+ * <p>Metric names are prefixed with the registry's domain, and any character Prometheus does not
+ * allow is replaced with an underscore, e.g., Queries.PointRadius in sdk.metrics.sample becomes
+ * sdk_metrics_sample_Queries_PointRadius. They are written as:
+ *
+ * <ul>
+ *   <li>gauges and counters as gauges; gauges whose value is not a number are skipped
+ *   <li>meters as a {@code _total} counter and a {@code _rate} gauge per moving average window
+ *   <li>histograms as summaries of their quantiles and count
+ *   <li>timers as summaries in seconds, with a {@code _seconds} suffix
+ * </ul>
+ *
+ * Summaries have no {@code _sum}, since the metrics library does not keep one.
+ */
+public class PrometheusTextWriter {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final Writer out;
+
+  public PrometheusTextWriter(Writer out) {
+    this.out = out;
+  }
+
+  /** Writes every metric in {@code registry}, named within {@code domain}. */
+  public void write(String domain, MetricRegistry registry) throws IOException {
+    // getMetrics() is a view of the registry, where getGauges() and the like would copy it
+    for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet()) {
+      String name = sanitize(domain + '.' + entry.getKey());
+      Metric metric = entry.getValue();
+      if (metric instanceof Gauge) {
+        writeGauge(name, ((Gauge<?>) metric).getValue());
+      } else if (metric instanceof Counter) {
+        writeGauge(name, ((Counter) metric).getCount());
+      } else if (metric instanceof Meter) {
+        writeMeter(name, (Meter) metric);
+      } else if (metric instanceof Timer) {
+        Timer timer = (Timer) metric;
+        writeSummary(name + "_seconds", timer.getSnapshot(), timer.getCount(), NANOS_PER_SECOND);
+      } else if (metric instanceof Histogram) {
+        Histogram histogram = (Histogram) metric;
+        writeSummary(name, histogram.getSnapshot(), histogram.getCount(), 1);
+      }
+    }
+  }
+
+  private void writeGauge(String name, Object value) throws IOException {
+    double number;
+    if (value instanceof Number) {
+      number = ((Number) value).doubleValue();
+    } else if (value instanceof Boolean) {
+      number = (Boolean) value ? 1 : 0;
+    } else {
+      return;
+    }
+    type(name, "gauge");
+    sample(name, null, number);
+  }
+
+  private void writeMeter(String name, Meter meter) throws IOException {
+    type(name + "_total", "counter");
+    sample(name + "_total", null, meter.getCount());
+    type(name + "_rate", "gauge");
+    sample(name + "_rate", "window=\"1m\"", meter.getOneMinuteRate());
+    sample(name + "_rate", "window=\"5m\"", meter.getFiveMinuteRate());
+    sample(name + "_rate", "window=\"15m\"", meter.getFifteenMinuteRate());
+    sample(name + "_rate", "window=\"mean\"", meter.getMeanRate());
+  }
+
+  private void writeSummary(String name, Snapshot snapshot, long count, double divisor)
+      throws IOException {
+    type(name, "summary");
+    for (double quantile : QUANTILES) {
+      sample(name, "quantile=\"" + quantile + '"', snapshot.getValue(quantile) / divisor);
+    }
+    sample(name + "_count", null, count);
+  }
+
+  private void type(String name, String type) throws IOException {
+    out.write("# TYPE ");
+    out.write(name);
+    out.write(' ');
+    out.write(type);
+    out.write('\n');
+  }
+
+  private void sample(String name, String labels, double value) throws IOException {
+    out.write(name);
+    if (labels != null) {
+      out.write('{');
+      out.write(labels);
+      out.write('}');
+    }
+    out.write(' ');
+    out.write(format(value));
+    out.write('\n');
+  }
+
+  private static String format(double value) {
+    if (Double.isNaN(value)) {
+      return "NaN";
+    }
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  /** Returns {@code name} with every character Prometheus does not allow replaced by "_". */
+  static String sanitize(String name) {
+    StringBuilder sanitized = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean allowed =
+          (c >= 'a' && c <= 'z')
+              || (c >= 'A' && c <= 'Z')
+              || c == '_'
+              || c == ':'
+              || (i > 0 && c >= '0' && c <= '9');
+      sanitized.append(allowed ? c : '_');
+    }
+    return sanitized.toString();
+  }
+}
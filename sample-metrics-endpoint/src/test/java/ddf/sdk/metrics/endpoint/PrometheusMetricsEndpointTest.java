@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics.endpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrometheusMetricsEndpointTest {
+
+  private final PrometheusMetricsEndpoint endpoint = new PrometheusMetricsEndpoint();
+
+  private final MetricRegistry sample = new MetricRegistry();
+
+  private final MetricRegistry plugins = new MetricRegistry();
+
+  @Before
+  public void setUp() {
+    endpoint.bind(
+        sample,
+        Collections.singletonMap(PrometheusMetricsEndpoint.DOMAIN_PROPERTY, "sdk.metrics.sample"));
+    endpoint.bind(
+        plugins,
+        Collections.singletonMap(PrometheusMetricsEndpoint.DOMAIN_PROPERTY, "sdk.metrics.plugins"));
+  }
+
+  @Test
+  public void testGetMetricsContentType() {
+    Response response = endpoint.getMetrics();
+
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    assertEquals(MediaType.valueOf(PrometheusTextWriter.CONTENT_TYPE), response.getMediaType());
+    assertTrue(response.getEntity() instanceof StreamingOutput);
+  }
+
+  @Test
+  public void testScrapeEveryRegistry() throws IOException {
+    sample.meter("Queries.PointRadius").mark(3);
+    Timer latency = sample.timer("Queries.Latency");
+    latency.update(250, TimeUnit.MILLISECONDS);
+    sample.histogram("Queries.Predicates").update(4);
+    sample.counter("Queries.Pending").inc(2);
+    sample.register("Queries.Heatmap.Cells", (Gauge<Integer>) () -> 7);
+    sample.register("Queries.Heatmap.TopCells", (Gauge<String>) () -> "u4pru=1.0 (1)");
+    plugins.timer("PreQueryPlugin.process").update(2, TimeUnit.MILLISECONDS);
+
+    Map<String, Double> samples = scrape();
+
+    assertEquals(3.0, samples.get("sdk_metrics_sample_Queries_PointRadius_total"), 0);
+    assertTrue(samples.containsKey("sdk_metrics_sample_Queries_PointRadius_rate{window=\"1m\"}"));
+    assertEquals(
+        0.25, samples.get("sdk_metrics_sample_Queries_Latency_seconds{quantile=\"0.5\"}"), 1e-9);
+    assertEquals(1.0, samples.get("sdk_metrics_sample_Queries_Latency_seconds_count"), 0);
+    assertEquals(4.0, samples.get("sdk_metrics_sample_Queries_Predicates{quantile=\"0.99\"}"), 0);
+    assertEquals(1.0, samples.get("sdk_metrics_sample_Queries_Predicates_count"), 0);
+    assertEquals(2.0, samples.get("sdk_metrics_sample_Queries_Pending"), 0);
+    assertEquals(7.0, samples.get("sdk_metrics_sample_Queries_Heatmap_Cells"), 0);
+    assertFalse(samples.containsKey("sdk_metrics_sample_Queries_Heatmap_TopCells"));
+    assertEquals(1.0, samples.get("sdk_metrics_plugins_PreQueryPlugin_process_seconds_count"), 0);
+  }
+
+  @Test
+  public void testScrapeOverHttp() throws IOException {
+    sample.meter("Queries.PointRadius").mark(3);
+    String address = "http://127.0.0.1:" + freePort() + "/metrics";
+    JAXRSServerFactoryBean factory = new JAXRSServerFactoryBean();
+    factory.setAddress(address);
+    factory.setServiceBeanObjects(endpoint);
+    Server server = factory.create();
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
+      connection.setRequestProperty("Accept", "text/plain");
+
+      assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+      assertEquals(
+          MediaType.valueOf(PrometheusTextWriter.CONTENT_TYPE),
+          MediaType.valueOf(connection.getContentType()));
+      Map<String, Double> samples;
+      try (BufferedReader body =
+          new BufferedReader(
+              new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+        samples = PrometheusTextParser.parse(body);
+      }
+      assertEquals(3.0, samples.get("sdk_metrics_sample_Queries_PointRadius_total"), 0);
+    } finally {
+      server.destroy();
+    }
+  }
+
+  @Test
+  public void testUnboundRegistryIsNotScraped() throws IOException {
+    plugins.meter("Dropped").mark();
+    endpoint.unbind(plugins, Collections.emptyMap());
+
+    Map<String, Double> samples = scrape();
+
+    assertFalse(samples.containsKey("sdk_metrics_plugins_Dropped_total"));
+  }
+
+  @Test
+  public void testWriteTypesAndSpecialValues() throws IOException {
+    sample.timer("Queries.Latency").update(1, TimeUnit.SECONDS);
+    sample.register("Queries.Ratio", (Gauge<Double>) () -> Double.NaN);
+    StringWriter text = new StringWriter();
+    endpoint.write(text);
+
+    String output = text.toString();
+    assertTrue(output.contains("# TYPE sdk_metrics_sample_Queries_Latency_seconds summary\n"));
+    assertTrue(output.contains("sdk_metrics_sample_Queries_Ratio NaN\n"));
+    Map<String, Double> samples =
+        PrometheusTextParser.parse(new BufferedReader(new StringReader(output)));
+    assertEquals(
+        1.0, samples.get("sdk_metrics_sample_Queries_Latency_seconds{quantile=\"0.999\"}"), 0);
+  }
+
+  @Test
+  public void testSanitize() {
+    assertEquals(
+        "sdk_metrics_sample_Queries_Latency_Source_ddf_1",
+        PrometheusTextWriter.sanitize("sdk.metrics.sample.Queries.Latency.Source.ddf-1"));
+    assertEquals("_lives", PrometheusTextWriter.sanitize("9lives"));
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /** Writes the entity of {@code getMetrics()}, as the JAX-RS runtime would, and parses it. */
+  private Map<String, Double> scrape() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    ((StreamingOutput) endpoint.getMetrics().getEntity()).write(body);
+    String text = new String(body.toByteArray(), StandardCharsets.UTF_8);
+    return PrometheusTextParser.parse(new BufferedReader(new StringReader(text)));
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics.endpoint;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses the samples of a scrape the way Prometheus does, keyed by their name and labels as
+ * written, e.g., {@code sdk_metrics_sample_Queries_Latency_seconds{quantile="0.5"}}.
+ */
+class PrometheusTextParser {
+
+  private PrometheusTextParser() {}
+
+  static Map<String, Double> parse(BufferedReader reader) throws IOException {
+    Map<String, Double> samples = new HashMap<>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int space = line.lastIndexOf(' ');
+      if (space < 0) {
+        throw new IOException("Not a sample: " + line);
+      }
+      samples.put(line.substring(0, space), parseValue(line.substring(space + 1)));
+    }
+    return samples;
+  }
+
+  private static double parseValue(String value) {
+    switch (value) {
+      case "+Inf":
+        return Double.POSITIVE_INFINITY;
+      case "-Inf":
+        return Double.NEGATIVE_INFINITY;
+      default:
+        return Double.parseDouble(value);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Finds the strings it is given most often, in memory that does not grow with them. A Count-Min
+ * sketch estimates how often each string has been seen, never under-counting, and a heap keeps the
+ * {@code k} strings with the highest estimates.
+ *
+ * <p>Strings may be added from any number of threads at once. Only strings whose estimate could
+ * place them among the top take a lock.
+ */
+public class HeavyHitters {
+
+  private final int depth;
+
+  private final int width;
+
+  private final int k;
+
+  private final AtomicLongArray counts;
+
+  private final Map<String, Long> top = new HashMap<>();
+
+  private final PriorityQueue<String> heap;
+
+  // The lowest estimate in a full heap, which a string must beat to enter it
+  private volatile long floor;
+
+  /**
+   * @param depth the number of hash rows; each one more makes over-counting less likely
+   * @param width the counters in each row; the more, the less each estimate is over-counted
+   * @param k the number of most frequent strings to keep, at least one
+   */
+  public HeavyHitters(int depth, int width, int k) {
+    this.depth = depth;
+    this.width = width;
+    // A heap cannot be sized to nothing, and keeping no strings would make the sketch pointless
+    this.k = Math.max(1, k);
+    this.counts = new AtomicLongArray(depth * width);
+    this.heap = new PriorityQueue<>(this.k, Comparator.comparingLong(top::get));
+  }
+
+  public void add(String value) {
+    long hash = HyperLogLog.hash(value);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      int column = Math.floorMod(h1 + row * h2, width);
+      estimate = Math.min(estimate, counts.incrementAndGet(row * width + column));
+    }
+
+    if (estimate > floor) {
+      offer(value, estimate);
+    }
+  }
+
+  /** Returns how many times {@code value} has been added, or possibly more, but never fewer. */
+  public long estimate(String value) {
+    long hash = HyperLogLog.hash(value);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    long estimate = Long.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      estimate = Math.min(estimate, counts.get(row * width + Math.floorMod(h1 + row * h2, width)));
+    }
+    return estimate;
+  }
+
+  /** Returns the most frequent strings and their estimates, the most frequent first. */
+  public synchronized List<Map.Entry<String, Long>> getTop() {
+    List<Map.Entry<String, Long>> entries = new ArrayList<>(top.entrySet());
+    entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+    return entries;
+  }
+
+  private synchronized void offer(String value, long estimate) {
+    if (top.containsKey(value)) {
+      // The heap orders by the map, so it must be taken out before its estimate changes
+      heap.remove(value);
+    } else if (top.size() >= k) {
+      String lowest = heap.peek();
+      if (estimate <= top.get(lowest)) {
+        return;
+      }
+      heap.poll();
+      top.remove(lowest);
+    }
+    top.put(value, estimate);
+    heap.add(value);
+    if (top.size() >= k) {
+      floor = top.get(heap.peek());
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Estimates how many distinct strings it has been given, in memory that does not grow with them.
+ * With {@code precision} p it keeps 2^p registers, and the estimate is typically within 1.04 /
+ * sqrt(2^p) of the true count, e.g., 1.6% for the default of 12.
+ *
+ * <p>Strings may be added from any number of threads at once.
+ */
+public class HyperLogLog {
+
+  public static final int DEFAULT_PRECISION = 12;
+
+  private final int precision;
+
+  private final AtomicIntegerArray registers;
+
+  public HyperLogLog() {
+    this(DEFAULT_PRECISION);
+  }
+
+  /** @param precision the number of hash bits that pick a register, from 4 to 18 */
+  public HyperLogLog(int precision) {
+    if (precision < 4 || precision > 18) {
+      throw new IllegalArgumentException("Precision must be from 4 to 18, but was " + precision);
+    }
+    this.precision = precision;
+    this.registers = new AtomicIntegerArray(1 << precision);
+  }
+
+  public void add(String value) {
+    long hash = hash(value);
+    int index = (int) (hash >>> (64 - precision));
+    // The guard bit keeps the rank within the bits left after the index
+    long remaining = (hash << precision) | (1L << (precision - 1));
+    int rank = Long.numberOfLeadingZeros(remaining) + 1;
+
+    int current = registers.get(index);
+    while (rank > current && !registers.compareAndSet(index, current, rank)) {
+      current = registers.get(index);
+    }
+  }
+
+  /** Returns the estimated number of distinct strings added. */
+  public long estimate() {
+    int m = registers.length();
+    double sum = 0;
+    int zeros = 0;
+    for (int i = 0; i < m; i++) {
+      int register = registers.get(i);
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double alpha = 0.7213 / (1 + 1.079 / m);
+    double estimate = alpha * m * m / sum;
+    // Small counts leave registers empty, and are estimated better by how many are
+    if (estimate <= 2.5 * m && zeros > 0) {
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /** Returns a 64-bit hash of {@code value}: FNV-1a over its characters, then mixed. */
+  static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    // The MurmurHash3 finalizer, so that every input bit affects the high bits as well
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
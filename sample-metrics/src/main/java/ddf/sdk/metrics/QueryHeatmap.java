@@ -0,0 +1,458 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import ddf.catalog.filter.FilterAdapter;
+import ddf.sdk.metrics.QueryLocationFilterDelegate.Location;
+import ddf.catalog.source.UnsupportedQueryException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import org.opengis.filter.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts where spatial queries search, by the geohash cells that cover each geometry they search
+ * in, so that the areas queries concentrate on can be found. Each part of a multi-part geometry is
+ * covered on its own, and a DWithin search covers its distance around the geometry as well. The
+ * cells cover the bounding box of each part, so a part is counted in some cells it does not reach.
+ * A geometry that would cover more than {@value #MAX_CELLS_PER_LOCATION} cells of the configured
+ * precision is counted in the larger cells of a shorter geohash instead, so that one query over a
+ * large area cannot flood the map.
+ *
+ * <p>The query thread only offers the query's filter to a bounded queue, and drops it if the queue
+ * is full. A background thread decodes the geometries and counts the cells, so the cost of counting
+ * is kept off the query. The hottest cells, with older queries decayed by the configured half-life,
+ * are published over JMX as sdk.metrics.sample:name=Queries.Heatmap.TopCells.
+ */
+public class QueryHeatmap {
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueryHeatmap.class);
+
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+  static final int MAX_CELLS_PER_LOCATION = 64;
+
+  private static final double METERS_PER_DEGREE_OF_LATITUDE = 111_320;
+
+  // Closer to a pole than this, a distance spans every longitude
+  private static final double MAX_WIDENED_LATITUDE = 89;
+
+  // Weights are rescaled well before the growth factor could lose precision
+  private static final double MAX_GROWTH_EXPONENT = 30;
+
+  // A cell whose decayed count falls below this is dropped when the weights are rescaled
+  private static final double MIN_DECAYED_COUNT = 0.5;
+
+  // How often a full map may be rescaled to make room for new cells
+  private static final long PRUNE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  private final JmxReporter reporter =
+      JmxReporter.forRegistry(metrics).inDomain("sdk.metrics.sample").build();
+
+  private final Map<String, Cell> cells = new ConcurrentHashMap<>();
+
+  private final FilterAdapter filterAdapter;
+
+  private final Meter countedQueries;
+
+  private final Meter droppedQueries;
+
+  private final Meter overflowedCells;
+
+  private BlockingQueue<Filter> queue;
+
+  private Thread worker;
+
+  private int precision = 5;
+
+  private int topCells = 10;
+
+  private int maxCells = 10000;
+
+  private int queueCapacity = 1000;
+
+  private long halfLifeMinutes = 60;
+
+  // Forward decay: each query adds exp(decayRate * (now - landmark)) to its cells' weights, so the
+  // weights never need decaying, only an occasional rescale to a new landmark
+  private volatile double decayRate;
+
+  private volatile long landmarkMillis;
+
+  private long prunedMillis;
+
+  public QueryHeatmap(FilterAdapter filterAdapter) {
+    this.filterAdapter = filterAdapter;
+
+    // Maps to the MBean's ObjectName, i.e., sdk.metrics.sample:name=Queries.Heatmap.Queries
+    countedQueries = metrics.meter(MetricRegistry.name("Queries", "Heatmap", "Queries"));
+    droppedQueries = metrics.meter(MetricRegistry.name("Queries", "Heatmap", "Dropped"));
+    overflowedCells = metrics.meter(MetricRegistry.name("Queries", "Heatmap", "Overflowed"));
+    metrics.register(
+        MetricRegistry.name("Queries", "Heatmap", "Cells"), (Gauge<Integer>) cells::size);
+    metrics.register(
+        MetricRegistry.name("Queries", "Heatmap", "TopCells"), (Gauge<String>) this::topCells);
+  }
+
+  /** Returns the registry the heatmap's meters and gauges are kept in. */
+  public MetricRegistry getMetricRegistry() {
+    return metrics;
+  }
+
+  /** Sets the geohash length of the cells, from 1 (continents) to 12 (centimeters). */
+  public void setPrecision(int precision) {
+    this.precision = Math.max(1, Math.min(12, precision));
+  }
+
+  /** Sets how many of the hottest cells are published. */
+  public void setTopCells(int topCells) {
+    this.topCells = topCells;
+  }
+
+  /** Sets how many cells are counted at most; queries in further cells are not counted. */
+  public void setMaxCells(int maxCells) {
+    this.maxCells = maxCells;
+  }
+
+  /** Sets how many queries can wait to be counted before further ones are dropped. */
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  /** Sets how long it takes for a query to count half as much towards the hottest cells. */
+  public void setHalfLifeMinutes(long halfLifeMinutes) {
+    this.halfLifeMinutes = halfLifeMinutes;
+  }
+
+  public void init() {
+    decayRate = Math.log(2) / TimeUnit.MINUTES.toMillis(Math.max(1, halfLifeMinutes));
+    landmarkMillis = System.currentTimeMillis();
+    queue = new ArrayBlockingQueue<>(queueCapacity);
+    worker = new Thread(this::count, "sdk-query-heatmap");
+    worker.setDaemon(true);
+    worker.start();
+    reporter.start();
+  }
+
+  public void destroy() {
+    if (worker != null) {
+      worker.interrupt();
+    }
+    reporter.stop();
+  }
+
+  /** Queues a spatial query's filter to be counted, or drops it if too many are waiting. */
+  public void offer(Filter filter) {
+    if (filter == null) {
+      return;
+    }
+    if (queue == null || !queue.offer(filter)) {
+      droppedQueries.mark();
+    }
+  }
+
+  private void count() {
+    QueryLocationFilterDelegate locations = new QueryLocationFilterDelegate();
+    while (!Thread.currentThread().isInterrupted()) {
+      Filter filter;
+      try {
+        filter = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      try {
+        filterAdapter.adapt(filter, locations);
+      } catch (UnsupportedQueryException | RuntimeException e) {
+        LOGGER.debug("Unable to read the locations of a query", e);
+        locations.takeLocations();
+        continue;
+      }
+
+      record(locations.takeLocations(), System.currentTimeMillis());
+    }
+  }
+
+  /** Counts a query that searched in the given locations, at {@code now}. */
+  void record(List<Location> locations, long now) {
+    // Rescaling also drops decayed cells, which makes room when the map is full
+    if (decayRate * (now - landmarkMillis) > MAX_GROWTH_EXPONENT
+        || (cells.size() >= maxCells && now - prunedMillis >= PRUNE_INTERVAL_MILLIS)) {
+      prunedMillis = now;
+      rescale(now);
+    }
+    double weight = Math.exp(decayRate * (now - landmarkMillis));
+
+    // A query counts once in each cell, however many of its geometries fall in it
+    Set<String> queryCells = new HashSet<>();
+    for (Location location : locations) {
+      queryCells.addAll(cellsOf(location.getWkt(), location.getDistanceMeters(), precision));
+    }
+    for (String cell : queryCells) {
+      add(cell, weight);
+    }
+    if (!queryCells.isEmpty()) {
+      countedQueries.mark();
+    }
+  }
+
+  private void add(String geohash, double weight) {
+    Cell cell = cells.get(geohash);
+    if (cell == null) {
+      if (cells.size() >= maxCells) {
+        overflowedCells.mark();
+        return;
+      }
+      cell = cells.computeIfAbsent(geohash, key -> new Cell());
+    }
+    cell.count.increment();
+    cell.weight.add(weight);
+  }
+
+  /** Moves the landmark to now, and drops the cells that have decayed away. */
+  private void rescale(long now) {
+    double factor = Math.exp(-decayRate * (now - landmarkMillis));
+    cells
+        .entrySet()
+        .removeIf(
+            entry -> {
+              double weight = entry.getValue().weight.sumThenReset() * factor;
+              entry.getValue().weight.add(weight);
+              return weight < MIN_DECAYED_COUNT;
+            });
+    landmarkMillis = now;
+  }
+
+  private String topCells() {
+    double factor = Math.exp(-decayRate * (System.currentTimeMillis() - landmarkMillis));
+    // Read each cell once, since the worker may update them while they are sorted
+    List<Object[]> hottest = new ArrayList<>(cells.size());
+    for (Map.Entry<String, Cell> entry : cells.entrySet()) {
+      hottest.add(
+          new Object[] {
+            entry.getKey(), entry.getValue().weight.sum() * factor, entry.getValue().count.sum()
+          });
+    }
+    hottest.sort((a, b) -> Double.compare((Double) b[1], (Double) a[1]));
+
+    StringBuilder top = new StringBuilder();
+    for (Object[] cell : hottest.subList(0, Math.min(topCells, hottest.size()))) {
+      if (top.length() > 0) {
+        top.append(", ");
+      }
+      // The geohash, its decayed count, and in brackets its count since the bundle started
+      top.append(String.format("%s=%.1f (%d)", cell[0], cell[1], cell[2]));
+    }
+    return top.toString();
+  }
+
+  /**
+   * Returns the geohashes of the cells covering the bounds of each part of a WKT geometry, widened
+   * by {@code distanceMeters}, or no cells if the WKT has no coordinates. The geohashes are {@code
+   * precision} long, or shorter if that many cells would be more than {@value
+   * #MAX_CELLS_PER_LOCATION}.
+   */
+  static Set<String> cellsOf(String wkt, double distanceMeters, int precision) {
+    List<double[]> parts = partBounds(wkt);
+    if (distanceMeters > 0) {
+      parts.replaceAll(bounds -> widen(bounds, distanceMeters));
+    }
+    int length = precision;
+    while (length > 1 && countCells(parts, length) > MAX_CELLS_PER_LOCATION) {
+      length--;
+    }
+    Set<String> cells = new HashSet<>();
+    for (double[] bounds : parts) {
+      long[] range = cellRange(bounds, length);
+      int lonBits = (5 * length + 1) / 2;
+      double width = 360.0 / (1L << lonBits);
+      double height = 180.0 / (1L << (5 * length / 2));
+      for (long row = range[2]; row <= range[3]; row++) {
+        for (long column = range[0]; column <= range[1]; column++) {
+          // Columns past the antimeridian wrap around to the other side
+          long wrapped = Math.floorMod(column, 1L << lonBits);
+          cells.add(geohash(-90 + (row + 0.5) * height, -180 + (wrapped + 0.5) * width, length));
+        }
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Returns the bounds of each part of a WKT geometry as {minLon, minLat, maxLon, maxLat}. A part
+   * is a list of coordinates in the innermost parentheses, such as one polygon's ring. WKT gives
+   * each coordinate as longitude then latitude, possibly followed by Z and M values, which are
+   * skipped.
+   */
+  private static List<double[]> partBounds(String wkt) {
+    List<double[]> parts = new ArrayList<>();
+    double[] part = null;
+    double[] coordinate = new double[2];
+    int values = 0;
+    int start = -1;
+    for (int i = 0; i <= wkt.length(); i++) {
+      char c = i < wkt.length() ? wkt.charAt(i) : ')';
+      boolean numeric = (c >= '0' && c <= '9') || c == '.' || c == '-' || c == 'e' || c == 'E';
+      // Letters of the geometry type are not numbers, even if they contain an "e"
+      if (numeric && start < 0 && (c == 'e' || c == 'E')) {
+        continue;
+      }
+      if (numeric) {
+        if (start < 0) {
+          start = i;
+        }
+        continue;
+      }
+      if (start >= 0) {
+        double value;
+        try {
+          value = Double.parseDouble(wkt.substring(start, i));
+        } catch (NumberFormatException e) {
+          return new ArrayList<>();
+        }
+        start = -1;
+        if (values < 2) {
+          coordinate[values] = value;
+        }
+        values++;
+      }
+      if (c == ',' || c == ')') {
+        if (values >= 2) {
+          part = include(part, coordinate[0], coordinate[1]);
+        }
+        values = 0;
+      }
+      if (c == '(' || c == ')') {
+        if (part != null) {
+          parts.add(part);
+        }
+        part = null;
+        values = 0;
+      }
+    }
+    return parts;
+  }
+
+  private static double[] include(double[] bounds, double lon, double lat) {
+    if (bounds == null) {
+      return new double[] {lon, lat, lon, lat};
+    }
+    bounds[0] = Math.min(bounds[0], lon);
+    bounds[1] = Math.min(bounds[1], lat);
+    bounds[2] = Math.max(bounds[2], lon);
+    bounds[3] = Math.max(bounds[3], lat);
+    return bounds;
+  }
+
+  /** Widens bounds by a distance, by as many degrees of longitude as it spans at its widest. */
+  private static double[] widen(double[] bounds, double distanceMeters) {
+    double latDegrees = distanceMeters / METERS_PER_DEGREE_OF_LATITUDE;
+    double minLat = Math.max(-90, bounds[1] - latDegrees);
+    double maxLat = Math.min(90, bounds[3] + latDegrees);
+    double widestLat = Math.max(Math.abs(minLat), Math.abs(maxLat));
+    double lonDegrees =
+        widestLat > MAX_WIDENED_LATITUDE
+            ? 180
+            : Math.min(180, latDegrees / Math.cos(Math.toRadians(widestLat)));
+    return new double[] {bounds[0] - lonDegrees, minLat, bounds[2] + lonDegrees, maxLat};
+  }
+
+  private static long countCells(List<double[]> parts, int length) {
+    long count = 0;
+    for (double[] bounds : parts) {
+      long[] range = cellRange(bounds, length);
+      count += (range[1] - range[0] + 1) * (range[3] - range[2] + 1);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the first and last column, then the first and last row, of the cells of geohashes
+   * {@code length} long that cover {@code bounds}. Columns are not wrapped, so they may lie beyond
+   * either end of the range of longitudes.
+   */
+  private static long[] cellRange(double[] bounds, int length) {
+    // Geohashes interleave their bits starting with longitude, which gets the odd bit
+    int lonBits = (5 * length + 1) / 2;
+    int latBits = 5 * length / 2;
+    long columns = 1L << lonBits;
+    long rows = 1L << latBits;
+    double width = 360.0 / columns;
+    double height = 180.0 / rows;
+
+    long firstColumn = (long) Math.floor((bounds[0] + 180) / width);
+    long lastColumn = Math.max(firstColumn, (long) Math.ceil((bounds[2] + 180) / width) - 1);
+    if (lastColumn - firstColumn >= columns) {
+      firstColumn = 0;
+      lastColumn = columns - 1;
+    }
+    long firstRow = clamp((long) Math.floor((bounds[1] + 90) / height), rows);
+    long lastRow = clamp(Math.max(firstRow, (long) Math.ceil((bounds[3] + 90) / height) - 1), rows);
+    return new long[] {firstColumn, lastColumn, firstRow, lastRow};
+  }
+
+  private static long clamp(long index, long count) {
+    return Math.max(0, Math.min(count - 1, index));
+  }
+
+  static String geohash(double lat, double lon, int precision) {
+    double[] lats = {-90, 90};
+    double[] lons = {-180, 180};
+    StringBuilder geohash = new StringBuilder(precision);
+    boolean evenBit = true;
+    int bit = 0;
+    int index = 0;
+    while (geohash.length() < precision) {
+      double[] range = evenBit ? lons : lats;
+      double value = evenBit ? lon : lat;
+      double mid = (range[0] + range[1]) / 2;
+      index <<= 1;
+      if (value >= mid) {
+        index |= 1;
+        range[0] = mid;
+      } else {
+        range[1] = mid;
+      }
+      evenBit = !evenBit;
+      if (++bit == 5) {
+        geohash.append(BASE32.charAt(index));
+        bit = 0;
+        index = 0;
+      }
+    }
+    return geohash.toString();
+  }
+
+  private static class Cell {
+    private final LongAdder count = new LongAdder();
+
+    private final DoubleAdder weight = new DoubleAdder();
+  }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.Result;
+import ddf.catalog.operation.ProcessingDetails;
+import ddf.catalog.operation.QueryRequest;
+import ddf.catalog.operation.QueryResponse;
+import ddf.catalog.plugin.PluginExecutionException;
+import ddf.catalog.plugin.PostQueryPlugin;
+import ddf.catalog.plugin.StopProcessingException;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The post-query half of {@link SampleMetrics}. It reads the start time and query shape that
+ * SampleMetrics put on the request, and records how long the query took overall, for each kind of
+ * criteria it used, and for each source it went to. The sources are those the request named, those
+ * that reported processing details such as a failure, and those that returned results, so that
+ * sources that return nothing or fail are timed as well as those that answer.
+ *
+ * <p>The latencies are timers, so their JMX MBeans publish percentiles (in milliseconds) as well as
+ * counts and rates, e.g., sdk.metrics.sample:name=Queries.Latency has a 95thPercentile attribute.
+ * Each timer keeps the latencies of the most recent queries, a fixed number of them, so that its
+ * memory does not grow with the query rate.
+ */
+public class QueryLatencyMetrics implements PostQueryPlugin {
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueryLatencyMetrics.class);
+
+  private static final int[] SHAPE_KINDS = {
+    QueryShapeFilterDelegate.POINT_RADIUS,
+    QueryShapeFilterDelegate.POLYGON,
+    QueryShapeFilterDelegate.BBOX,
+    QueryShapeFilterDelegate.TEMPORAL,
+    QueryShapeFilterDelegate.CONTEXTUAL,
+    QueryShapeFilterDelegate.XPATH,
+    QueryShapeFilterDelegate.ATTRIBUTE
+  };
+
+  // Named the same as the SampleMetrics meters for each kind
+  private static final String[] SHAPE_NAMES = {
+    "PointRadius", "Polygon", "BoundingBox", "Temporal", "Contextual", "XPath", "Attribute"
+  };
+
+  // Latencies each timer keeps; the same number the default reservoir samples
+  private static final int LATENCY_SAMPLES = 1028;
+
+  // Requests name their sources, so the number of source timers is capped
+  private static final int MAX_SOURCE_TIMERS = 100;
+
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  private final JmxReporter reporter =
+      JmxReporter.forRegistry(metrics).inDomain("sdk.metrics.sample").build();
+
+  protected final Timer latency;
+
+  protected final Timer[] shapeLatencies = new Timer[SHAPE_KINDS.length];
+
+  private final Map<String, Timer> sourceLatencies = new ConcurrentHashMap<>();
+
+  public QueryLatencyMetrics() {
+    LOGGER.trace("ENTERING: QueryLatencyMetrics constructor");
+
+    // Maps to the MBean's ObjectName, i.e., sdk.metrics.sample:name=Queries.Latency
+    latency = timer(MetricRegistry.name("Queries", "Latency"));
+    for (int i = 0; i < SHAPE_KINDS.length; i++) {
+      shapeLatencies[i] = timer(MetricRegistry.name("Queries", "Latency", SHAPE_NAMES[i]));
+    }
+
+    reporter.start();
+
+    LOGGER.trace("EXITING: QueryLatencyMetrics constructor");
+  }
+
+  /** Returns the registry the query timers are kept in. */
+  public MetricRegistry getMetricRegistry() {
+    return metrics;
+  }
+
+  // Post-Query plugin
+  @Override
+  public QueryResponse process(QueryResponse input)
+      throws PluginExecutionException, StopProcessingException {
+    LOGGER.trace("ENTERING: process");
+
+    QueryRequest request = input.getRequest();
+    Serializable startNanos =
+        request == null ? null : request.getPropertyValue(SampleMetrics.START_NANOS_PROPERTY);
+    // Queries that SampleMetrics did not see have nothing to measure from
+    if (startNanos instanceof Long) {
+      long elapsed = System.nanoTime() - (Long) startNanos;
+      latency.update(elapsed, TimeUnit.NANOSECONDS);
+
+      Serializable shape = request.getPropertyValue(SampleMetrics.QUERY_SHAPE_PROPERTY);
+      if (shape instanceof Integer) {
+        for (int i = 0; i < SHAPE_KINDS.length; i++) {
+          if (QueryShapeFilterDelegate.has((Integer) shape, SHAPE_KINDS[i])) {
+            shapeLatencies[i].update(elapsed, TimeUnit.NANOSECONDS);
+          }
+        }
+      }
+
+      for (String sourceId : sourceIds(input)) {
+        Timer sourceLatency = sourceLatency(sourceId);
+        if (sourceLatency != null) {
+          sourceLatency.update(elapsed, TimeUnit.NANOSECONDS);
+        }
+      }
+    }
+
+    LOGGER.trace("EXITING: process");
+
+    return input;
+  }
+
+  public void destroy() {
+    reporter.stop();
+  }
+
+  /** Registers a timer whose percentiles cover the latest latencies. */
+  private Timer timer(String name) {
+    return metrics.register(name, new Timer(new SlidingWindowReservoir(LATENCY_SAMPLES)));
+  }
+
+  /** Returns the timer for {@code sourceId}, or null once there are too many sources to time. */
+  private Timer sourceLatency(String sourceId) {
+    Timer timer = sourceLatencies.get(sourceId);
+    if (timer != null) {
+      return timer;
+    }
+    if (sourceLatencies.size() >= MAX_SOURCE_TIMERS) {
+      LOGGER.debug(
+          "Not timing source {}; {} sources are timed already.", sourceId, MAX_SOURCE_TIMERS);
+      return null;
+    }
+    return sourceLatencies.computeIfAbsent(
+        sourceId, id -> timer(MetricRegistry.name("Queries", "Latency", "Source", id)));
+  }
+
+  private static Set<String> sourceIds(QueryResponse response) {
+    Set<String> sourceIds = new HashSet<>();
+    QueryRequest request = response.getRequest();
+    if (request.getSourceIds() != null) {
+      request.getSourceIds().forEach(sourceId -> addSourceId(sourceIds, sourceId));
+    }
+    if (response.getProcessingDetails() != null) {
+      for (ProcessingDetails details : response.getProcessingDetails()) {
+        addSourceId(sourceIds, details.getSourceId());
+      }
+    }
+    if (response.getResults() != null) {
+      for (Result result : response.getResults()) {
+        Metacard metacard = result.getMetacard();
+        if (metacard != null) {
+          addSourceId(sourceIds, metacard.getSourceId());
+        }
+      }
+    }
+    return sourceIds;
+  }
+
+  private static void addSourceId(Set<String> sourceIds, String sourceId) {
+    if (sourceId != null && !sourceId.isEmpty()) {
+      // Keep the id usable as part of an MBean's ObjectName
+      sourceIds.add(sourceId.replaceAll("[^A-Za-z0-9_.-]", "_"));
+    }
+  }
+}
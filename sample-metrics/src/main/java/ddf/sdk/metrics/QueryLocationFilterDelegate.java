@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classifies a query like {@link QueryShapeFilterDelegate}, and also collects the WKT of every
+ * geometry the query searches in, with the distance around it for DWithin. Searches that exclude an
+ * area (Beyond and Disjoint) are not collected.
+ *
+ * <p>Unlike its parent, this delegate keeps state, so each instance must only be used by one thread
+ * and its locations taken after each query.
+ */
+public class QueryLocationFilterDelegate extends QueryShapeFilterDelegate {
+
+  private final List<Location> locations = new ArrayList<>();
+
+  /** Returns the locations collected since the last call, and starts collecting afresh. */
+  public List<Location> takeLocations() {
+    List<Location> taken = new ArrayList<>(locations);
+    locations.clear();
+    return taken;
+  }
+
+  @Override
+  public Integer dwithin(String propertyName, String wkt, double distance) {
+    locations.add(new Location(wkt, distance));
+    return super.dwithin(propertyName, wkt, distance);
+  }
+
+  @Override
+  public Integer intersects(String propertyName, String wkt) {
+    locations.add(new Location(wkt, 0));
+    return super.intersects(propertyName, wkt);
+  }
+
+  @Override
+  public Integer within(String propertyName, String wkt) {
+    locations.add(new Location(wkt, 0));
+    return super.within(propertyName, wkt);
+  }
+
+  @Override
+  public Integer contains(String propertyName, String wkt) {
+    locations.add(new Location(wkt, 0));
+    return super.contains(propertyName, wkt);
+  }
+
+  @Override
+  public Integer crosses(String propertyName, String wkt) {
+    locations.add(new Location(wkt, 0));
+    return super.crosses(propertyName, wkt);
+  }
+
+  @Override
+  public Integer overlaps(String propertyName, String wkt) {
+    locations.add(new Location(wkt, 0));
+    return super.overlaps(propertyName, wkt);
+  }
+
+  @Override
+  public Integer touches(String propertyName, String wkt) {
+    locations.add(new Location(wkt, 0));
+    return super.touches(propertyName, wkt);
+  }
+
+  @Override
+  public Integer nearestNeighbor(String propertyName, String wkt) {
+    locations.add(new Location(wkt, 0));
+    return super.nearestNeighbor(propertyName, wkt);
+  }
+
+  /** A geometry a query searches in, and the distance in meters around it that it searches. */
+  public static class Location {
+    private final String wkt;
+
+    private final double distanceMeters;
+
+    public Location(String wkt, double distanceMeters) {
+      this.wkt = wkt;
+      this.distanceMeters = distanceMeters;
+    }
+
+    public String getWkt() {
+      return wkt;
+    }
+
+    public double getDistanceMeters() {
+      return distanceMeters;
+    }
+  }
+}
@@ -0,0 +1,640 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import ddf.catalog.filter.FilterDelegate;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Classifies the shape of a query in a single pass of the filter adapter. The result is a bitmask:
+ * the low bits flag the kinds of criteria the query uses, and the upper bits hold how deeply its
+ * boolean operators nest and how many criteria it has. Use the static methods to read it.
+ *
+ * <p>The delegate keeps no state, so one instance can be shared by every query and thread. Every
+ * criterion is overridden so that no part of a query leaves it unclassified.
+ */
+public class QueryShapeFilterDelegate extends FilterDelegate<Integer> {
+
+  /** A distance search around a point (DWithin or Beyond). */
+  public static final int POINT_RADIUS = 1;
+
+  /** A spatial search against any geometry other than an axis-aligned rectangle. */
+  public static final int POLYGON = 1 << 1;
+
+  /** A spatial search against an axis-aligned rectangle. */
+  public static final int BBOX = 1 << 2;
+
+  /** A search on a date, either absolute or relative to now. */
+  public static final int TEMPORAL = 1 << 3;
+
+  /** A text search, such as a keyword or fuzzy match. */
+  public static final int CONTEXTUAL = 1 << 4;
+
+  /** A search on an XPath into the metadata. */
+  public static final int XPATH = 1 << 5;
+
+  /** A comparison of any other attribute, such as a content type or a number. */
+  public static final int ATTRIBUTE = 1 << 6;
+
+  private static final int KIND_MASK = 0xFF;
+
+  private static final int DEPTH_SHIFT = 8;
+
+  private static final int MAX_DEPTH = 0xF;
+
+  private static final int COUNT_SHIFT = 12;
+
+  private static final int MAX_COUNT = 0x7FFFF;
+
+  // Criteria return these shared instances rather than boxing a new value each time
+  private static final Integer NONE = 0;
+
+  private static final Integer POINT_RADIUS_CRITERION = criterion(POINT_RADIUS);
+
+  private static final Integer POLYGON_CRITERION = criterion(POLYGON);
+
+  private static final Integer BBOX_CRITERION = criterion(BBOX);
+
+  private static final Integer TEMPORAL_CRITERION = criterion(TEMPORAL);
+
+  private static final Integer CONTEXTUAL_CRITERION = criterion(CONTEXTUAL);
+
+  private static final Integer XPATH_CRITERION = criterion(XPATH);
+
+  private static final Integer ATTRIBUTE_CRITERION = criterion(ATTRIBUTE);
+
+  /** Returns true if {@code shape} has any of the kinds in {@code kinds}. */
+  public static boolean has(int shape, int kinds) {
+    return (shape & kinds) != 0;
+  }
+
+  /** Returns how deeply boolean operators nest, where a single criterion is 0. */
+  public static int getBooleanDepth(int shape) {
+    return (shape >>> DEPTH_SHIFT) & MAX_DEPTH;
+  }
+
+  /** Returns how many criteria the query has. */
+  public static int getPredicateCount(int shape) {
+    return shape >>> COUNT_SHIFT;
+  }
+
+  private static Integer criterion(int kind) {
+    return kind | (1 << COUNT_SHIFT);
+  }
+
+  private static int combine(List<Integer> operands) {
+    int kinds = 0;
+    int depth = 0;
+    int count = 0;
+    for (Integer operand : operands) {
+      kinds |= operand & KIND_MASK;
+      depth = Math.max(depth, getBooleanDepth(operand));
+      count = Math.min(MAX_COUNT, count + getPredicateCount(operand));
+    }
+    return shape(kinds, depth + 1, count);
+  }
+
+  private static int shape(int kinds, int depth, int count) {
+    return kinds | (Math.min(depth, MAX_DEPTH) << DEPTH_SHIFT) | (count << COUNT_SHIFT);
+  }
+
+  private static Integer spatial(String wkt) {
+    return isRectangle(wkt) ? BBOX_CRITERION : POLYGON_CRITERION;
+  }
+
+  /**
+   * Returns true if {@code wkt} is a polygon whose one ring has four corners that all lie on two x
+   * and two y values, joined by horizontal and vertical edges.
+   */
+  static boolean isRectangle(String wkt) {
+    String ring = singleRing(wkt);
+    if (ring == null) {
+      return false;
+    }
+    String[] points = ring.split(",");
+    if (points.length != 5) {
+      return false;
+    }
+    double[] xs = new double[5];
+    double[] ys = new double[5];
+    try {
+      for (int i = 0; i < 5; i++) {
+        String[] coordinates = points[i].trim().split("\\s+");
+        if (coordinates.length != 2) {
+          return false;
+        }
+        xs[i] = Double.parseDouble(coordinates[0]);
+        ys[i] = Double.parseDouble(coordinates[1]);
+      }
+    } catch (NumberFormatException e) {
+      return false;
+    }
+    if (xs[0] != xs[4] || ys[0] != ys[4]) {
+      return false;
+    }
+    boolean firstVertical = xs[0] == xs[1];
+    for (int i = 0; i < 4; i++) {
+      boolean vertical = xs[i] == xs[i + 1] && ys[i] != ys[i + 1];
+      boolean horizontal = ys[i] == ys[i + 1] && xs[i] != xs[i + 1];
+      // Edges must alternate between vertical and horizontal
+      if (!(vertical || horizontal) || vertical != (firstVertical == (i % 2 == 0))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the coordinates of a polygon with a single ring, without its parentheses, or null if
+   * {@code wkt} is anything else. Whitespace is allowed around every parenthesis.
+   */
+  private static String singleRing(String wkt) {
+    if (wkt == null) {
+      return null;
+    }
+    String text = wkt.trim();
+    if (!text.regionMatches(true, 0, "POLYGON", 0, "POLYGON".length())) {
+      return null;
+    }
+    text = unwrap(text.substring("POLYGON".length()));
+    text = text == null ? null : unwrap(text);
+    if (text == null || text.indexOf('(') >= 0 || text.indexOf(')') >= 0) {
+      return null;
+    }
+    return text;
+  }
+
+  /** Returns the trimmed text inside a pair of enclosing parentheses, or null if there is none. */
+  private static String unwrap(String text) {
+    String trimmed = text.trim();
+    if (trimmed.length() < 2
+        || trimmed.charAt(0) != '('
+        || trimmed.charAt(trimmed.length() - 1) != ')') {
+      return null;
+    }
+    return trimmed.substring(1, trimmed.length() - 1).trim();
+  }
+
+  // Logical operators
+
+  @Override
+  public Integer and(List<Integer> operands) {
+    return combine(operands);
+  }
+
+  @Override
+  public Integer or(List<Integer> operands) {
+    return combine(operands);
+  }
+
+  @Override
+  public Integer not(Integer operand) {
+    return shape(operand & KIND_MASK, getBooleanDepth(operand) + 1, getPredicateCount(operand));
+  }
+
+  @Override
+  public Integer include() {
+    return NONE;
+  }
+
+  @Override
+  public Integer exclude() {
+    return NONE;
+  }
+
+  // Spatial
+
+  @Override
+  public Integer dwithin(String propertyName, String wkt, double distance) {
+    return POINT_RADIUS_CRITERION;
+  }
+
+  @Override
+  public Integer beyond(String propertyName, String wkt, double distance) {
+    return POINT_RADIUS_CRITERION;
+  }
+
+  @Override
+  public Integer intersects(String propertyName, String wkt) {
+    return spatial(wkt);
+  }
+
+  @Override
+  public Integer within(String propertyName, String wkt) {
+    return spatial(wkt);
+  }
+
+  @Override
+  public Integer contains(String propertyName, String wkt) {
+    return spatial(wkt);
+  }
+
+  @Override
+  public Integer crosses(String propertyName, String wkt) {
+    return spatial(wkt);
+  }
+
+  @Override
+  public Integer disjoint(String propertyName, String wkt) {
+    return spatial(wkt);
+  }
+
+  @Override
+  public Integer overlaps(String propertyName, String wkt) {
+    return spatial(wkt);
+  }
+
+  @Override
+  public Integer touches(String propertyName, String wkt) {
+    return spatial(wkt);
+  }
+
+  @Override
+  public Integer nearestNeighbor(String propertyName, String wkt) {
+    return spatial(wkt);
+  }
+
+  // Temporal
+
+  @Override
+  public Integer after(String propertyName, Date date) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer before(String propertyName, Date date) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer during(String propertyName, Date startDate, Date endDate) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer relative(String propertyName, long duration) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, Date literal) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, Date startDate, Date endDate) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, Date literal) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, Date startDate, Date endDate) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThan(String propertyName, Date literal) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThanOrEqualTo(String propertyName, Date literal) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThan(String propertyName, Date literal) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThanOrEqualTo(String propertyName, Date literal) {
+    return TEMPORAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsBetween(String propertyName, Date lowerBoundary, Date upperBoundary) {
+    return TEMPORAL_CRITERION;
+  }
+
+  // Contextual
+
+  @Override
+  public Integer propertyIsLike(String propertyName, String pattern, boolean isCaseSensitive) {
+    return CONTEXTUAL_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsFuzzy(String propertyName, String literal) {
+    return CONTEXTUAL_CRITERION;
+  }
+
+  // XPath
+
+  @Override
+  public Integer xpathExists(String xpath) {
+    return XPATH_CRITERION;
+  }
+
+  @Override
+  public Integer xpathIsLike(String xpath, String pattern, boolean isCaseSensitive) {
+    return XPATH_CRITERION;
+  }
+
+  @Override
+  public Integer xpathIsFuzzy(String xpath, String literal) {
+    return XPATH_CRITERION;
+  }
+
+  // Attribute comparisons
+
+  @Override
+  public Integer propertyIsNull(String propertyName) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, String literal, boolean isCaseSensitive) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, int literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, short literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, long literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, float literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, double literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, boolean literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, byte[] literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsEqualTo(String propertyName, Object literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(
+      String propertyName, String literal, boolean isCaseSensitive) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, int literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, short literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, long literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, float literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, double literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, boolean literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, byte[] literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsNotEqualTo(String propertyName, Object literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThan(String propertyName, String literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThan(String propertyName, int literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThan(String propertyName, short literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThan(String propertyName, long literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThan(String propertyName, float literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThan(String propertyName, double literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThan(String propertyName, Object literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThanOrEqualTo(String propertyName, String literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThanOrEqualTo(String propertyName, int literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThanOrEqualTo(String propertyName, short literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThanOrEqualTo(String propertyName, long literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThanOrEqualTo(String propertyName, float literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThanOrEqualTo(String propertyName, double literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsGreaterThanOrEqualTo(String propertyName, Object literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThan(String propertyName, String literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThan(String propertyName, int literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThan(String propertyName, short literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThan(String propertyName, long literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThan(String propertyName, float literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThan(String propertyName, double literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThan(String propertyName, Object literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThanOrEqualTo(String propertyName, String literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThanOrEqualTo(String propertyName, int literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThanOrEqualTo(String propertyName, short literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThanOrEqualTo(String propertyName, long literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThanOrEqualTo(String propertyName, float literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThanOrEqualTo(String propertyName, double literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsLessThanOrEqualTo(String propertyName, Object literal) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsBetween(
+      String propertyName, String lowerBoundary, String upperBoundary) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsBetween(String propertyName, int lowerBoundary, int upperBoundary) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsBetween(String propertyName, short lowerBoundary, short upperBoundary) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsBetween(String propertyName, long lowerBoundary, long upperBoundary) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsBetween(String propertyName, float lowerBoundary, float upperBoundary) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsBetween(
+      String propertyName, double lowerBoundary, double upperBoundary) {
+    return ATTRIBUTE_CRITERION;
+  }
+
+  @Override
+  public Integer propertyIsBetween(
+      String propertyName, Object lowerBoundary, Object upperBoundary) {
+    return ATTRIBUTE_CRITERION;
+  }
+}
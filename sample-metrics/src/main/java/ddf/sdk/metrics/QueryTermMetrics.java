@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import ddf.catalog.operation.QueryRequest;
+import ddf.catalog.plugin.PluginExecutionException;
+import ddf.catalog.plugin.PreQueryPlugin;
+import ddf.catalog.plugin.StopProcessingException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.geotools.filter.visitor.DefaultFilterVisitor;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.PropertyName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the contextual phrases and the attribute names queries use, to size caches and indexes.
+ * Each is fed into a {@link HyperLogLog}, for how many distinct ones there are, and into {@link
+ * HeavyHitters}, for which ones dominate, so memory stays fixed however much traffic there is.
+ *
+ * <p>The sketches start afresh every window. The MBeans publish the last complete window, e.g.,
+ * sdk.metrics.sample:name=Queries.Terms.Phrases.Distinct and Queries.Terms.Phrases.Top.
+ */
+public class QueryTermMetrics implements PreQueryPlugin {
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueryTermMetrics.class);
+
+  // Longer phrases are counted by their start, so a few long ones cannot fill the heap's memory
+  private static final int MAX_TERM_LENGTH = 100;
+
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  private final JmxReporter reporter =
+      JmxReporter.forRegistry(metrics).inDomain("sdk.metrics.sample").build();
+
+  private final TermVisitor termVisitor = new TermVisitor();
+
+  private ScheduledExecutorService windowExecutor;
+
+  private long windowMinutes = 15;
+
+  private int topTerms = 20;
+
+  private volatile Window current = new Window(topTerms);
+
+  private volatile Window completed = new Window(topTerms);
+
+  public QueryTermMetrics() {
+    LOGGER.trace("ENTERING: QueryTermMetrics constructor");
+
+    metrics.register(
+        MetricRegistry.name("Queries", "Terms", "Phrases", "Distinct"),
+        (Gauge<Long>) () -> completed.phrases.estimate());
+    metrics.register(
+        MetricRegistry.name("Queries", "Terms", "Phrases", "Top"),
+        (Gauge<String>) () -> format(completed.topPhrases));
+    metrics.register(
+        MetricRegistry.name("Queries", "Terms", "Attributes", "Distinct"),
+        (Gauge<Long>) () -> completed.attributes.estimate());
+    metrics.register(
+        MetricRegistry.name("Queries", "Terms", "Attributes", "Top"),
+        (Gauge<String>) () -> format(completed.topAttributes));
+
+    LOGGER.trace("EXITING: QueryTermMetrics constructor");
+  }
+
+  /** Returns the registry the term gauges are kept in. */
+  public MetricRegistry getMetricRegistry() {
+    return metrics;
+  }
+
+  /** Sets how long each window is, after which the sketches start afresh. */
+  public void setWindowMinutes(long windowMinutes) {
+    this.windowMinutes = windowMinutes;
+  }
+
+  /** Sets how many of the most frequent phrases and attribute names are kept, at least one. */
+  public void setTopTerms(int topTerms) {
+    this.topTerms = Math.max(1, topTerms);
+  }
+
+  public void init() {
+    current = new Window(topTerms);
+    completed = new Window(topTerms);
+    windowExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "sdk-query-terms-window");
+              thread.setDaemon(true);
+              return thread;
+            });
+    long window = Math.max(1, windowMinutes);
+    windowExecutor.scheduleAtFixedRate(this::nextWindow, window, window, TimeUnit.MINUTES);
+    reporter.start();
+  }
+
+  public void destroy() {
+    if (windowExecutor != null) {
+      windowExecutor.shutdownNow();
+    }
+    reporter.stop();
+  }
+
+  // Pre-Query plugin
+  @Override
+  public QueryRequest process(QueryRequest input)
+      throws PluginExecutionException, StopProcessingException {
+    LOGGER.trace("ENTERING: process");
+
+    if (input != null && input.getQuery() != null) {
+      input.getQuery().accept(termVisitor, current);
+    }
+
+    LOGGER.trace("EXITING: process");
+
+    return input;
+  }
+
+  /** Publishes the current window and starts a new one; called when each window ends. */
+  void nextWindow() {
+    completed = current;
+    current = new Window(topTerms);
+  }
+
+  private static String format(HeavyHitters heavyHitters) {
+    StringBuilder top = new StringBuilder();
+    for (Map.Entry<String, Long> entry : heavyHitters.getTop()) {
+      if (top.length() > 0) {
+        top.append(", ");
+      }
+      top.append(entry.getKey()).append('=').append(entry.getValue());
+    }
+    return top.toString();
+  }
+
+  private static String term(String value) {
+    String term = value.trim();
+    return term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term;
+  }
+
+  /** The sketches for one window. */
+  private static class Window {
+    private final HyperLogLog phrases = new HyperLogLog();
+
+    private final HyperLogLog attributes = new HyperLogLog();
+
+    private final HeavyHitters topPhrases;
+
+    private final HeavyHitters topAttributes;
+
+    Window(int topTerms) {
+      topPhrases = new HeavyHitters(4, 2048, topTerms);
+      topAttributes = new HeavyHitters(4, 2048, topTerms);
+    }
+  }
+
+  /**
+   * Adds the phrase of each like criterion, and the name of each attribute, to the window it is
+   * given. It keeps no state, so one instance serves every query.
+   */
+  private static class TermVisitor extends DefaultFilterVisitor {
+
+    @Override
+    public Object visit(PropertyIsLike filter, Object data) {
+      if (filter.getLiteral() != null) {
+        // Phrases differing only in case are searched the same way unless matching case
+        String phrase = term(filter.getLiteral());
+        if (!filter.isMatchingCase()) {
+          phrase = phrase.toLowerCase();
+        }
+        Window window = (Window) data;
+        window.phrases.add(phrase);
+        window.topPhrases.add(phrase);
+      }
+      return super.visit(filter, data);
+    }
+
+    @Override
+    public Object visit(PropertyName expression, Object data) {
+      if (expression.getPropertyName() != null) {
+        String attribute = term(expression.getPropertyName());
+        Window window = (Window) data;
+        window.attributes.add(attribute);
+        window.topAttributes.add(attribute);
+      }
+      return super.visit(expression, data);
+    }
+  }
+}
@@ -13,6 +13,7 @@
  */
 package ddf.sdk.metrics;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.JmxReporter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -28,6 +29,17 @@ import org.slf4j.LoggerFactory;
 public class SampleMetrics implements PreQueryPlugin {
   private static final Logger LOGGER = LoggerFactory.getLogger(SampleMetrics.class);
 
+  /** The request property holding the {@link System#nanoTime()} at which the query started. */
+  public static final String START_NANOS_PROPERTY = "sdk.metrics.sample.startNanos";
+
+  /** The request property holding the {@link QueryShapeFilterDelegate} shape of the query. */
+  public static final String QUERY_SHAPE_PROPERTY = "sdk.metrics.sample.queryShape";
+
+  private static final int SPATIAL =
+      QueryShapeFilterDelegate.POINT_RADIUS
+          | QueryShapeFilterDelegate.POLYGON
+          | QueryShapeFilterDelegate.BBOX;
+
   private final MetricRegistry metrics = new MetricRegistry();
 
   private final JmxReporter reporter =
@@ -35,8 +47,31 @@ public class SampleMetrics implements PreQueryPlugin {
 
   protected final Meter pointRadiusQueries;
 
+  protected final Meter polygonQueries;
+
+  protected final Meter bboxQueries;
+
+  protected final Meter temporalQueries;
+
+  protected final Meter contextualQueries;
+
+  protected final Meter xpathQueries;
+
+  protected final Meter attributeQueries;
+
+  protected final Meter unclassifiedQueries;
+
+  protected final Histogram booleanDepth;
+
+  protected final Histogram predicateCount;
+
+  // Stateless, so one instance classifies every query
+  private final QueryShapeFilterDelegate queryShape = new QueryShapeFilterDelegate();
+
   private FilterAdapter filterAdapter;
 
+  private QueryHeatmap queryHeatmap;
+
   public SampleMetrics(FilterAdapter filterAdapter) {
     LOGGER.trace("ENTERING: SampleMetrics constructor");
 
@@ -46,33 +81,76 @@ public class SampleMetrics implements PreQueryPlugin {
     // NOTE: Also look in the sdk-app project's blueprint.xml file for how the configuration
     // of the JmxCollector for this MBean is setup
     pointRadiusQueries = metrics.meter(MetricRegistry.name("Queries", "PointRadius"));
+    polygonQueries = metrics.meter(MetricRegistry.name("Queries", "Polygon"));
+    bboxQueries = metrics.meter(MetricRegistry.name("Queries", "BoundingBox"));
+    temporalQueries = metrics.meter(MetricRegistry.name("Queries", "Temporal"));
+    contextualQueries = metrics.meter(MetricRegistry.name("Queries", "Contextual"));
+    xpathQueries = metrics.meter(MetricRegistry.name("Queries", "XPath"));
+    attributeQueries = metrics.meter(MetricRegistry.name("Queries", "Attribute"));
+    unclassifiedQueries = metrics.meter(MetricRegistry.name("Queries", "Unclassified"));
+    booleanDepth = metrics.histogram(MetricRegistry.name("Queries", "BooleanDepth"));
+    predicateCount = metrics.histogram(MetricRegistry.name("Queries", "Predicates"));
 
     reporter.start();
 
     LOGGER.trace("EXITING: SampleMetrics constructor");
   }
 
+  /** Returns the registry the query counts are kept in. */
+  public MetricRegistry getMetricRegistry() {
+    return metrics;
+  }
+
+  /** Sets the heatmap that spatial queries are offered to, if where they search is counted. */
+  public void setQueryHeatmap(QueryHeatmap queryHeatmap) {
+    this.queryHeatmap = queryHeatmap;
+  }
+
   // Pre-Query plugin
   @Override
   public QueryRequest process(QueryRequest input)
       throws PluginExecutionException, StopProcessingException {
     LOGGER.trace("ENTERING: process");
 
-    // Run the query request through this metric's filter delegate to check if this is
-    // a point radius type of query - if it is, mark (increment) the metric's counter, which
-    // results in incrementing the MBean's Count attribute
-    QueryTypeFilterDelegate queryType = new QueryTypeFilterDelegate();
+    // QueryLatencyMetrics, the matching post-query plugin, measures the latency from here
+    input.getProperties().put(START_NANOS_PROPERTY, System.nanoTime());
+
+    // Run the query request through this metric's filter delegate to classify its shape in one
+    // pass, then mark (increment) the metric's counter for each kind of criteria it uses, which
+    // results in incrementing that MBean's Count attribute
     try {
-      filterAdapter.adapt(input.getQuery(), queryType);
-      if (queryType.isPointRadius()) {
-        pointRadiusQueries.mark();
+      Integer shape = filterAdapter.adapt(input.getQuery(), queryShape);
+      if (shape != null) {
+        record(shape);
+        input.getProperties().put(QUERY_SHAPE_PROPERTY, shape);
+        if (queryHeatmap != null && QueryShapeFilterDelegate.has(shape, SPATIAL)) {
+          queryHeatmap.offer(input.getQuery());
+        }
       }
     } catch (UnsupportedQueryException e) {
-      // ignore filters not supported by the QueryTypeFilterDelegate
+      unclassifiedQueries.mark();
     }
 
     LOGGER.trace("EXITING: process");
 
     return input;
   }
+
+  private void record(int shape) {
+    mark(shape, QueryShapeFilterDelegate.POINT_RADIUS, pointRadiusQueries);
+    mark(shape, QueryShapeFilterDelegate.POLYGON, polygonQueries);
+    mark(shape, QueryShapeFilterDelegate.BBOX, bboxQueries);
+    mark(shape, QueryShapeFilterDelegate.TEMPORAL, temporalQueries);
+    mark(shape, QueryShapeFilterDelegate.CONTEXTUAL, contextualQueries);
+    mark(shape, QueryShapeFilterDelegate.XPATH, xpathQueries);
+    mark(shape, QueryShapeFilterDelegate.ATTRIBUTE, attributeQueries);
+    booleanDepth.update(QueryShapeFilterDelegate.getBooleanDepth(shape));
+    predicateCount.update(QueryShapeFilterDelegate.getPredicateCount(shape));
+  }
+
+  private static void mark(int shape, int kind, Meter meter) {
+    if (QueryShapeFilterDelegate.has(shape, kind)) {
+      meter.mark();
+    }
+  }
 }
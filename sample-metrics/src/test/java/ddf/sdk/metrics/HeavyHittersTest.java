@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class HeavyHittersTest {
+
+  @Test
+  public void testFindsMostFrequent() {
+    HeavyHitters heavyHitters = new HeavyHitters(4, 2048, 3);
+    // Three frequent terms among many that are each seen once
+    for (int i = 0; i < 5000; i++) {
+      heavyHitters.add("rare" + i);
+      if (i % 10 == 0) {
+        heavyHitters.add("cats");
+      }
+      if (i % 20 == 0) {
+        heavyHitters.add("dogs");
+      }
+      if (i % 50 == 0) {
+        heavyHitters.add("fish");
+      }
+    }
+
+    List<Map.Entry<String, Long>> top = heavyHitters.getTop();
+    assertEquals(3, top.size());
+    assertEquals("cats", top.get(0).getKey());
+    assertEquals("dogs", top.get(1).getKey());
+    assertEquals("fish", top.get(2).getKey());
+  }
+
+  @Test
+  public void testNeverUnderCounts() {
+    HeavyHitters heavyHitters = new HeavyHitters(4, 64, 5);
+    for (int i = 0; i < 1000; i++) {
+      heavyHitters.add("term" + (i % 100));
+    }
+
+    for (int i = 0; i < 100; i++) {
+      assertTrue(heavyHitters.estimate("term" + i) >= 10);
+    }
+  }
+
+  @Test
+  public void testUnseenIsZeroWhenSparse() {
+    HeavyHitters heavyHitters = new HeavyHitters(4, 2048, 5);
+    heavyHitters.add("cats");
+
+    assertEquals(1, heavyHitters.estimate("cats"));
+    assertEquals(0, heavyHitters.estimate("dogs"));
+  }
+
+  @Test
+  public void testKeepsAtLeastOne() {
+    HeavyHitters heavyHitters = new HeavyHitters(4, 2048, 0);
+    heavyHitters.add("cats");
+    heavyHitters.add("cats");
+    heavyHitters.add("dogs");
+
+    List<Map.Entry<String, Long>> top = heavyHitters.getTop();
+    assertEquals(1, top.size());
+    assertEquals("cats", top.get(0).getKey());
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0, new HyperLogLog().estimate());
+  }
+
+  @Test
+  public void testRepeatsCountOnce() {
+    HyperLogLog hyperLogLog = new HyperLogLog();
+    for (int i = 0; i < 10000; i++) {
+      hyperLogLog.add("term" + (i % 10));
+    }
+
+    assertEquals(10, hyperLogLog.estimate());
+  }
+
+  @Test
+  public void testLargeCountWithinError() {
+    HyperLogLog hyperLogLog = new HyperLogLog();
+    for (int i = 0; i < 100000; i++) {
+      hyperLogLog.add("term" + i);
+    }
+
+    // Five times the typical error of 1.6%
+    assertEquals(100000, hyperLogLog.estimate(), 100000 * 0.08);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPrecisionOutOfRange() {
+    new HyperLogLog(2);
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ddf.sdk.metrics.QueryLocationFilterDelegate.Location;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class QueryHeatmapTest {
+
+  private final QueryHeatmap heatmap = new QueryHeatmap(null);
+
+  @After
+  public void tearDown() {
+    heatmap.destroy();
+  }
+
+  @Test
+  public void testKnownGeohashes() {
+    assertEquals("u4pruydqqvj", QueryHeatmap.geohash(57.64911, 10.40744, 11));
+    assertEquals("ezs42", QueryHeatmap.geohash(42.605, -5.603, 5));
+    assertEquals("s0000", QueryHeatmap.geohash(0, 0, 5));
+    assertEquals("000", QueryHeatmap.geohash(-90, -180, 3));
+  }
+
+  @Test
+  public void testCellsOfPoint() {
+    assertEquals(
+        Collections.singleton("u4pruydqqvj"),
+        QueryHeatmap.cellsOf("POINT (10.40744 57.64911)", 0, 11));
+    assertEquals(Collections.singleton("s00dy"), QueryHeatmap.cellsOf("POINT (1e0 5e-1)", 0, 5));
+  }
+
+  @Test
+  public void testCellsOfPointSkipZAndM() {
+    assertEquals(Collections.singleton("s00dy"), QueryHeatmap.cellsOf("POINT Z (1 0.5 30)", 0, 5));
+    assertEquals(
+        new HashSet<>(Arrays.asList("s00dy", QueryHeatmap.geohash(2, 3, 5))),
+        QueryHeatmap.cellsOf("MULTIPOINT ZM ((1 0.5 30 7), (3 2 30 7))", 0, 5));
+  }
+
+  @Test
+  public void testCellsOfPolygonCoverItsBounds() {
+    Set<String> cells = QueryHeatmap.cellsOf("POLYGON ((0 0, 0.1 0, 0.1 0.1, 0 0.1, 0 0))", 0, 5);
+
+    // Cells of about 0.044 degrees, so three across and three down
+    assertEquals(9, cells.size());
+    assertTrue(cells.contains(QueryHeatmap.geohash(0.01, 0.01, 5)));
+    assertTrue(cells.contains(QueryHeatmap.geohash(0.09, 0.09, 5)));
+  }
+
+  @Test
+  public void testCellsOfLargePolygonAreLarger() {
+    Set<String> cells = QueryHeatmap.cellsOf("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))", 0, 5);
+
+    assertTrue(cells.size() <= QueryHeatmap.MAX_CELLS_PER_LOCATION);
+    for (String cell : cells) {
+      assertEquals(3, cell.length());
+    }
+    assertTrue(cells.contains(QueryHeatmap.geohash(0.5, 0.5, 3)));
+    assertTrue(cells.contains(QueryHeatmap.geohash(9.5, 9.5, 3)));
+  }
+
+  @Test
+  public void testCellsOfMultiPolygonAreThoseOfItsParts() {
+    Set<String> cells =
+        QueryHeatmap.cellsOf(
+            "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 1, 0 0)),"
+                + " ((100 40, 101 40, 101 41, 100 41, 100 40)))",
+            0,
+            3);
+
+    assertTrue(cells.contains(QueryHeatmap.geohash(0.5, 0.5, 3)));
+    assertTrue(cells.contains(QueryHeatmap.geohash(40.5, 100.5, 3)));
+    // Nothing in between, where neither part is
+    assertFalse(cells.contains(QueryHeatmap.geohash(20.5, 50.5, 3)));
+  }
+
+  @Test
+  public void testCellsOfPolygonAcrossTheAntimeridianWrapAround() {
+    Set<String> cells =
+        QueryHeatmap.cellsOf("POLYGON ((179 0, 181 0, 181 1, 179 1, 179 0))", 0, 3);
+
+    assertTrue(cells.contains(QueryHeatmap.geohash(0.5, 179.5, 3)));
+    assertTrue(cells.contains(QueryHeatmap.geohash(0.5, -179.5, 3)));
+    assertFalse(cells.contains(QueryHeatmap.geohash(0.5, 0, 3)));
+  }
+
+  @Test
+  public void testCellsOfDistanceCoverTheRadius() {
+    // 100 km is about 0.9 degrees, so the search reaches the cells next to the point's
+    Set<String> cells = QueryHeatmap.cellsOf("POINT (0.7 0.7)", 100_000, 3);
+
+    assertTrue(cells.contains(QueryHeatmap.geohash(0.7, 0.7, 3)));
+    assertTrue(cells.contains(QueryHeatmap.geohash(-0.1, -0.1, 3)));
+    assertTrue(cells.contains(QueryHeatmap.geohash(1.5, 1.5, 3)));
+  }
+
+  @Test
+  public void testCellsOfLineStringSkipTheLettersOfItsType() {
+    assertEquals(
+        Collections.singleton("s00dy"),
+        QueryHeatmap.cellsOf("LINESTRING (1 0.5, 1.01 0.51)", 0, 5));
+  }
+
+  @Test
+  public void testCellsOfGeometryWithoutCoordinates() {
+    assertTrue(QueryHeatmap.cellsOf("POINT EMPTY", 0, 5).isEmpty());
+    assertTrue(QueryHeatmap.cellsOf("POINT (1)", 0, 5).isEmpty());
+  }
+
+  @Test
+  public void testFullHeatmapDropsDecayedCells() {
+    heatmap.setMaxCells(2);
+    heatmap.setHalfLifeMinutes(1);
+    heatmap.init();
+    long now = System.currentTimeMillis();
+    String hot = QueryHeatmap.geohash(0, 0, 5);
+    String cold = QueryHeatmap.geohash(45, 90, 5);
+
+    for (int i = 0; i < 1000; i++) {
+      heatmap.record(point("POINT (0 0)"), now);
+    }
+    heatmap.record(point("POINT (90 45)"), now);
+    // Nothing has decayed yet, so there is no room for a third cell
+    heatmap.record(point("POINT (-60 -30)"), now);
+    assertEquals(2, cellCount());
+    assertEquals(1, overflowCount());
+
+    // A full heatmap is only pruned once a minute
+    heatmap.record(point("POINT (-60 -30)"), now + TimeUnit.SECONDS.toMillis(30));
+    assertEquals(2, cellCount());
+    assertEquals(2, overflowCount());
+
+    // Ten half-lives later the cold cell has decayed away, while the hot one has not
+    heatmap.record(point("POINT (-60 -30)"), now + TimeUnit.MINUTES.toMillis(10));
+    assertEquals(2, cellCount());
+    assertEquals(2, overflowCount());
+    String topCells = (String) gauge("Queries.Heatmap.TopCells");
+    assertTrue(topCells.contains(hot));
+    assertTrue(topCells.contains(QueryHeatmap.geohash(-30, -60, 5)));
+    assertFalse(topCells.contains(cold));
+  }
+
+  private static List<Location> point(String wkt) {
+    return Collections.singletonList(new Location(wkt, 0));
+  }
+
+  private int cellCount() {
+    return (Integer) gauge("Queries.Heatmap.Cells");
+  }
+
+  private Object gauge(String name) {
+    return heatmap.getMetricRegistry().getGauges().get(name).getValue();
+  }
+
+  private long overflowCount() {
+    return heatmap.getMetricRegistry().meter("Queries.Heatmap.Overflowed").getCount();
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import com.codahale.metrics.Timer;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.Result;
+import ddf.catalog.data.impl.MetacardImpl;
+import ddf.catalog.data.impl.ResultImpl;
+import ddf.catalog.filter.FilterBuilder;
+import ddf.catalog.filter.proxy.adapter.GeotoolsFilterAdapterImpl;
+import ddf.catalog.filter.proxy.builder.GeotoolsFilterBuilder;
+import ddf.catalog.operation.QueryRequest;
+import ddf.catalog.operation.impl.ProcessingDetailsImpl;
+import ddf.catalog.operation.impl.QueryImpl;
+import ddf.catalog.operation.impl.QueryRequestImpl;
+import ddf.catalog.operation.impl.QueryResponseImpl;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class QueryLatencyMetricsTest {
+
+  private static final FilterBuilder FILTER_BUILDER = new GeotoolsFilterBuilder();
+
+  private final SampleMetrics sampleMetrics = new SampleMetrics(new GeotoolsFilterAdapterImpl());
+
+  private final QueryLatencyMetrics latencyMetrics = new QueryLatencyMetrics();
+
+  @After
+  public void tearDown() {
+    latencyMetrics.destroy();
+  }
+
+  @Test
+  public void testLatencyIsTimedFromThePreQueryPlugin() throws Exception {
+    QueryRequest request =
+        sampleMetrics.process(
+            new QueryRequestImpl(
+                new QueryImpl(FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().text("a"))));
+
+    latencyMetrics.process(new QueryResponseImpl(request, Collections.emptyList(), 0));
+
+    assertEquals(1, timer("Queries.Latency").getCount());
+    // The shape SampleMetrics found picks the timers of the kinds of criteria the query used
+    assertEquals(1, timer("Queries.Latency.Contextual").getCount());
+    assertEquals(0, timer("Queries.Latency.Temporal").getCount());
+  }
+
+  @Test
+  public void testQueriesThePreQueryPluginDidNotSeeAreNotTimed() throws Exception {
+    QueryRequest request =
+        new QueryRequestImpl(
+            new QueryImpl(FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().text("a")));
+
+    latencyMetrics.process(new QueryResponseImpl(request, Collections.emptyList(), 0));
+
+    assertEquals(0, timer("Queries.Latency").getCount());
+  }
+
+  @Test
+  public void testSourcesWithoutResultsAreTimed() throws Exception {
+    QueryRequest request =
+        sampleMetrics.process(
+            new QueryRequestImpl(
+                new QueryImpl(FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().text("a")),
+                false,
+                Arrays.asList("answered", "empty"),
+                new HashMap<>()));
+    MetacardImpl metacard = new MetacardImpl();
+    metacard.setSourceId("answered");
+    List<Result> results = Collections.singletonList(new ResultImpl(metacard));
+    QueryResponseImpl response = new QueryResponseImpl(request, results, 1);
+    response.getProcessingDetails().add(new ProcessingDetailsImpl("failed", new Exception()));
+
+    latencyMetrics.process(response);
+
+    assertEquals(1, timer("Queries.Latency.Source.answered").getCount());
+    assertEquals(1, timer("Queries.Latency.Source.empty").getCount());
+    assertEquals(1, timer("Queries.Latency.Source.failed").getCount());
+  }
+
+  private Timer timer(String name) {
+    return latencyMetrics.getMetricRegistry().getTimers().get(name);
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class QueryShapeFilterDelegateTest {
+
+  private static final String RECTANGLE = "POLYGON ((0 0, 0 1, 2 1, 2 0, 0 0))";
+
+  private final QueryShapeFilterDelegate delegate = new QueryShapeFilterDelegate();
+
+  @Test
+  public void testRectangles() {
+    assertTrue(QueryShapeFilterDelegate.isRectangle(RECTANGLE));
+    assertTrue(QueryShapeFilterDelegate.isRectangle("POLYGON ((0 0, 2 0, 2 1, 0 1, 0 0) )"));
+    assertTrue(QueryShapeFilterDelegate.isRectangle("polygon( ( -1.5 0,-1.5 1,2 1,2 0,-1.5 0 ) )"));
+  }
+
+  @Test
+  public void testOtherGeometriesAreNotRectangles() {
+    assertFalse(QueryShapeFilterDelegate.isRectangle(null));
+    assertFalse(QueryShapeFilterDelegate.isRectangle("POINT (1 1)"));
+    assertFalse(QueryShapeFilterDelegate.isRectangle("POLYGON ((0 0, 10 0, 0 10, 0 0))"));
+    // Four corners, but its edges are diagonal
+    assertFalse(QueryShapeFilterDelegate.isRectangle("POLYGON ((0 0, 1 1, 2 0, 1 -1, 0 0))"));
+    assertFalse(
+        QueryShapeFilterDelegate.isRectangle(
+            "POLYGON ((0 0, 0 10, 10 10, 10 0, 0 0), (1 1, 1 2, 2 2, 2 1, 1 1))"));
+    assertFalse(
+        QueryShapeFilterDelegate.isRectangle("MULTIPOLYGON (((0 0, 0 1, 2 1, 2 0, 0 0)))"));
+    assertFalse(QueryShapeFilterDelegate.isRectangle("POLYGON ((0 0, 0 1, 2 1, 2 0, 0 0)"));
+  }
+
+  @Test
+  public void testSpatialKinds() {
+    int bbox = delegate.intersects("location", RECTANGLE);
+    int polygon = delegate.intersects("location", "POLYGON ((0 0, 10 0, 0 10, 0 0))");
+    int pointRadius = delegate.dwithin("location", "POINT (1 1)", 10);
+
+    assertTrue(QueryShapeFilterDelegate.has(bbox, QueryShapeFilterDelegate.BBOX));
+    assertFalse(QueryShapeFilterDelegate.has(bbox, QueryShapeFilterDelegate.POLYGON));
+    assertTrue(QueryShapeFilterDelegate.has(polygon, QueryShapeFilterDelegate.POLYGON));
+    assertTrue(QueryShapeFilterDelegate.has(pointRadius, QueryShapeFilterDelegate.POINT_RADIUS));
+  }
+
+  @Test
+  public void testSingleCriterion() {
+    int shape = delegate.propertyIsLike("anyText", "cats", false);
+
+    assertEquals(0, QueryShapeFilterDelegate.getBooleanDepth(shape));
+    assertEquals(1, QueryShapeFilterDelegate.getPredicateCount(shape));
+    assertTrue(QueryShapeFilterDelegate.has(shape, QueryShapeFilterDelegate.CONTEXTUAL));
+  }
+
+  @Test
+  public void testOperatorsCombineKindsDepthAndCount() {
+    int and =
+        delegate.and(
+            Arrays.asList(
+                delegate.propertyIsLike("anyText", "cats", false),
+                delegate.intersects("location", RECTANGLE),
+                delegate.propertyIsNull("title")));
+    int shape = delegate.or(Arrays.asList(delegate.not(and), delegate.xpathExists("//name")));
+
+    assertEquals(3, QueryShapeFilterDelegate.getBooleanDepth(shape));
+    assertEquals(4, QueryShapeFilterDelegate.getPredicateCount(shape));
+    int kinds =
+        QueryShapeFilterDelegate.CONTEXTUAL
+            | QueryShapeFilterDelegate.BBOX
+            | QueryShapeFilterDelegate.ATTRIBUTE
+            | QueryShapeFilterDelegate.XPATH;
+    assertEquals(kinds, shape & 0xFF);
+  }
+
+  @Test
+  public void testDepthSaturatesWithoutDisturbingCount() {
+    int shape = delegate.propertyIsLike("anyText", "cats", false);
+    for (int i = 0; i < 40; i++) {
+      shape = delegate.not(shape);
+    }
+
+    assertEquals(15, QueryShapeFilterDelegate.getBooleanDepth(shape));
+    assertEquals(1, QueryShapeFilterDelegate.getPredicateCount(shape));
+    assertEquals(QueryShapeFilterDelegate.CONTEXTUAL, shape & 0xFF);
+  }
+
+  @Test
+  public void testLargeCounts() {
+    List<Integer> operands = Collections.nCopies(100000, delegate.relative("created", 1000));
+
+    int shape = delegate.and(operands);
+
+    assertEquals(100000, QueryShapeFilterDelegate.getPredicateCount(shape));
+    assertEquals(1, QueryShapeFilterDelegate.getBooleanDepth(shape));
+    assertTrue(shape > 0);
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import ddf.catalog.data.Metacard;
+import ddf.catalog.filter.FilterBuilder;
+import ddf.catalog.filter.proxy.builder.GeotoolsFilterBuilder;
+import ddf.catalog.operation.QueryRequest;
+import ddf.catalog.operation.impl.QueryImpl;
+import ddf.catalog.operation.impl.QueryRequestImpl;
+import org.junit.After;
+import org.junit.Test;
+
+public class QueryTermMetricsTest {
+
+  private static final FilterBuilder FILTER_BUILDER = new GeotoolsFilterBuilder();
+
+  private final QueryTermMetrics plugin = new QueryTermMetrics();
+
+  @After
+  public void tearDown() {
+    plugin.destroy();
+  }
+
+  @Test
+  public void testTermsArePublishedWhenTheWindowEnds() throws Exception {
+    plugin.init();
+
+    plugin.process(likeQuery(Metacard.TITLE, "Cats"));
+    plugin.process(likeQuery(Metacard.ANY_TEXT, "cats"));
+    plugin.process(likeQuery(Metacard.ANY_TEXT, "dogs"));
+
+    // Only complete windows are published
+    assertEquals("", gauge("Phrases.Top"));
+    assertEquals(0L, gauge("Phrases.Distinct"));
+
+    plugin.nextWindow();
+
+    // Phrases that are not matched by case are counted the same whatever their case
+    assertEquals("cats=2, dogs=1", gauge("Phrases.Top"));
+    assertEquals(2L, gauge("Phrases.Distinct"));
+    assertEquals(Metacard.ANY_TEXT + "=2, " + Metacard.TITLE + "=1", gauge("Attributes.Top"));
+    assertEquals(2L, gauge("Attributes.Distinct"));
+  }
+
+  @Test
+  public void testQuietWindowPublishesNothing() throws Exception {
+    plugin.init();
+    plugin.process(likeQuery(Metacard.ANY_TEXT, "cats"));
+    plugin.nextWindow();
+
+    plugin.nextWindow();
+
+    assertEquals("", gauge("Phrases.Top"));
+    assertEquals(0L, gauge("Phrases.Distinct"));
+  }
+
+  @Test
+  public void testAtLeastOneTermIsKept() throws Exception {
+    plugin.setTopTerms(0);
+    plugin.init();
+
+    plugin.process(likeQuery(Metacard.ANY_TEXT, "cats"));
+    plugin.process(likeQuery(Metacard.ANY_TEXT, "cats"));
+    plugin.process(likeQuery(Metacard.ANY_TEXT, "dogs"));
+    plugin.nextWindow();
+
+    assertEquals("cats=2", gauge("Phrases.Top"));
+  }
+
+  @Test
+  public void testRequestWithoutQueryIsPassedOn() throws Exception {
+    assertNull(plugin.process(null));
+  }
+
+  private static QueryRequest likeQuery(String attribute, String phrase) {
+    return new QueryRequestImpl(
+        new QueryImpl(FILTER_BUILDER.attribute(attribute).is().like().text(phrase)));
+  }
+
+  private Object gauge(String name) {
+    return plugin.getMetricRegistry().getGauges().get("Queries.Terms." + name).getValue();
+  }
+}
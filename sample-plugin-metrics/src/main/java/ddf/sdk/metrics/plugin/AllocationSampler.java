@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics.plugin;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which plugin calls have their heap allocation measured, and measures it with the JVM's
+ * per-thread allocation counter. Reading the counter costs more than timing a call, so it is off by
+ * default, and when on only one call in {@code sampleRate} is measured. Both can be changed while
+ * the plugins are running.
+ */
+public class AllocationSampler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AllocationSampler.class);
+
+  private final com.sun.management.ThreadMXBean threads;
+
+  private volatile boolean enabled;
+
+  private volatile int sampleRate = 1;
+
+  public AllocationSampler() {
+    threads = supportedThreadMXBean();
+  }
+
+  /** Turns measuring on or off. It stays off on JVMs that cannot count allocations per thread. */
+  public void setEnabled(boolean enabled) {
+    if (enabled && threads == null) {
+      LOGGER.warn("This JVM cannot count allocations per thread, so they will not be measured");
+      return;
+    }
+    if (enabled && !threads.isThreadAllocatedMemoryEnabled()) {
+      threads.setThreadAllocatedMemoryEnabled(true);
+    }
+    this.enabled = enabled;
+  }
+
+  /** Sets how many calls there are for each one measured; 1 measures every call. */
+  public void setSampleRate(int sampleRate) {
+    this.sampleRate = Math.max(1, sampleRate);
+  }
+
+  /** Returns true if the call about to be made should be measured. */
+  public boolean sample() {
+    if (!enabled) {
+      return false;
+    }
+    int rate = sampleRate;
+    return rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+  }
+
+  /** Returns the bytes the current thread has allocated since it started. */
+  public long allocatedBytes() {
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean supportedThreadMXBean() {
+    try {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (threads.isThreadAllocatedMemorySupported()) {
+          return threads;
+        }
+      }
+    } catch (LinkageError e) {
+      // com.sun.management is not visible to this bundle
+      LOGGER.debug("Unable to load the JVM's thread allocation counter", e);
+    }
+    return null;
+  }
+}
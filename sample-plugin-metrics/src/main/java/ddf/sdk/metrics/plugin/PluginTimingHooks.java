@@ -0,0 +1,365 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics.plugin;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.hooks.service.EventListenerHook;
+import org.osgi.framework.hooks.service.FindHook;
+import org.osgi.framework.hooks.service.ListenerHook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service hooks that put a timing proxy in front of every catalog plugin service, so each plugin's
+ * calls are counted and timed without changing the plugin or the catalog framework.
+ *
+ * <p>When a plugin service is registered, this bundle registers a proxy for it under the same
+ * interfaces and properties, and then hides the original from every other bundle: the {@link
+ * EventListenerHook} keeps its service events from their listeners, and the {@link FindHook} keeps
+ * it out of their service lookups. The catalog framework only ever sees the proxy, which calls the
+ * plugin through a {@link TimingInvocationHandler}. When allocation sampling is turned on, a sample
+ * of the calls also have the heap they allocate measured.
+ *
+ * <p>Plugins registered before these hooks start are left as they are, since the catalog framework
+ * may already hold them and would otherwise call them twice. This bundle is given an early start
+ * level in its feature so that it starts before the plugins do.
+ *
+ * <p>Stopping this bundle would remove the proxies, and the catalog framework is never told the
+ * originals are back. So when these hooks are destroyed, the bundles that registered the timed
+ * plugins are restarted, and each proxy stays registered until its bundle has registered its
+ * plugins again, or until the handover times out. The catalog is therefore never left without a
+ * plugin, which matters most for access and policy plugins; while a bundle restarts, its proxies
+ * still call the plugins of the stopped bundle.
+ */
+public class PluginTimingHooks implements EventListenerHook, FindHook {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PluginTimingHooks.class);
+
+  /** Set on each proxy's registration, so that proxies are never proxied themselves. */
+  public static final String PROXY_PROPERTY = "sdk.metrics.plugin.timingProxy";
+
+  // Set by the framework on each registration, so not copied to the proxy
+  private static final Set<String> FRAMEWORK_PROPERTIES = new HashSet<>();
+
+  static {
+    FRAMEWORK_PROPERTIES.add(Constants.OBJECTCLASS);
+    FRAMEWORK_PROPERTIES.add(Constants.SERVICE_ID);
+    FRAMEWORK_PROPERTIES.add("service.bundleid");
+    FRAMEWORK_PROPERTIES.add("service.scope");
+  }
+
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  private final JmxReporter reporter =
+      JmxReporter.forRegistry(metrics).inDomain("sdk.metrics.plugins").build();
+
+  private final Map<ServiceReference<?>, ServiceRegistration<?>> proxies =
+      new ConcurrentHashMap<>();
+
+  private final AllocationSampler allocationSampler = new AllocationSampler();
+
+  private final BundleContext bundleContext;
+
+  private Set<String> pluginInterfaces = new HashSet<>();
+
+  private long handoverTimeoutSeconds = 30;
+
+  private volatile boolean running;
+
+  public PluginTimingHooks(BundleContext bundleContext) {
+    this.bundleContext = bundleContext;
+  }
+
+  /** Returns the registry the plugin timers are kept in. */
+  public MetricRegistry getMetricRegistry() {
+    return metrics;
+  }
+
+  /**
+   * Sets the names of the interfaces whose services are timed, e.g.,
+   * ddf.catalog.plugin.PreQueryPlugin.
+   */
+  public void setPluginInterfaces(List<String> pluginInterfaces) {
+    this.pluginInterfaces = new HashSet<>(pluginInterfaces);
+  }
+
+  /**
+   * Sets how long to keep the proxies registered, once these hooks are destroyed, while the bundles
+   * of the timed plugins restart and register them again.
+   */
+  public void setHandoverTimeoutSeconds(long handoverTimeoutSeconds) {
+    this.handoverTimeoutSeconds = Math.max(0, handoverTimeoutSeconds);
+  }
+
+  /**
+   * Turns on measuring the heap each plugin call allocates. This can be changed while the plugins
+   * are running.
+   */
+  public void setAllocationSampling(boolean allocationSampling) {
+    allocationSampler.setEnabled(allocationSampling);
+  }
+
+  /** Sets how many plugin calls there are for each one whose allocation is measured. */
+  public void setAllocationSampleRate(int allocationSampleRate) {
+    allocationSampler.setSampleRate(allocationSampleRate);
+  }
+
+  public void init() {
+    reporter.start();
+    running = true;
+    LOGGER.debug("Timing services registered from now on for {}", pluginInterfaces);
+  }
+
+  public void destroy() {
+    running = false;
+    Map<Bundle, Integer> owners = new LinkedHashMap<>();
+    for (ServiceReference<?> original : proxies.keySet()) {
+      Bundle owner = original.getBundle();
+      if (owner != null && owner.getState() == Bundle.ACTIVE) {
+        owners.merge(owner, 1, Integer::sum);
+      }
+    }
+    if (!owners.isEmpty() && !isFrameworkStopping()) {
+      handOver(owners);
+    }
+    for (ServiceReference<?> original : new ArrayList<>(proxies.keySet())) {
+      unregisterProxy(original);
+    }
+    reporter.stop();
+  }
+
+  /**
+   * Restarts the bundles of the timed plugins, and waits for them to register as many plugins as
+   * they had proxied, before the proxies are unregistered.
+   */
+  private void handOver(Map<Bundle, Integer> owners) {
+    CountDownLatch registered = new CountDownLatch(owners.values().stream().mapToInt(i -> i).sum());
+    ServiceListener listener =
+        event -> {
+          if (event.getType() == ServiceEvent.REGISTERED
+              && owners.containsKey(event.getServiceReference().getBundle())
+              && isPlugin(event.getServiceReference())) {
+            registered.countDown();
+          }
+        };
+    bundleContext.addServiceListener(listener);
+    try {
+      owners.keySet().forEach(PluginTimingHooks::restart);
+      if (!registered.await(handoverTimeoutSeconds, TimeUnit.SECONDS)) {
+        LOGGER.warn(
+            "Timed out waiting for {} to register their plugins again; restart any that the "
+                + "catalog no longer uses",
+            owners.keySet());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      bundleContext.removeServiceListener(listener);
+    }
+  }
+
+  private boolean isFrameworkStopping() {
+    Bundle framework = bundleContext.getBundle(Constants.SYSTEM_BUNDLE_ID);
+    return framework == null || framework.getState() == Bundle.STOPPING;
+  }
+
+  /** Restarts {@code bundle}, so that its services are registered again for every bundle. */
+  private static void restart(Bundle bundle) {
+    try {
+      bundle.stop(Bundle.STOP_TRANSIENT);
+      bundle.start(Bundle.START_TRANSIENT);
+      LOGGER.debug("Restarted {} to register its plugins again", bundle.getSymbolicName());
+    } catch (BundleException | IllegalStateException e) {
+      LOGGER.warn(
+          "Unable to restart {}; restart it so the catalog uses its plugins again",
+          bundle.getSymbolicName(),
+          e);
+    }
+  }
+
+  @Override
+  public void event(
+      ServiceEvent event, Map<BundleContext, Collection<ListenerHook.ListenerInfo>> listeners) {
+    ServiceReference<?> reference = event.getServiceReference();
+    if (!isPlugin(reference)) {
+      return;
+    }
+
+    switch (event.getType()) {
+      case ServiceEvent.REGISTERED:
+        if (running) {
+          registerProxy(reference);
+        }
+        break;
+      case ServiceEvent.MODIFIED:
+        ServiceRegistration<?> registration = proxies.get(reference);
+        if (registration != null) {
+          registration.setProperties(proxyProperties(reference));
+        }
+        break;
+      case ServiceEvent.UNREGISTERING:
+        if (proxies.containsKey(reference)) {
+          hide(listeners.keySet());
+          // While the hooks are destroyed, the proxy stays until the plugin is registered again
+          if (running) {
+            unregisterProxy(reference);
+          }
+        }
+        return;
+      default:
+        break;
+    }
+
+    if (proxies.containsKey(reference)) {
+      hide(listeners.keySet());
+    }
+  }
+
+  @Override
+  public void find(
+      BundleContext context,
+      String name,
+      String filter,
+      boolean allServices,
+      Collection<ServiceReference<?>> references) {
+    if (!isHiddenFrom(context)) {
+      return;
+    }
+    for (Iterator<ServiceReference<?>> iterator = references.iterator(); iterator.hasNext(); ) {
+      if (proxies.containsKey(iterator.next())) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private boolean isPlugin(ServiceReference<?> reference) {
+    if (reference.getProperty(PROXY_PROPERTY) != null
+        || reference.getBundle() == null
+        || reference.getBundle().equals(bundleContext.getBundle())) {
+      return false;
+    }
+    for (String objectClass : (String[]) reference.getProperty(Constants.OBJECTCLASS)) {
+      if (pluginInterfaces.contains(objectClass)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void hide(Collection<BundleContext> contexts) {
+    for (Iterator<BundleContext> iterator = contexts.iterator(); iterator.hasNext(); ) {
+      if (isHiddenFrom(iterator.next())) {
+        iterator.remove();
+      }
+    }
+  }
+
+  // This bundle and the framework itself still see the originals
+  private boolean isHiddenFrom(BundleContext context) {
+    Bundle bundle = context.getBundle();
+    return bundle.getBundleId() != 0 && !bundle.equals(bundleContext.getBundle());
+  }
+
+  private void registerProxy(ServiceReference<?> reference) {
+    Class<?>[] interfaces = interfaces(reference);
+    if (interfaces == null) {
+      return;
+    }
+    Object service = bundleContext.getService(reference);
+    if (service == null) {
+      return;
+    }
+
+    Object proxy =
+        Proxy.newProxyInstance(
+            service.getClass().getClassLoader(),
+            interfaces,
+            new TimingInvocationHandler(service, interfaces, metrics, allocationSampler));
+    String[] names = new String[interfaces.length];
+    for (int i = 0; i < interfaces.length; i++) {
+      names[i] = interfaces[i].getName();
+    }
+    proxies.put(reference, bundleContext.registerService(names, proxy, proxyProperties(reference)));
+    LOGGER.debug("Timing {} through a proxy", service.getClass().getName());
+  }
+
+  private void unregisterProxy(ServiceReference<?> reference) {
+    ServiceRegistration<?> registration = proxies.remove(reference);
+    if (registration == null) {
+      return;
+    }
+    try {
+      registration.unregister();
+    } catch (IllegalStateException e) {
+      LOGGER.debug("Timing proxy was already unregistered", e);
+    }
+    bundleContext.ungetService(reference);
+  }
+
+  /**
+   * Returns the interfaces the service is registered under, loaded by the bundle that registered
+   * it, or null if any of them cannot be proxied.
+   */
+  private static Class<?>[] interfaces(ServiceReference<?> reference) {
+    String[] objectClasses = (String[]) reference.getProperty(Constants.OBJECTCLASS);
+    Class<?>[] interfaces = new Class<?>[objectClasses.length];
+    try {
+      for (int i = 0; i < objectClasses.length; i++) {
+        interfaces[i] = reference.getBundle().loadClass(objectClasses[i]);
+        if (!interfaces[i].isInterface()) {
+          LOGGER.debug("Not timing service {}, which is registered as a class", reference);
+          return null;
+        }
+      }
+    } catch (ClassNotFoundException e) {
+      LOGGER.debug("Not timing service {}, whose interfaces could not be loaded", reference, e);
+      return null;
+    }
+    return interfaces;
+  }
+
+  private static Dictionary<String, Object> proxyProperties(ServiceReference<?> reference) {
+    Dictionary<String, Object> properties = new Hashtable<>();
+    for (String key : reference.getPropertyKeys()) {
+      if (!FRAMEWORK_PROPERTIES.contains(key)) {
+        properties.put(key, reference.getProperty(key));
+      }
+    }
+    properties.put(PROXY_PROPERTY, true);
+    return properties;
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics.plugin;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import ddf.catalog.data.Result;
+import ddf.catalog.operation.SourceResponse;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every call a proxy makes to the plugin interface methods of a service, and passes any other
+ * call, such as {@code toString}, straight through.
+ *
+ * <p>The metrics are looked up once, when the handler is created, so a call costs two {@link
+ * System#nanoTime()} reads and a timer update on top of the plugin itself. The calls the {@link
+ * AllocationSampler} picks also have the bytes they allocate recorded, both per call and, when the
+ * call is given results (a query response or a single result), per result.
+ */
+public class TimingInvocationHandler implements InvocationHandler {
+
+  private final Object service;
+
+  private final AllocationSampler allocationSampler;
+
+  private final Map<Method, MethodMetrics> methodMetrics = new HashMap<>();
+
+  /**
+   * @param service the plugin to call
+   * @param interfaces the plugin interfaces the proxy implements
+   * @param metrics the registry to add the metrics to, each named for the interface, the plugin
+   *     class and the method, e.g., PreQueryPlugin.ddf.sdk.plugin.DummyPreQueryPlugin.process
+   * @param allocationSampler picks the calls whose allocation is measured
+   */
+  public TimingInvocationHandler(
+      Object service,
+      Class<?>[] interfaces,
+      MetricRegistry metrics,
+      AllocationSampler allocationSampler) {
+    this.service = service;
+    this.allocationSampler = allocationSampler;
+    for (Class<?> type : interfaces) {
+      for (Method method : type.getMethods()) {
+        if (method.getDeclaringClass() != Object.class) {
+          methodMetrics.put(
+              method,
+              new MethodMetrics(
+                  metrics,
+                  MetricRegistry.name(
+                      type.getSimpleName(), service.getClass().getName(), method.getName())));
+        }
+      }
+    }
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    MethodMetrics metrics = methodMetrics.get(method);
+    if (metrics == null) {
+      return call(method, args);
+    }
+
+    boolean sampled = allocationSampler.sample();
+    long allocatedBefore = sampled ? allocationSampler.allocatedBytes() : 0;
+    long start = System.nanoTime();
+    try {
+      return call(method, args);
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      // Read before the metrics are updated, since their reservoirs allocate too
+      long allocated = sampled ? allocationSampler.allocatedBytes() - allocatedBefore : 0;
+      metrics.timer.update(elapsed, TimeUnit.NANOSECONDS);
+      if (sampled) {
+        metrics.allocatedBytes.update(allocated);
+        int results = countResults(args);
+        if (results > 0) {
+          metrics.allocatedBytesPerResult.update(allocated / results);
+        }
+      }
+    }
+  }
+
+  private Object call(Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(service, args);
+    } catch (InvocationTargetException e) {
+      // Callers see the plugin's own exceptions, e.g., StopProcessingException
+      throw e.getCause();
+    }
+  }
+
+  private static int countResults(Object[] args) {
+    if (args == null) {
+      return 0;
+    }
+    for (Object arg : args) {
+      if (arg instanceof Result) {
+        return 1;
+      }
+      if (arg instanceof SourceResponse) {
+        List<Result> results = ((SourceResponse) arg).getResults();
+        return results == null ? 0 : results.size();
+      }
+    }
+    return 0;
+  }
+
+  private static class MethodMetrics {
+    private final Timer timer;
+
+    private final Histogram allocatedBytes;
+
+    private final Histogram allocatedBytesPerResult;
+
+    MethodMetrics(MetricRegistry metrics, String name) {
+      timer = metrics.timer(name);
+      allocatedBytes = metrics.histogram(MetricRegistry.name(name, "AllocatedBytes"));
+      allocatedBytesPerResult =
+          metrics.histogram(MetricRegistry.name(name, "AllocatedBytesPerResult"));
+    }
+  }
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import ddf.catalog.plugin.PreQueryPlugin;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.hooks.service.ListenerHook;
+
+public class PluginTimingHooksTest {
+
+  private static final PreQueryPlugin PLUGIN = request -> request;
+
+  // What was done to the stubs, in order, e.g. "registerService" or "stop plugin"
+  private final List<String> calls = new ArrayList<>();
+
+  private final Bundle framework = bundle(0, "framework");
+
+  private final Bundle hooksBundle = bundle(1, "hooks");
+
+  private final Bundle pluginBundle = bundle(2, "plugin");
+
+  private final Bundle catalogBundle = bundle(3, "catalog");
+
+  private final BundleContext hooksContext = hooksContext();
+
+  private final PluginTimingHooks hooks = new PluginTimingHooks(hooksContext);
+
+  private Map<String, Object> registeredProperties;
+
+  // The plugins registered from the plugin bundle, which are unregistered when it stops
+  private final List<ServiceReference<?>> pluginServices = new ArrayList<>();
+
+  // How many plugins the plugin bundle registers again when it starts
+  private int pluginsOnStart;
+
+  private ServiceListener serviceListener;
+
+  @Before
+  public void setUp() {
+    hooks.setPluginInterfaces(Collections.singletonList(PreQueryPlugin.class.getName()));
+    hooks.init();
+  }
+
+  @Test
+  public void testRegisteredPluginIsProxiedAndHidden() {
+    ServiceReference<?> original = reference(pluginBundle, PreQueryPlugin.class.getName());
+    Map<BundleContext, Collection<ListenerHook.ListenerInfo>> listeners = listeners();
+
+    hooks.event(new ServiceEvent(ServiceEvent.REGISTERED, original), listeners);
+
+    assertEquals(Collections.singletonList("registerService"), calls);
+    assertEquals(true, registeredProperties.get(PluginTimingHooks.PROXY_PROPERTY));
+    assertEquals("value", registeredProperties.get("custom"));
+    assertFalse(registeredProperties.containsKey(Constants.OBJECTCLASS));
+    assertEquals(2, listeners.size());
+    assertFalse(listeners.containsKey(context(catalogBundle)));
+
+    List<ServiceReference<?>> found = new ArrayList<>(Collections.singletonList(original));
+    hooks.find(context(catalogBundle), null, null, false, found);
+    assertTrue(found.isEmpty());
+
+    found.add(original);
+    hooks.find(hooksContext, null, null, false, found);
+    hooks.find(context(framework), null, null, false, found);
+    assertEquals(1, found.size());
+  }
+
+  @Test
+  public void testOtherServicesAreLeftAlone() {
+    ServiceReference<?> other = reference(pluginBundle, Runnable.class.getName());
+    Map<BundleContext, Collection<ListenerHook.ListenerInfo>> listeners = listeners();
+
+    hooks.event(new ServiceEvent(ServiceEvent.REGISTERED, other), listeners);
+
+    assertTrue(calls.isEmpty());
+    assertEquals(3, listeners.size());
+  }
+
+  @Test
+  public void testProxiesAreNotProxied() {
+    ServiceReference<?> proxy = reference(hooksBundle, PreQueryPlugin.class.getName());
+
+    hooks.event(new ServiceEvent(ServiceEvent.REGISTERED, proxy), listeners());
+
+    assertTrue(calls.isEmpty());
+  }
+
+  @Test
+  public void testUnregisteringPluginUnregistersProxy() {
+    ServiceReference<?> original = reference(pluginBundle, PreQueryPlugin.class.getName());
+    hooks.event(new ServiceEvent(ServiceEvent.REGISTERED, original), listeners());
+    calls.clear();
+    Map<BundleContext, Collection<ListenerHook.ListenerInfo>> listeners = listeners();
+
+    hooks.event(new ServiceEvent(ServiceEvent.UNREGISTERING, original), listeners);
+
+    assertEquals(Arrays.asList("unregister", "ungetService"), calls);
+    assertFalse(listeners.containsKey(context(catalogBundle)));
+
+    // The original is no longer hidden once its proxy is gone
+    List<ServiceReference<?>> found = new ArrayList<>(Collections.singletonList(original));
+    hooks.find(context(catalogBundle), null, null, false, found);
+    assertEquals(1, found.size());
+  }
+
+  @Test
+  public void testDestroyHandsOverOnceThePluginsAreRegisteredAgain() {
+    ServiceReference<?> original = registerPlugin();
+    registerPlugin();
+    pluginsOnStart = 2;
+    calls.clear();
+
+    hooks.destroy();
+
+    // The proxies outlive the stopped plugins, so the catalog always has them
+    assertEquals(
+        Arrays.asList(
+            "stop plugin",
+            "start plugin",
+            "registered",
+            "registered",
+            "unregister",
+            "ungetService",
+            "unregister",
+            "ungetService"),
+        calls);
+    assertNull(serviceListener);
+    List<ServiceReference<?>> found = new ArrayList<>(Collections.singletonList(original));
+    hooks.find(context(catalogBundle), null, null, false, found);
+    assertEquals(1, found.size());
+  }
+
+  @Test
+  public void testDestroyUnregistersProxiesOnceTheHandoverTimesOut() {
+    registerPlugin();
+    hooks.setHandoverTimeoutSeconds(0);
+    calls.clear();
+
+    hooks.destroy();
+
+    assertEquals(
+        Arrays.asList("stop plugin", "start plugin", "unregister", "ungetService"), calls);
+    assertNull(serviceListener);
+  }
+
+  @Test
+  public void testPluginsRegisteredAfterDestroyAreNotProxied() {
+    hooks.destroy();
+
+    hooks.event(
+        new ServiceEvent(
+            ServiceEvent.REGISTERED, reference(pluginBundle, PreQueryPlugin.class.getName())),
+        listeners());
+
+    assertTrue(calls.isEmpty());
+  }
+
+  private ServiceReference<?> registerPlugin() {
+    ServiceReference<?> original = reference(pluginBundle, PreQueryPlugin.class.getName());
+    pluginServices.add(original);
+    hooks.event(new ServiceEvent(ServiceEvent.REGISTERED, original), listeners());
+    return original;
+  }
+
+  private Map<BundleContext, Collection<ListenerHook.ListenerInfo>> listeners() {
+    Map<BundleContext, Collection<ListenerHook.ListenerInfo>> listeners = new HashMap<>();
+    listeners.put(context(framework), new ArrayList<>());
+    listeners.put(hooksContext, new ArrayList<>());
+    listeners.put(context(catalogBundle), new ArrayList<>());
+    return listeners;
+  }
+
+  private BundleContext hooksContext() {
+    return stub(
+        BundleContext.class,
+        (method, args) -> {
+          switch (method) {
+            case "getBundle":
+              return args == null ? hooksBundle : framework;
+            case "getService":
+              return PLUGIN;
+            case "ungetService":
+              calls.add(method);
+              return true;
+            case "addServiceListener":
+              serviceListener = (ServiceListener) args[0];
+              return null;
+            case "removeServiceListener":
+              serviceListener = null;
+              return null;
+            case "registerService":
+              calls.add(method);
+              registeredProperties = new HashMap<>();
+              Hashtable<?, ?> properties = (Hashtable<?, ?>) args[2];
+              properties.forEach((key, value) -> registeredProperties.put((String) key, value));
+              return registration();
+            default:
+              return null;
+          }
+        });
+  }
+
+  private ServiceRegistration<?> registration() {
+    return stub(
+        ServiceRegistration.class,
+        (method, args) -> {
+          if (method.equals("unregister")) {
+            calls.add(method);
+          }
+          return null;
+        });
+  }
+
+  private Bundle bundle(long id, String name) {
+    return stub(
+        Bundle.class,
+        (method, args) -> {
+          switch (method) {
+            case "getBundleId":
+              return id;
+            case "getSymbolicName":
+              return name;
+            case "getState":
+              return Bundle.ACTIVE;
+            case "loadClass":
+              return Class.forName((String) args[0]);
+            case "stop":
+              calls.add(method + " " + name);
+              for (ServiceReference<?> service : pluginServices) {
+                hooks.event(new ServiceEvent(ServiceEvent.UNREGISTERING, service), listeners());
+              }
+              pluginServices.clear();
+              return null;
+            case "start":
+              calls.add(method + " " + name);
+              for (int i = 0; i < pluginsOnStart; i++) {
+                calls.add("registered");
+                serviceListener.serviceChanged(
+                    new ServiceEvent(
+                        ServiceEvent.REGISTERED,
+                        reference(pluginBundle, PreQueryPlugin.class.getName())));
+              }
+              return null;
+            default:
+              return null;
+          }
+        });
+  }
+
+  // Contexts are compared by their bundle, so each call returns an equal context
+  private BundleContext context(Bundle bundle) {
+    return stub(
+        BundleContext.class,
+        (method, args) -> {
+          switch (method) {
+            case "getBundle":
+              return bundle;
+            case "equals":
+              return args[0] instanceof BundleContext
+                  && ((BundleContext) args[0]).getBundle().equals(bundle);
+            case "hashCode":
+              return bundle.hashCode();
+            default:
+              return null;
+          }
+        });
+  }
+
+  private ServiceReference<?> reference(Bundle bundle, String objectClass) {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put(Constants.OBJECTCLASS, new String[] {objectClass});
+    properties.put(Constants.SERVICE_ID, 42L);
+    properties.put("custom", "value");
+    if (bundle == hooksBundle) {
+      properties.put(PluginTimingHooks.PROXY_PROPERTY, true);
+    }
+    return stub(
+        ServiceReference.class,
+        (method, args) -> {
+          switch (method) {
+            case "getBundle":
+              return bundle;
+            case "getProperty":
+              return properties.get(args[0]);
+            case "getPropertyKeys":
+              return properties.keySet().toArray(new String[0]);
+            default:
+              return null;
+          }
+        });
+  }
+
+  private interface Answer {
+    Object answer(String method, Object[] args) throws Exception;
+  }
+
+  /** Returns a stub that is only equal to itself, unless {@code answer} says otherwise. */
+  private static <T> T stub(Class<T> type, Answer answer) {
+    Object stub =
+        Proxy.newProxyInstance(
+            PluginTimingHooksTest.class.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> {
+              Object result = answer.answer(method.getName(), args);
+              if (result != null) {
+                return result;
+              }
+              switch (method.getName()) {
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "toString":
+                  return type.getSimpleName() + "@" + System.identityHashCode(proxy);
+                default:
+                  return method.getReturnType() == boolean.class ? false : null;
+              }
+            });
+    return type.cast(stub);
+  }
+}
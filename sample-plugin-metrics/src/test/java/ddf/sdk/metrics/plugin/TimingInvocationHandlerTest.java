@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package ddf.sdk.metrics.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import ddf.catalog.data.Result;
+import ddf.catalog.data.impl.ResultImpl;
+import ddf.catalog.operation.impl.QueryResponseImpl;
+import ddf.catalog.plugin.PolicyPlugin;
+import ddf.catalog.plugin.PostQueryPlugin;
+import ddf.catalog.plugin.PreQueryPlugin;
+import ddf.catalog.plugin.StopProcessingException;
+import ddf.sdk.plugin.filter.FilterPostQueryPlugin;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class TimingInvocationHandlerTest {
+
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  private final StubAllocationSampler sampler = new StubAllocationSampler();
+
+  @Test
+  public void testCallsAreTimed() throws Exception {
+    PreQueryPlugin plugin = proxy(PreQueryPlugin.class, request -> request);
+
+    plugin.process(null);
+    plugin.process(null);
+
+    assertEquals(2, timer("process").getCount());
+    assertEquals(0, histogram("process.AllocatedBytes").getCount());
+  }
+
+  @Test
+  public void testUnsampledCallsDoNotReadTheAllocationCounter() throws Exception {
+    PreQueryPlugin plugin = proxy(PreQueryPlugin.class, request -> request);
+
+    plugin.process(null);
+
+    assertEquals(0, sampler.reads.size());
+    assertEquals(0, histogram("process.AllocatedBytes").getCount());
+  }
+
+  @Test
+  public void testPluginExceptionsAreUnwrapped() throws Exception {
+    StopProcessingException stop = new StopProcessingException("stop");
+    PreQueryPlugin plugin =
+        proxy(
+            PreQueryPlugin.class,
+            request -> {
+              throw stop;
+            });
+
+    try {
+      plugin.process(null);
+      fail("Expected the plugin's exception");
+    } catch (StopProcessingException e) {
+      assertSame(stop, e);
+    }
+    assertEquals(1, timer("process").getCount());
+  }
+
+  @Test
+  public void testSampledCallsRecordBytesPerCallAndPerResult() throws Exception {
+    sampler.sampled = true;
+    PostQueryPlugin plugin =
+        proxy(
+            PostQueryPlugin.class,
+            response -> {
+              sampler.allocated += 300;
+              return response;
+            });
+    List<Result> results = Arrays.asList(new ResultImpl(), new ResultImpl(), new ResultImpl());
+
+    plugin.process(new QueryResponseImpl(null, results, results.size()));
+
+    assertEquals(300, histogram("process.AllocatedBytes").getSnapshot().getMax());
+    assertEquals(100, histogram("process.AllocatedBytesPerResult").getSnapshot().getMax());
+  }
+
+  @Test
+  public void testAllocationIsReadBeforeTheTimerIsUpdated() throws Exception {
+    sampler.sampled = true;
+    PreQueryPlugin plugin = proxy(PreQueryPlugin.class, request -> request);
+    sampler.timer = timer("process");
+
+    plugin.process(null);
+
+    // Updating the timer allocates, which must not be charged to the plugin
+    assertEquals(Arrays.asList(0L, 0L), sampler.reads);
+    assertEquals(1, timer("process").getCount());
+  }
+
+  @Test
+  public void testFilterPostQueryPluginIsMeasuredPerResult() throws Exception {
+    sampler.sampled = true;
+    PolicyPlugin plugin = proxy(PolicyPlugin.class, new FilterPostQueryPlugin());
+
+    plugin.processPostQuery(new ResultImpl(), Collections.emptyMap());
+
+    String name =
+        MetricRegistry.name(
+            "PolicyPlugin", FilterPostQueryPlugin.class.getName(), "processPostQuery");
+    assertEquals(1, metrics.getTimers().get(name).getCount());
+    assertEquals(1, metrics.getHistograms().get(name + ".AllocatedBytesPerResult").getCount());
+  }
+
+  @Test
+  public void testObjectMethodsAreNotTimed() {
+    PreQueryPlugin target = request -> request;
+    PreQueryPlugin plugin = proxy(PreQueryPlugin.class, target);
+
+    assertEquals(target.toString(), plugin.toString());
+    assertEquals(0, timer("process").getCount());
+  }
+
+  private <T> T proxy(Class<T> type, T plugin) {
+    Class<?>[] interfaces = {type};
+    return type.cast(
+        Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            interfaces,
+            new TimingInvocationHandler(plugin, interfaces, metrics, sampler)));
+  }
+
+  // The plugins here are lambdas, so the metrics are found by the method they time
+  private Timer timer(String method) {
+    return metrics.getTimers(endsWith(method)).values().iterator().next();
+  }
+
+  private Histogram histogram(String suffix) {
+    return metrics.getHistograms(endsWith(suffix)).values().iterator().next();
+  }
+
+  private static MetricFilter endsWith(String suffix) {
+    return (name, metric) -> name.endsWith("." + suffix);
+  }
+
+  /** Samples as told, and counts allocation with a field instead of the JVM's counter. */
+  private static class StubAllocationSampler extends AllocationSampler {
+
+    private boolean sampled;
+
+    private long allocated;
+
+    private Timer timer;
+
+    // The timer's count at each read of the allocation counter
+    private final List<Long> reads = new ArrayList<>();
+
+    @Override
+    public boolean sample() {
+      return sampled;
+    }
+
+    @Override
+    public long allocatedBytes() {
+      reads.add(timer == null ? 0 : timer.getCount());
+      return allocated;
+    }
+  }
+}
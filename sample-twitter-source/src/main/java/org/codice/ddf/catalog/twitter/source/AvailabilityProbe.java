@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import ddf.catalog.source.SourceMonitor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the availability of a remote service on a background thread so that callers only read the
+ * last known state. While the service is down the probe interval doubles up to a maximum, and
+ * registered {@link SourceMonitor}s are only called when the state changes.
+ */
+public class AvailabilityProbe {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AvailabilityProbe.class);
+
+  private final BooleanSupplier check;
+
+  private final long intervalMillis;
+
+  private final long maxBackoffMillis;
+
+  private final ScheduledExecutorService prober;
+
+  // Held weakly so that monitors dropped by their owners do not accumulate
+  private final Set<SourceMonitor> monitors =
+      Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  private volatile boolean available;
+
+  private long nextDelayMillis;
+
+  /**
+   * @param check performs the remote check, returning true if the service is available
+   * @param intervalMillis delay between checks while the service is available
+   * @param maxBackoffMillis longest delay between checks while the service is unavailable
+   */
+  public AvailabilityProbe(BooleanSupplier check, long intervalMillis, long maxBackoffMillis) {
+    this.check = check;
+    // A zero interval would have the probe reschedule itself without pause
+    this.intervalMillis = Math.max(1, intervalMillis);
+    this.maxBackoffMillis = Math.max(this.intervalMillis, maxBackoffMillis);
+    this.nextDelayMillis = this.intervalMillis;
+    this.prober =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "twitter-availability-probe");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public void start() {
+    schedule(0);
+  }
+
+  public void stop() {
+    prober.shutdownNow();
+    monitors.clear();
+  }
+
+  /** Returns the state found by the most recent check. */
+  public boolean isAvailable() {
+    return available;
+  }
+
+  /**
+   * Registers {@code monitor} for state changes and returns the last known state. A monitor is told
+   * the current state the first time it is registered.
+   */
+  public boolean isAvailable(SourceMonitor monitor) {
+    boolean current = available;
+    if (monitor != null && monitors.add(monitor)) {
+      notify(monitor, current);
+    }
+    return current;
+  }
+
+  private void schedule(long delayMillis) {
+    try {
+      prober.schedule(this::probe, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      LOGGER.trace("Availability probe stopped.", e);
+    }
+  }
+
+  private void probe() {
+    boolean result = runCheck();
+
+    if (result) {
+      nextDelayMillis = intervalMillis;
+    } else {
+      nextDelayMillis =
+          available ? intervalMillis : Math.min(nextDelayMillis * 2, maxBackoffMillis);
+    }
+
+    if (result != available) {
+      available = result;
+      LOGGER.debug("Source availability changed to {}.", result);
+      List<SourceMonitor> toNotify;
+      synchronized (monitors) {
+        toNotify = new ArrayList<>(monitors);
+      }
+      toNotify.forEach(monitor -> notify(monitor, result));
+    }
+
+    schedule(nextDelayMillis);
+  }
+
+  private boolean runCheck() {
+    try {
+      return check.getAsBoolean();
+    } catch (RuntimeException e) {
+      LOGGER.debug("Availability check failed.", e);
+      return false;
+    }
+  }
+
+  private void notify(SourceMonitor monitor, boolean isAvailable) {
+    if (isAvailable) {
+      monitor.setAvailable();
+    } else {
+      monitor.setUnavailable();
+    }
+  }
+}
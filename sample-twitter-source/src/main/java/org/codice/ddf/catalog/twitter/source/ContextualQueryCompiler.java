@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.opengis.filter.BinaryLogicOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Not;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.PropertyName;
+
+/**
+ * Compiles a boolean tree of {@link PropertyIsLike} filters into the Twitter search syntax, so that
+ * Twitter does the keyword matching: AND is a space, OR is {@code OR}, negation is a leading {@code
+ * -}, multi-word literals are quoted phrases and nested groups are parenthesized.
+ *
+ * <p>Twitter can only negate single terms, so NOT is pushed down to the terms with De Morgan's
+ * laws. Wildcards are dropped, since Twitter matches whole words only. A negated term with
+ * wildcards is left out, as excluding the words that remain could exclude matching tweets.
+ * Twitter rejects a search with nothing but excluded terms, so such an expression places no
+ * restriction on the keywords.
+ */
+public final class ContextualQueryCompiler {
+
+  private ContextualQueryCompiler() {}
+
+  /** Returns true if {@code filter} only combines PropertyIsLike filters with AND, OR and NOT. */
+  public static boolean isContextual(Filter filter) {
+    if (filter instanceof PropertyIsLike) {
+      return true;
+    }
+    if (filter instanceof BinaryLogicOperator) {
+      return ((BinaryLogicOperator) filter)
+          .getChildren().stream().allMatch(ContextualQueryCompiler::isContextual);
+    }
+    if (filter instanceof Not) {
+      return isContextual(((Not) filter).getFilter());
+    }
+    return false;
+  }
+
+  /**
+   * Compiles a filter for which {@link #isContextual} is true. A top level OR is returned in
+   * parentheses, so compiled expressions can be combined by joining them with spaces.
+   *
+   * @return the compiled search, or null if the filter places no restriction on the keywords
+   */
+  public static ContextualSearch compile(Filter filter) {
+    Term term = compile(filter, false);
+    if (term == null || !term.positive) {
+      return null;
+    }
+    PropertyIsLike like = firstLike(filter);
+    String selectors =
+        like.getExpression() instanceof PropertyName
+            ? ((PropertyName) like.getExpression()).getPropertyName()
+            : null;
+    return new ContextualSearch(selectors, term.grouped(), like.isMatchingCase());
+  }
+
+  private static Term compile(Filter filter, boolean negated) {
+    if (filter instanceof Not) {
+      return compile(((Not) filter).getFilter(), !negated);
+    }
+    if (filter instanceof BinaryLogicOperator) {
+      // NOT (a AND b) is (NOT a) OR (NOT b), and NOT (a OR b) is (NOT a) AND (NOT b)
+      boolean disjunction = (filter instanceof Or) != negated;
+      List<Term> terms = new ArrayList<>();
+      for (Filter child : ((BinaryLogicOperator) filter).getChildren()) {
+        Term term = compile(child, negated);
+        if (term == null) {
+          if (disjunction) {
+            // One branch matches any keywords, so the whole OR does
+            return null;
+          }
+          continue;
+        }
+        terms.add(term);
+      }
+      if (terms.isEmpty()) {
+        return null;
+      }
+      if (terms.size() == 1) {
+        return terms.get(0);
+      }
+      List<String> texts = new ArrayList<>(terms.size());
+      // Every branch of an OR must be searchable, but one term of an AND is enough
+      boolean positive = disjunction;
+      for (Term term : terms) {
+        texts.add(term.grouped());
+        positive = disjunction ? positive && term.positive : positive || term.positive;
+      }
+      return new Term(String.join(disjunction ? " OR " : " ", texts), disjunction, positive);
+    }
+    PropertyIsLike like = (PropertyIsLike) filter;
+    if (negated && hasWildcard(like)) {
+      return null;
+    }
+    String literal = literal(like);
+    if (literal == null) {
+      return null;
+    }
+    return negated ? new Term("-" + literal, false, false) : new Term(literal, false, true);
+  }
+
+  /** Returns true if the literal has an unescaped wildcard. */
+  private static boolean hasWildcard(PropertyIsLike like) {
+    String value = like.getLiteral();
+    if (value == null) {
+      return false;
+    }
+    int i = 0;
+    while (i < value.length()) {
+      if (startsWith(value, like.getEscape(), i)) {
+        i += like.getEscape().length() + 1;
+      } else if (startsWith(value, like.getWildCard(), i)
+          || startsWith(value, like.getSingleChar(), i)) {
+        return true;
+      } else {
+        i++;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the literal as one word or a quoted phrase, or null if it matches anything. */
+  private static String literal(PropertyIsLike like) {
+    String value = like.getLiteral();
+    if (value == null) {
+      return null;
+    }
+    StringBuilder text = new StringBuilder(value.length());
+    int i = 0;
+    while (i < value.length()) {
+      if (startsWith(value, like.getEscape(), i)) {
+        // An escaped wildcard is a literal character
+        i += like.getEscape().length();
+        if (i < value.length()) {
+          text.append(value.charAt(i++));
+        }
+      } else if (startsWith(value, like.getWildCard(), i)) {
+        text.append(' ');
+        i += like.getWildCard().length();
+      } else if (startsWith(value, like.getSingleChar(), i)) {
+        text.append(' ');
+        i += like.getSingleChar().length();
+      } else {
+        char c = value.charAt(i++);
+        text.append(c == '"' ? ' ' : c);
+      }
+    }
+    String[] words = text.toString().trim().split("\\s+");
+    if (words[0].isEmpty()) {
+      return null;
+    }
+    return words.length == 1 ? words[0] : "\"" + String.join(" ", words) + "\"";
+  }
+
+  private static boolean startsWith(String value, String token, int index) {
+    return token != null && !token.isEmpty() && value.startsWith(token, index);
+  }
+
+  private static PropertyIsLike firstLike(Filter filter) {
+    if (filter instanceof Not) {
+      return firstLike(((Not) filter).getFilter());
+    }
+    if (filter instanceof BinaryLogicOperator) {
+      return firstLike(((BinaryLogicOperator) filter).getChildren().get(0));
+    }
+    return (PropertyIsLike) filter;
+  }
+
+  private static class Term {
+    private final String text;
+
+    // An OR, which needs parentheses when combined with other terms
+    private final boolean disjunction;
+
+    // Has a term that is not excluded, without which Twitter rejects the search
+    private final boolean positive;
+
+    private Term(String text, boolean disjunction, boolean positive) {
+      this.text = text;
+      this.disjunction = disjunction;
+      this.positive = positive;
+    }
+
+    private String grouped() {
+      return disjunction ? "(" + text + ")" : text;
+    }
+  }
+}
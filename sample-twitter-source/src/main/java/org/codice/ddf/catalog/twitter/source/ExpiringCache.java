@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A small size-bounded cache whose entries also expire a fixed time after they were written. When
+ * the cache is full the least recently used entry is evicted.
+ *
+ * @param <K> key type, which must implement {@code equals} and {@code hashCode}
+ * @param <V> value type
+ */
+public class ExpiringCache<K, V> {
+
+  private final LongSupplier clock;
+
+  private final Map<K, Entry<V>> entries;
+
+  private int maxEntries;
+
+  private long ttlNanos;
+
+  /**
+   * @param maxEntries maximum number of entries kept, or 0 to disable caching
+   * @param ttlMillis how long an entry stays valid after it is written
+   */
+  public ExpiringCache(int maxEntries, long ttlMillis) {
+    this(maxEntries, ttlMillis, System::nanoTime);
+  }
+
+  ExpiringCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+    this.clock = clock;
+    this.maxEntries = maxEntries;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.entries =
+        new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            return size() > ExpiringCache.this.maxEntries;
+          }
+        };
+  }
+
+  /** Returns the cached value for {@code key}, or null if there is none or it has expired. */
+  public synchronized V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (clock.getAsLong() - entry.writtenAt >= ttlNanos) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.value;
+  }
+
+  public synchronized void put(K key, V value) {
+    if (maxEntries <= 0) {
+      return;
+    }
+    entries.put(key, new Entry<>(value, clock.getAsLong()));
+  }
+
+  public synchronized void remove(K key) {
+    entries.remove(key);
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Changes the bounds of the cache, dropping entries that no longer fit: those that have expired
+   * under the new time to live, then the least recently used beyond the new size.
+   */
+  public synchronized void configure(int maxEntries, long ttlMillis) {
+    this.maxEntries = maxEntries;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    long now = clock.getAsLong();
+    entries.values().removeIf(entry -> now - entry.writtenAt >= ttlNanos);
+    // Iteration runs from the least recently used entry
+    Iterator<K> keys = entries.keySet().iterator();
+    for (int excess = entries.size() - Math.max(0, maxEntries); excess > 0; excess--) {
+      keys.next();
+      keys.remove();
+    }
+  }
+
+  private static class Entry<V> {
+    private final V value;
+
+    private final long writtenAt;
+
+    private Entry(V value, long writtenAt) {
+      this.value = value;
+      this.writtenAt = writtenAt;
+    }
+  }
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.util.Date;
+import org.geotools.filter.visitor.DefaultFilterVisitor;
+import org.geotools.geometry.jts.spatialschema.geometry.primitive.SurfaceImpl;
+import org.geotools.temporal.object.DefaultPeriodDuration;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.BinaryLogicOperator;
+import org.opengis.filter.ExcludeFilter;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Id;
+import org.opengis.filter.IncludeFilter;
+import org.opengis.filter.Not;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.PropertyIsNotEqualTo;
+import org.opengis.filter.PropertyIsNull;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+import org.opengis.filter.spatial.Contains;
+import org.opengis.filter.spatial.DWithin;
+import org.opengis.filter.spatial.Intersects;
+import org.opengis.filter.spatial.Within;
+import org.opengis.filter.temporal.After;
+import org.opengis.filter.temporal.Before;
+import org.opengis.filter.temporal.BinaryTemporalOperator;
+import org.opengis.filter.temporal.During;
+import org.opengis.filter.temporal.TOverlaps;
+import org.opengis.temporal.Instant;
+import org.opengis.temporal.Period;
+
+/**
+ * Builds a key that identifies a filter by its structure and literal values, so that filters which
+ * plan to the same Twitter searches share a key. Filter implementations do not define equality, so
+ * the key is written out as text.
+ *
+ * <p>Relative periods are keyed by their duration rather than the dates they resolve to, since the
+ * plan resolves them again each time it is used. Filters holding an operator or expression the
+ * builder does not know have no key and are always planned from scratch.
+ */
+public class FilterKeyBuilder extends DefaultFilterVisitor {
+
+  private final StringBuilder key = new StringBuilder();
+
+  private boolean cacheable = true;
+
+  private FilterKeyBuilder() {}
+
+  /** Returns the key of {@code filter}, or null if it cannot be keyed. */
+  public static String keyOf(Filter filter) {
+    FilterKeyBuilder builder = new FilterKeyBuilder();
+    filter.accept(builder, null);
+    return builder.cacheable ? builder.key.toString() : null;
+  }
+
+  @Override
+  public Object visit(And filter, Object data) {
+    return logic("AND", filter, data);
+  }
+
+  @Override
+  public Object visit(Or filter, Object data) {
+    return logic("OR", filter, data);
+  }
+
+  @Override
+  public Object visit(Not filter, Object data) {
+    key.append("NOT(");
+    filter.getFilter().accept(this, data);
+    key.append(')');
+    return data;
+  }
+
+  @Override
+  public Object visit(DWithin filter, Object data) {
+    spatial("DWITHIN", filter);
+    key.setLength(key.length() - 1);
+    key.append(',')
+        .append(filter.getDistance())
+        .append(',')
+        .append(filter.getDistanceUnits())
+        .append(')');
+    return data;
+  }
+
+  @Override
+  public Object visit(Contains filter, Object data) {
+    return spatial("CONTAINS", filter);
+  }
+
+  @Override
+  public Object visit(Intersects filter, Object data) {
+    return spatial("INTERSECTS", filter);
+  }
+
+  @Override
+  public Object visit(Within filter, Object data) {
+    return spatial("WITHIN", filter);
+  }
+
+  @Override
+  public Object visit(BBOX filter, Object data) {
+    return spatial("BBOX", filter);
+  }
+
+  @Override
+  public Object visit(TOverlaps filter, Object data) {
+    return temporal("TOVERLAPS", filter);
+  }
+
+  @Override
+  public Object visit(During filter, Object data) {
+    return temporal("DURING", filter);
+  }
+
+  @Override
+  public Object visit(After filter, Object data) {
+    return temporal("AFTER", filter);
+  }
+
+  @Override
+  public Object visit(Before filter, Object data) {
+    return temporal("BEFORE", filter);
+  }
+
+  @Override
+  public Object visit(PropertyIsEqualTo filter, Object data) {
+    return comparison("EQ", filter);
+  }
+
+  @Override
+  public Object visit(PropertyIsNotEqualTo filter, Object data) {
+    return comparison("NE", filter);
+  }
+
+  @Override
+  public Object visit(PropertyIsGreaterThan filter, Object data) {
+    return comparison("GT", filter);
+  }
+
+  @Override
+  public Object visit(PropertyIsLessThan filter, Object data) {
+    return comparison("LT", filter);
+  }
+
+  @Override
+  public Object visit(PropertyIsLike filter, Object data) {
+    key.append("LIKE(");
+    expression(filter.getExpression());
+    key.append(',');
+    text(filter.getLiteral());
+    key.append(',');
+    text(filter.getWildCard());
+    key.append(',');
+    text(filter.getSingleChar());
+    key.append(',');
+    text(filter.getEscape());
+    key.append(',').append(filter.isMatchingCase()).append(')');
+    return null;
+  }
+
+  @Override
+  public Object visit(PropertyIsNull filter, Object data) {
+    key.append("NULL(");
+    expression(filter.getExpression());
+    key.append(')');
+    return null;
+  }
+
+  @Override
+  public Object visit(IncludeFilter filter, Object data) {
+    key.append("INCLUDE");
+    return null;
+  }
+
+  @Override
+  public Object visit(ExcludeFilter filter, Object data) {
+    key.append("EXCLUDE");
+    return null;
+  }
+
+  /** Id filters are not planned into Twitter searches, so there is nothing to reuse. */
+  @Override
+  public Object visit(Id filter, Object data) {
+    cacheable = false;
+    return null;
+  }
+
+  /**
+   * Known operators write their own expressions, so reaching an expression through the default
+   * traversal means the operator above it is one this builder does not know.
+   */
+  @Override
+  public Object visit(PropertyName expression, Object data) {
+    cacheable = false;
+    return null;
+  }
+
+  @Override
+  public Object visit(Literal expression, Object data) {
+    cacheable = false;
+    return null;
+  }
+
+  @Override
+  public Object visitNullFilter(Object data) {
+    cacheable = false;
+    return null;
+  }
+
+  private Object logic(String operator, BinaryLogicOperator filter, Object data) {
+    key.append(operator).append('(');
+    for (Filter child : filter.getChildren()) {
+      child.accept(this, data);
+      key.append(';');
+    }
+    key.append(')');
+    return data;
+  }
+
+  private Object spatial(String operator, BinarySpatialOperator filter) {
+    return binary(operator, filter.getExpression1(), filter.getExpression2());
+  }
+
+  private Object temporal(String operator, BinaryTemporalOperator filter) {
+    return binary(operator, filter.getExpression1(), filter.getExpression2());
+  }
+
+  private Object comparison(String operator, BinaryComparisonOperator filter) {
+    binary(operator, filter.getExpression1(), filter.getExpression2());
+    key.setLength(key.length() - 1);
+    key.append(',').append(filter.isMatchingCase()).append(')');
+    return null;
+  }
+
+  private Object binary(String operator, Expression expression1, Expression expression2) {
+    key.append(operator).append('(');
+    expression(expression1);
+    key.append(',');
+    expression(expression2);
+    key.append(')');
+    return null;
+  }
+
+  private void expression(Expression expression) {
+    if (expression instanceof PropertyName) {
+      key.append("P:");
+      text(((PropertyName) expression).getPropertyName());
+    } else if (expression instanceof Literal) {
+      key.append("L:");
+      literal(((Literal) expression).evaluate(null));
+    } else {
+      // Functions and other computed expressions
+      cacheable = false;
+    }
+  }
+
+  private void literal(Object value) {
+    if (value instanceof Geometry) {
+      text(((Geometry) value).toText());
+    } else if (value instanceof SurfaceImpl) {
+      text(((SurfaceImpl) value).getJTSGeometry().toText());
+    } else if (value instanceof Date) {
+      key.append("D").append(((Date) value).getTime());
+    } else if (value instanceof Instant) {
+      key.append("D").append(((Instant) value).getPosition().getDate().getTime());
+    } else if (value instanceof Period) {
+      Period period = (Period) value;
+      key.append("D")
+          .append(period.getBeginning().getPosition().getDate().getTime())
+          .append('/')
+          .append(period.getEnding().getPosition().getDate().getTime());
+    } else if (value instanceof DefaultPeriodDuration) {
+      key.append("R").append(((DefaultPeriodDuration) value).getTimeInMillis());
+    } else if (value == null) {
+      key.append("null");
+    } else {
+      key.append(value.getClass().getName()).append(':');
+      text(value.toString());
+    }
+  }
+
+  /** Writes {@code text} prefixed with its length, so that no value can run into the next. */
+  private void text(String text) {
+    if (text == null) {
+      key.append('-');
+    } else {
+      key.append(text.length()).append('#').append(text);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the values of an updated configuration to setters. Configuration Admin passes values typed
+ * by the metatype, but values may also arrive as strings, so numbers and booleans are parsed from
+ * either. Properties that are absent or malformed leave the current setting unchanged.
+ */
+class ManagedProperties {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ManagedProperties.class);
+
+  private final Map<String, Object> properties;
+
+  ManagedProperties(Map<String, Object> properties) {
+    this.properties = properties == null ? Collections.emptyMap() : properties;
+  }
+
+  void applyString(String key, Consumer<String> setter) {
+    Object value = properties.get(key);
+    if (value != null) {
+      setter.accept(value.toString());
+    }
+  }
+
+  void applyBoolean(String key, Consumer<Boolean> setter) {
+    Object value = properties.get(key);
+    if (value != null) {
+      setter.accept(
+          value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString()));
+    }
+  }
+
+  void applyInt(String key, IntConsumer setter) {
+    Object value = properties.get(key);
+    if (value instanceof Number) {
+      setter.accept(((Number) value).intValue());
+    } else if (value != null) {
+      try {
+        setter.accept(Integer.parseInt(value.toString().trim()));
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Ignoring {} = {}, which is not a whole number.", key, value);
+      }
+    }
+  }
+
+  void applyLong(String key, LongConsumer setter) {
+    Object value = properties.get(key);
+    if (value instanceof Number) {
+      setter.accept(((Number) value).longValue());
+    } else if (value != null) {
+      try {
+        setter.accept(Long.parseLong(value.toString().trim()));
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Ignoring {} = {}, which is not a whole number.", key, value);
+      }
+    }
+  }
+
+  /** Applies a multi-valued property, which may be an array, a collection, or a single value. */
+  void applyList(String key, Consumer<List<String>> setter) {
+    Object value = properties.get(key);
+    if (value == null) {
+      return;
+    }
+    List<String> values = new ArrayList<>();
+    if (value instanceof Object[]) {
+      Arrays.stream((Object[]) value).forEach(element -> values.add(String.valueOf(element)));
+    } else if (value instanceof Collection) {
+      ((Collection<?>) value).forEach(element -> values.add(String.valueOf(element)));
+    } else {
+      values.add(value.toString());
+    }
+    setter.accept(values);
+  }
+}
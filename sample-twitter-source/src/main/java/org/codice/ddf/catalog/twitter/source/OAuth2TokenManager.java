@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import com.codahale.metrics.Timer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.TwitterFactory;
+import twitter4j.auth.OAuth2Token;
+
+/**
+ * Holds the application-only OAuth2 bearer token for a {@link TwitterFactory}. The token is
+ * fetched once and set on every {@link Twitter} instance handed out, so queries do not pay for a
+ * token round trip. It is refreshed in the background on a fixed interval, and on demand when
+ * Twitter rejects it.
+ */
+public class OAuth2TokenManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OAuth2TokenManager.class);
+
+  private final TwitterFactory twitterFactory;
+
+  private final Timer tokenFetches;
+
+  private final long refreshIntervalMillis;
+
+  private final ScheduledExecutorService refresher;
+
+  private volatile OAuth2Token token;
+
+  /**
+   * @param twitterFactory factory configured for application-only authentication
+   * @param tokenFetches timer recording the count and latency of token requests
+   * @param refreshIntervalMillis how often the token is refreshed in the background, or 0 to only
+   *     refresh after the token is rejected
+   */
+  public OAuth2TokenManager(
+      TwitterFactory twitterFactory, Timer tokenFetches, long refreshIntervalMillis) {
+    this.twitterFactory = twitterFactory;
+    this.tokenFetches = tokenFetches;
+    this.refreshIntervalMillis = refreshIntervalMillis;
+    this.refresher =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "twitter-oauth2-token-refresher");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public void start() {
+    if (refreshIntervalMillis > 0) {
+      refresher.scheduleWithFixedDelay(
+          this::refreshQuietly, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public void stop() {
+    refresher.shutdownNow();
+  }
+
+  /**
+   * Returns the current bearer token, fetching it first if no token has been obtained yet.
+   *
+   * @throws TwitterException if the token could not be fetched
+   */
+  public OAuth2Token getToken() throws TwitterException {
+    OAuth2Token current = token;
+    if (current == null) {
+      synchronized (this) {
+        current = token;
+        if (current == null) {
+          current = fetchToken();
+        }
+      }
+    }
+    return current;
+  }
+
+  /** Returns a new {@link Twitter} instance that is already authorized with {@code oAuth2Token}. */
+  public Twitter getInstance(OAuth2Token oAuth2Token) {
+    Twitter instance = twitterFactory.getInstance();
+    instance.setOAuth2Token(oAuth2Token);
+    return instance;
+  }
+
+  /**
+   * Replaces a token that Twitter rejected. When several callers report the same rejected token
+   * only the first one fetches a new token; the others get the replacement.
+   *
+   * @param rejected the token the caller was using when Twitter returned a 401
+   * @return the replacement token
+   * @throws TwitterException if a new token could not be fetched
+   */
+  public synchronized OAuth2Token refresh(OAuth2Token rejected) throws TwitterException {
+    OAuth2Token current = token;
+    if (current != null && !current.equals(rejected)) {
+      return current;
+    }
+    token = null;
+    return fetchToken();
+  }
+
+  /** Returns true once a token has been fetched successfully. */
+  public boolean hasToken() {
+    return token != null;
+  }
+
+  private void refreshQuietly() {
+    try {
+      synchronized (this) {
+        fetchToken();
+      }
+    } catch (TwitterException e) {
+      // keep using the current token until it is rejected
+      LOGGER.debug("Unable to refresh OAuth2 token.", e);
+    }
+  }
+
+  private OAuth2Token fetchToken() throws TwitterException {
+    Timer.Context context = tokenFetches.time();
+    try {
+      // A Twitter instance refuses to fetch a second token, so always ask a fresh one
+      OAuth2Token fetched = twitterFactory.getInstance().getOAuth2Token();
+      token = fetched;
+      LOGGER.debug("Fetched new OAuth2 token.");
+      return fetched;
+    } finally {
+      context.stop();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import com.codahale.metrics.Meter;
+import ddf.catalog.source.UnsupportedQueryException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import twitter4j.RateLimitStatus;
+
+/**
+ * Admission control for the Twitter search endpoint. The remaining quota and the reset time of the
+ * current rate limit window are taken from every response. When the quota drops to the configured
+ * reserve, new searches wait for the window to reset if that is soon enough and the queue has room;
+ * otherwise they are rejected without contacting Twitter.
+ */
+public class RateLimitScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitScheduler.class);
+
+  private static final int UNKNOWN = Integer.MAX_VALUE;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition windowReset = lock.newCondition();
+
+  private final int reserve;
+
+  private final long maxWaitMillis;
+
+  private final int maxQueueDepth;
+
+  private final Meter rejections;
+
+  private int remaining = UNKNOWN;
+
+  private long resetAtMillis;
+
+  private volatile int queueDepth;
+
+  /**
+   * @param reserve number of requests left in a window below which searches are held back
+   * @param maxWaitMillis longest a search may wait for the window to reset
+   * @param maxQueueDepth maximum number of searches waiting at once
+   * @param rejections meter marked for every search that is shed
+   */
+  public RateLimitScheduler(int reserve, long maxWaitMillis, int maxQueueDepth, Meter rejections) {
+    this.reserve = reserve;
+    this.maxWaitMillis = maxWaitMillis;
+    this.maxQueueDepth = maxQueueDepth;
+    this.rejections = rejections;
+  }
+
+  /**
+   * Blocks until a search may be sent.
+   *
+   * @throws UnsupportedQueryException if the quota is exhausted and the search cannot wait for the
+   *     window to reset
+   */
+  public void acquire() throws UnsupportedQueryException {
+    long deadline = System.currentTimeMillis() + maxWaitMillis;
+    lock.lock();
+    try {
+      while (true) {
+        long now = System.currentTimeMillis();
+        if (remaining != UNKNOWN && now >= resetAtMillis) {
+          // The window has rolled over; the next response reports the new quota
+          remaining = UNKNOWN;
+        }
+        if (remaining > reserve) {
+          if (remaining != UNKNOWN) {
+            remaining--;
+          }
+          return;
+        }
+        if (resetAtMillis > deadline || queueDepth >= maxQueueDepth) {
+          rejections.mark();
+          throw new UnsupportedQueryException(
+              "Twitter rate limit exhausted until " + new Date(resetAtMillis) + ".");
+        }
+        queueDepth++;
+        try {
+          windowReset.await(resetAtMillis - now, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new UnsupportedQueryException("Interrupted waiting for the Twitter rate limit.", e);
+        } finally {
+          queueDepth--;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Records the rate limit reported with a response. */
+  public void update(RateLimitStatus rateLimitStatus) {
+    if (rateLimitStatus == null) {
+      return;
+    }
+    lock.lock();
+    try {
+      remaining = rateLimitStatus.getRemaining();
+      resetAtMillis = TimeUnit.SECONDS.toMillis(rateLimitStatus.getResetTimeInSeconds());
+      LOGGER.trace("Twitter rate limit: {} remaining until {}", remaining, resetAtMillis);
+      if (remaining > reserve) {
+        windowReset.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns true while the quota is at or below the reserve and the window has not reset. */
+  public boolean isDegraded() {
+    lock.lock();
+    try {
+      return remaining <= reserve && System.currentTimeMillis() < resetAtMillis;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns the remaining quota, or -1 if no response has reported it in the current window. */
+  public int getRemaining() {
+    lock.lock();
+    try {
+      return remaining == UNKNOWN ? -1 : remaining;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+}
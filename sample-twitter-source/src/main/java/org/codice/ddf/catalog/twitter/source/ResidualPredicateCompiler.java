@@ -0,0 +1,465 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import ddf.catalog.data.Attribute;
+import ddf.catalog.data.Metacard;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import org.geotools.filter.visitor.DefaultFilterVisitor;
+import org.geotools.temporal.object.DefaultPeriodDuration;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.ExcludeFilter;
+import org.opengis.filter.Filter;
+import org.opengis.filter.IncludeFilter;
+import org.opengis.filter.Not;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.PropertyIsNotEqualTo;
+import org.opengis.filter.PropertyIsNull;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.temporal.After;
+import org.opengis.filter.temporal.Before;
+import org.opengis.filter.temporal.BinaryTemporalOperator;
+import org.opengis.filter.temporal.During;
+import org.opengis.filter.temporal.TOverlaps;
+import org.opengis.temporal.Instant;
+import org.opengis.temporal.Period;
+import org.opengis.temporal.PeriodDuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles the criteria Twitter cannot apply into a predicate over metacards. The filter is walked
+ * once, literals are converted up front, and evaluating the predicate only reads attributes.
+ *
+ * <p>Comparisons, null checks, and temporal operators on date attributes are compiled, combined
+ * with AND, OR and NOT. Keyword and spatial criteria are left to Twitter and to {@link
+ * TwitterSearch}, and anything else the compiler does not know is treated as matching, so a result
+ * is never dropped because of a predicate that could not be checked. Criteria on attributes a
+ * tweet does not have, such as {@code anyText} or tags, are not known either: the results carry
+ * only the {@link StatusMetacard#ATTRIBUTES}, so checking them would drop every result.
+ *
+ * <p>Under NOT an unknown criteria is treated as not matching instead, so the visit tracks whether
+ * it is negated (the visitor's data is {@link Boolean#TRUE} under an odd number of NOTs). A negated
+ * AND, or a plain OR, with an unknown child is then unknown as a whole.
+ */
+public class ResidualPredicateCompiler extends DefaultFilterVisitor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResidualPredicateCompiler.class);
+
+  /**
+   * Compiles the conjunction of {@code filters}.
+   *
+   * @return the predicate, or null if every metacard matches
+   */
+  public ResidualPredicate compile(List<? extends Filter> filters) {
+    return conjunction(filters, false);
+  }
+
+  @Override
+  public Object visit(And filter, Object data) {
+    return conjunction(filter.getChildren(), isNegated(data));
+  }
+
+  @Override
+  public Object visit(Or filter, Object data) {
+    boolean negated = isNegated(data);
+    List<ResidualPredicate> predicates = new ArrayList<>(filter.getChildren().size());
+    for (Filter child : filter.getChildren()) {
+      ResidualPredicate predicate = accept(child, negated);
+      if (predicate == null) {
+        if (!negated) {
+          // The unknown branch may match, so the whole OR may
+          return null;
+        }
+        continue;
+      }
+      predicates.add(predicate);
+    }
+    if (predicates.isEmpty()) {
+      return null;
+    }
+    if (predicates.size() == 1) {
+      return predicates.get(0);
+    }
+    List<Predicate<Metacard>> tests = new ArrayList<>(predicates);
+    return new ResidualPredicate(
+        describe("OR", predicates),
+        metacard -> {
+          for (Predicate<Metacard> test : tests) {
+            if (test.test(metacard)) {
+              return true;
+            }
+          }
+          return false;
+        });
+  }
+
+  @Override
+  public Object visit(Not filter, Object data) {
+    ResidualPredicate predicate = accept(filter.getFilter(), !isNegated(data));
+    if (predicate == null) {
+      return null;
+    }
+    return new ResidualPredicate("NOT " + predicate, predicate.negate());
+  }
+
+  @Override
+  public Object visit(IncludeFilter filter, Object data) {
+    return null;
+  }
+
+  @Override
+  public Object visit(ExcludeFilter filter, Object data) {
+    return new ResidualPredicate("EXCLUDE", metacard -> false);
+  }
+
+  /** Keywords are matched by Twitter. */
+  @Override
+  public Object visit(PropertyIsLike filter, Object data) {
+    return null;
+  }
+
+  @Override
+  public Object visit(PropertyIsEqualTo filter, Object data) {
+    return compare(filter, "=", equalTo(literal(filter.getExpression2()), filter.isMatchingCase()));
+  }
+
+  @Override
+  public Object visit(PropertyIsNotEqualTo filter, Object data) {
+    Predicate<Serializable> equalTo =
+        equalTo(literal(filter.getExpression2()), filter.isMatchingCase());
+    return compare(filter, "!=", equalTo == null ? null : equalTo.negate());
+  }
+
+  @Override
+  public Object visit(PropertyIsGreaterThan filter, Object data) {
+    Long bound = ordinal(literal(filter.getExpression2()));
+    return compare(filter, ">", bound == null ? null : value -> isGreater(ordinal(value), bound));
+  }
+
+  @Override
+  public Object visit(PropertyIsLessThan filter, Object data) {
+    Long bound = ordinal(literal(filter.getExpression2()));
+    return compare(filter, "<", bound == null ? null : value -> isGreater(bound, ordinal(value)));
+  }
+
+  @Override
+  public Object visit(PropertyIsNull filter, Object data) {
+    String name = propertyName(filter.getExpression());
+    if (name == null) {
+      return unsupported(filter);
+    }
+    return new ResidualPredicate(
+        name + " IS NULL",
+        metacard -> {
+          Attribute attribute = metacard.getAttribute(name);
+          return attribute == null || attribute.getValue() == null;
+        });
+  }
+
+  @Override
+  public Object visit(After filter, Object data) {
+    Object literal = literal(filter.getExpression2());
+    Date after = literal instanceof Period ? end(literal) : start(literal);
+    return during(filter, "AFTER", after, null);
+  }
+
+  @Override
+  public Object visit(Before filter, Object data) {
+    return during(filter, "BEFORE", null, start(literal(filter.getExpression2())));
+  }
+
+  @Override
+  public Object visit(During filter, Object data) {
+    Object literal = literal(filter.getExpression2());
+    return during(filter, "DURING", start(literal), end(literal));
+  }
+
+  @Override
+  public Object visit(TOverlaps filter, Object data) {
+    Object literal = literal(filter.getExpression2());
+    return during(filter, "TOVERLAPS", start(literal), end(literal));
+  }
+
+  /** Any other criteria is not checked. */
+  @Override
+  public Object visitNullFilter(Object data) {
+    return null;
+  }
+
+  private ResidualPredicate conjunction(List<? extends Filter> filters, boolean negated) {
+    List<ResidualPredicate> predicates = new ArrayList<>(filters.size());
+    for (Filter filter : filters) {
+      ResidualPredicate predicate = accept(filter, negated);
+      if (predicate == null) {
+        if (negated) {
+          // Once negated, dropping the unknown criteria would drop the results it matches
+          return null;
+        }
+        continue;
+      }
+      predicates.add(predicate);
+    }
+    return and(predicates);
+  }
+
+  /**
+   * Compiles {@code filter}. Filters this class does not visit return the visitor's data, which is
+   * not a predicate, so they are unknown like any other unsupported criteria.
+   */
+  private ResidualPredicate accept(Filter filter, boolean negated) {
+    Object compiled = filter.accept(this, negated);
+    return compiled instanceof ResidualPredicate ? (ResidualPredicate) compiled : null;
+  }
+
+  private static boolean isNegated(Object data) {
+    return Boolean.TRUE.equals(data);
+  }
+
+  /**
+   * Matches metacards whose date attribute lies strictly between {@code start} and {@code end},
+   * either of which may be open. The bounds of a relative period are offsets from the current time
+   * and are moved to the time of each evaluation, so the predicate can be reused; its description
+   * names the duration rather than resolved bounds.
+   */
+  private ResidualPredicate during(
+      BinaryTemporalOperator filter, String operator, Date start, Date end) {
+    String name = propertyName(filter.getExpression1());
+    if (name == null || (start == null && end == null)) {
+      return unsupported(filter);
+    }
+    Object literal = literal(filter.getExpression2());
+    boolean relative = literal instanceof PeriodDuration;
+    String description =
+        name
+            + " "
+            + operator
+            + " "
+            + (relative
+                ? literal.toString()
+                : (start == null ? "" : start.getTime())
+                    + "/"
+                    + (end == null ? "" : end.getTime()));
+    return new ResidualPredicate(
+        description,
+        attributeMatches(
+            name,
+            value -> {
+              if (!(value instanceof Date)) {
+                return false;
+              }
+              long now = relative ? System.currentTimeMillis() : 0;
+              long from = start == null ? Long.MIN_VALUE : start.getTime() + now;
+              long to = end == null ? Long.MAX_VALUE : end.getTime() + now;
+              return isBetween(((Date) value).getTime(), from, to);
+            }));
+  }
+
+  private ResidualPredicate compare(
+      BinaryComparisonOperator filter, String operator, Predicate<Serializable> test) {
+    String name = propertyName(filter.getExpression1());
+    if (name == null || test == null) {
+      return unsupported(filter);
+    }
+    String description =
+        name
+            + " "
+            + operator
+            + " "
+            + literal(filter.getExpression2())
+            + (filter.isMatchingCase() ? "" : " (any case)");
+    return new ResidualPredicate(description, attributeMatches(name, test));
+  }
+
+  private static Predicate<Metacard> attributeMatches(String name, Predicate<Serializable> test) {
+    return metacard -> {
+      Attribute attribute = metacard.getAttribute(name);
+      if (attribute == null) {
+        return false;
+      }
+      List<Serializable> values = attribute.getValues();
+      if (values == null) {
+        return test.test(attribute.getValue());
+      }
+      for (Serializable value : values) {
+        if (test.test(value)) {
+          return true;
+        }
+      }
+      return false;
+    };
+  }
+
+  /** Returns a test for values equal to {@code literal}, converted once here. */
+  private static Predicate<Serializable> equalTo(Object literal, boolean matchCase) {
+    if (literal == null) {
+      return null;
+    }
+    if (literal instanceof Number || literal instanceof Date) {
+      long ordinal = ordinal(literal);
+      boolean isDate = literal instanceof Date;
+      return value ->
+          (isDate == value instanceof Date) && Long.valueOf(ordinal).equals(ordinal(value));
+    }
+    String text = literal.toString();
+    return matchCase
+        ? value -> value != null && text.equals(value.toString())
+        : value -> value != null && text.equalsIgnoreCase(value.toString());
+  }
+
+  /** Orders dates by time and integers by value; other values are not ordered. */
+  private static Long ordinal(Object value) {
+    if (value instanceof Date) {
+      return ((Date) value).getTime();
+    }
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    return null;
+  }
+
+  private static boolean isGreater(Long left, Long right) {
+    return left != null && right != null && left > right;
+  }
+
+  private static boolean isBetween(long value, long from, long to) {
+    return value > from && value < to;
+  }
+
+  private static Object literal(Expression expression) {
+    return expression instanceof Literal ? ((Literal) expression).evaluate(null) : null;
+  }
+
+  /** Returns the attribute {@code expression} names, or null if it is not one a tweet has. */
+  private static String propertyName(Expression expression) {
+    if (!(expression instanceof PropertyName)) {
+      return null;
+    }
+    String name = ((PropertyName) expression).getPropertyName();
+    return StatusMetacard.ATTRIBUTES.contains(name) ? name : null;
+  }
+
+  /** Returns the start of a date or period; for a relative period, its offset from now. */
+  private static Date start(Object literal) {
+    if (literal instanceof Date) {
+      return (Date) literal;
+    }
+    if (literal instanceof Instant) {
+      return ((Instant) literal).getPosition().getDate();
+    }
+    if (literal instanceof Period) {
+      return ((Period) literal).getBeginning().getPosition().getDate();
+    }
+    if (literal instanceof PeriodDuration) {
+      return new Date(-durationMillis((PeriodDuration) literal));
+    }
+    return null;
+  }
+
+  /** Returns the end of a date or period; for a relative period, its offset from now. */
+  private static Date end(Object literal) {
+    if (literal instanceof Period) {
+      return ((Period) literal).getEnding().getPosition().getDate();
+    }
+    if (literal instanceof PeriodDuration) {
+      return new Date(0);
+    }
+    return start(literal);
+  }
+
+  private static long durationMillis(PeriodDuration duration) {
+    return duration instanceof DefaultPeriodDuration
+        ? ((DefaultPeriodDuration) duration).getTimeInMillis()
+        : 0;
+  }
+
+  private static ResidualPredicate unsupported(Filter filter) {
+    LOGGER.debug("Unable to check {} on results; it is ignored.", filter);
+    return null;
+  }
+
+  private static ResidualPredicate and(List<ResidualPredicate> predicates) {
+    if (predicates.isEmpty()) {
+      return null;
+    }
+    if (predicates.size() == 1) {
+      return predicates.get(0);
+    }
+    List<Predicate<Metacard>> tests = new ArrayList<>(predicates);
+    return new ResidualPredicate(
+        describe("AND", predicates),
+        metacard -> {
+          for (Predicate<Metacard> test : tests) {
+            if (!test.test(metacard)) {
+              return false;
+            }
+          }
+          return true;
+        });
+  }
+
+  private static String describe(String operator, List<ResidualPredicate> predicates) {
+    return predicates.stream()
+        .map(ResidualPredicate::toString)
+        .collect(Collectors.joining(" " + operator + " ", "(", ")"));
+  }
+
+  /**
+   * A compiled predicate. Two predicates are equal when they were compiled from the same criteria,
+   * so searches that carry them can still be used as cache keys.
+   */
+  public static final class ResidualPredicate implements Predicate<Metacard> {
+    private final String description;
+
+    private final Predicate<Metacard> test;
+
+    private ResidualPredicate(String description, Predicate<Metacard> test) {
+      this.description = description;
+      this.test = test;
+    }
+
+    @Override
+    public boolean test(Metacard metacard) {
+      return test.test(metacard);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof ResidualPredicate
+          && description.equals(((ResidualPredicate) o).description);
+    }
+
+    @Override
+    public int hashCode() {
+      return description.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return description;
+    }
+  }
+}
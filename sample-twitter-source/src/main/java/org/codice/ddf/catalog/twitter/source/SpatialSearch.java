@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A search circle, the only kind of spatial criteria the Twitter search API accepts, and the exact
+ * area it was derived from, if any.
+ */
+public class SpatialSearch {
+  private final double latitude;
+
+  private final double longitude;
+
+  private final double radius;
+
+  private final Geometry area;
+
+  /**
+   * @param latitude latitude of the centre in degrees
+   * @param longitude longitude of the centre in degrees
+   * @param radius radius in kilometers
+   */
+  public SpatialSearch(double latitude, double longitude, double radius) {
+    this(latitude, longitude, radius, null);
+  }
+
+  /**
+   * @param latitude latitude of the centre in degrees
+   * @param longitude longitude of the centre in degrees
+   * @param radius radius in kilometers
+   * @param area the area the circle encloses, which results are filtered against
+   */
+  public SpatialSearch(double latitude, double longitude, double radius, Geometry area) {
+    this.latitude = latitude;
+    this.longitude = longitude;
+    this.radius = radius;
+    this.area = area;
+  }
+
+  public double getLatitude() {
+    return latitude;
+  }
+
+  public double getLongitude() {
+    return longitude;
+  }
+
+  public double getRadius() {
+    return radius;
+  }
+
+  /** Returns the exact area to match, or null if every tweet in the circle matches. */
+  public Geometry getArea() {
+    return area;
+  }
+}
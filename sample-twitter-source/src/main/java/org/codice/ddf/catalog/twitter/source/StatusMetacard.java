@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import ddf.catalog.data.Attribute;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.impl.AttributeImpl;
+import ddf.catalog.data.impl.MetacardImpl;
+import java.io.Serializable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import twitter4j.GeoLocation;
+import twitter4j.Status;
+import twitter4j.URLEntity;
+
+/**
+ * A metacard backed by a twitter4j {@link Status}. Each attribute taken from the status is only
+ * built the first time it is read, so results that are never inspected (for example because they
+ * are dropped by paging or sorting) do not pay for the metadata XML, URI parsing or WKT.
+ *
+ * <p>The status itself is never modified. Attributes set on the metacard, such as those added by
+ * the framework or post-query plugins, take precedence over the values derived from the status.
+ * Reading is safe from several threads, since the derived attributes are published as a whole.
+ */
+public class StatusMetacard extends MetacardImpl {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StatusMetacard.class);
+
+  /** The attributes taken from a status. */
+  public static final Set<String> ATTRIBUTES =
+      Collections.unmodifiableSet(
+          new HashSet<>(
+              Arrays.asList(
+                  Metacard.ID,
+                  Metacard.TITLE,
+                  Metacard.METADATA,
+                  Metacard.CREATED,
+                  Metacard.MODIFIED,
+                  Metacard.EFFECTIVE,
+                  Metacard.POINT_OF_CONTACT,
+                  Metacard.RESOURCE_URI,
+                  Metacard.GEOGRAPHY)));
+
+  private static final int ID = 1;
+
+  private static final int TITLE = 1 << 1;
+
+  private static final int METADATA = 1 << 2;
+
+  private static final int CREATED = 1 << 3;
+
+  private static final int MODIFIED = 1 << 4;
+
+  private static final int EFFECTIVE = 1 << 5;
+
+  private static final int POINT_OF_CONTACT = 1 << 6;
+
+  private static final int RESOURCE_URI = 1 << 7;
+
+  private static final int GEOGRAPHY = 1 << 8;
+
+  private final Status status;
+
+  // Bits for the attributes that have been explicitly set, which are then read from the superclass.
+  // Deliberately not initialized here, since the superclass constructor may already have set
+  // attributes.
+  private volatile int overridden;
+
+  // The attributes built from the status so far. Each fill copies the map and publishes the copy,
+  // so concurrent readers never see a map being modified.
+  private volatile Map<String, Attribute> derived = Collections.emptyMap();
+
+  public StatusMetacard(Status status, String sourceId) {
+    super();
+    this.status = status;
+    setSourceId(sourceId);
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  @Override
+  public Attribute getAttribute(String name) {
+    int bit = bitFor(name);
+    if (bit == 0 || (overridden & bit) != 0 || status == null) {
+      return super.getAttribute(name);
+    }
+    Map<String, Attribute> current = derived;
+    if (current.containsKey(name)) {
+      return current.get(name);
+    }
+    return materialize(name, bit);
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) {
+    if (attribute != null) {
+      synchronized (this) {
+        overridden |= bitFor(attribute.getName());
+      }
+    }
+    super.setAttribute(attribute);
+  }
+
+  private synchronized Attribute materialize(String name, int bit) {
+    if (derived.containsKey(name)) {
+      return derived.get(name);
+    }
+    Serializable value = valueOf(bit);
+    Attribute attribute = value == null ? null : new AttributeImpl(name, value);
+    Map<String, Attribute> filled = new HashMap<>(derived);
+    filled.put(name, attribute);
+    derived = Collections.unmodifiableMap(filled);
+    return attribute;
+  }
+
+  private Serializable valueOf(int bit) {
+    switch (bit) {
+      case ID:
+        return String.valueOf(status.getId());
+      case TITLE:
+        return status.getText();
+      case METADATA:
+        return createMetadata();
+      case CREATED:
+      case MODIFIED:
+      case EFFECTIVE:
+        return status.getCreatedAt();
+      case POINT_OF_CONTACT:
+        return status.getUser() == null ? null : status.getUser().getName();
+      case RESOURCE_URI:
+        return createResourceUri();
+      case GEOGRAPHY:
+        GeoLocation geoLocation = status.getGeoLocation();
+        return geoLocation == null
+            ? null
+            : "POINT (" + geoLocation.getLongitude() + " " + geoLocation.getLatitude() + ")";
+      default:
+        return null;
+    }
+  }
+
+  private static int bitFor(String name) {
+    if (name == null) {
+      return 0;
+    }
+    switch (name) {
+      case Metacard.ID:
+        return ID;
+      case Metacard.TITLE:
+        return TITLE;
+      case Metacard.METADATA:
+        return METADATA;
+      case Metacard.CREATED:
+        return CREATED;
+      case Metacard.MODIFIED:
+        return MODIFIED;
+      case Metacard.EFFECTIVE:
+        return EFFECTIVE;
+      case Metacard.POINT_OF_CONTACT:
+        return POINT_OF_CONTACT;
+      case Metacard.RESOURCE_URI:
+        return RESOURCE_URI;
+      case Metacard.GEOGRAPHY:
+        return GEOGRAPHY;
+      default:
+        return 0;
+    }
+  }
+
+  private String createMetadata() {
+    String text = status.getText();
+    StringBuilder metadata =
+        new StringBuilder(96 + (text == null ? 0 : text.length()))
+            .append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+            .append("<Resource>")
+            .append("<name>");
+    appendEscaped(metadata, text);
+    return metadata.append("</name>").append("</Resource>").toString();
+  }
+
+  private URI createResourceUri() {
+    String url = firstExpandedUrl(status.getURLEntities());
+    if (url == null) {
+      url = firstExpandedUrl(status.getMediaEntities());
+    }
+    if (url == null) {
+      url = firstExpandedUrl(status.getExtendedMediaEntities());
+    }
+    if (url == null) {
+      return null;
+    }
+    try {
+      return new URI(url);
+    } catch (URISyntaxException e) {
+      LOGGER.error("Unable to set resource URI.", e);
+      return null;
+    }
+  }
+
+  private static String firstExpandedUrl(URLEntity[] entities) {
+    return entities != null && entities.length > 0 ? entities[0].getExpandedURL() : null;
+  }
+
+  private static void appendEscaped(StringBuilder builder, String text) {
+    if (text == null) {
+      return;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '<':
+          builder.append("&lt;");
+          break;
+        case '>':
+          builder.append("&gt;");
+          break;
+        case '&':
+          builder.append("&amp;");
+          break;
+        case '"':
+          builder.append("&quot;");
+          break;
+        case '\'':
+          builder.append("&apos;");
+          break;
+        default:
+          // Control characters other than whitespace are not allowed in XML 1.0
+          if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+            builder.append(c);
+          }
+      }
+    }
+  }
+
+  /**
+   * Serializes a fully built copy, so that the receiver sees every attribute and does not need
+   * twitter4j on its classpath.
+   */
+  private Object writeReplace() {
+    return new MetacardImpl(this);
+  }
+}
@@ -0,0 +1,26 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+/** Ingests a stream of tweets into the catalog. One is published for each configuration. */
+public interface StreamIngester {
+
+  String getId();
+
+  /**
+   * Returns how far, in milliseconds, the catalog is behind the stream: how long the oldest status
+   * not yet written to the catalog has been waiting, or 0 when every status has been written.
+   */
+  long getLag();
+}
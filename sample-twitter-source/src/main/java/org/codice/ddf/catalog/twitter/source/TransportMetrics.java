@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.concurrent.TimeUnit;
+import twitter4j.TwitterException;
+
+/**
+ * Counts the HTTP requests made to Twitter and how they ended, so that the transport settings can
+ * be tuned against the federation latency budget. twitter4j does not expose its connections, so
+ * this covers what can be seen from a completed or failed call.
+ */
+public class TransportMetrics {
+
+  private final Timer requests;
+
+  private final Meter networkErrors;
+
+  private final Meter httpErrors;
+
+  /** Registers the metrics under {@code <prefix>.Transport}. */
+  public TransportMetrics(MetricRegistry metrics, String prefix) {
+    requests = metrics.timer(MetricRegistry.name(prefix, "Transport", "Requests"));
+    networkErrors = metrics.meter(MetricRegistry.name(prefix, "Transport", "NetworkErrors"));
+    httpErrors = metrics.meter(MetricRegistry.name(prefix, "Transport", "HttpErrors"));
+  }
+
+  /** Records a request that took {@code nanos} and failed with {@code e}, or succeeded if null. */
+  public void record(long nanos, TwitterException e) {
+    requests.update(nanos, TimeUnit.NANOSECONDS);
+    if (e == null) {
+      return;
+    }
+    if (e.isCausedByNetworkIssue()) {
+      networkErrors.mark();
+    } else if (e.getStatusCode() > 0) {
+      httpErrors.mark();
+    }
+  }
+}
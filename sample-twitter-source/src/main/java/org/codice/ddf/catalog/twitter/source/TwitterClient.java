@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import ddf.catalog.source.UnsupportedQueryException;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import twitter4j.HttpResponseCode;
+import twitter4j.Query;
+import twitter4j.QueryResult;
+import twitter4j.RateLimitStatus;
+import twitter4j.TwitterException;
+import twitter4j.auth.OAuth2Token;
+
+/**
+ * Searches Twitter with one consumer key pair. Each client has its own bearer token and its own
+ * rate limit window, since Twitter applies the search quota per application.
+ */
+public class TwitterClient {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TwitterClient.class);
+
+  private static final String SEARCH_RESOURCE = "search";
+
+  private static final String SEARCH_TWEETS_ENDPOINT = "/search/tweets";
+
+  private final OAuth2TokenManager tokenManager;
+
+  private final RateLimitScheduler rateLimitScheduler;
+
+  private final TransportMetrics transportMetrics;
+
+  public TwitterClient(
+      OAuth2TokenManager tokenManager,
+      RateLimitScheduler rateLimitScheduler,
+      TransportMetrics transportMetrics) {
+    this.tokenManager = tokenManager;
+    this.rateLimitScheduler = rateLimitScheduler;
+    this.transportMetrics = transportMetrics;
+  }
+
+  public void start() {
+    tokenManager.start();
+  }
+
+  public void stop() {
+    tokenManager.stop();
+  }
+
+  public OAuth2TokenManager getTokenManager() {
+    return tokenManager;
+  }
+
+  public RateLimitScheduler getRateLimitScheduler() {
+    return rateLimitScheduler;
+  }
+
+  /**
+   * Runs the search with the shared OAuth2 token once the rate limit scheduler admits it. If
+   * Twitter rejects the token it is replaced and the search is retried once.
+   */
+  public QueryResult search(Query query) throws UnsupportedQueryException {
+    OAuth2Token token;
+    try {
+      token = tokenManager.getToken();
+    } catch (TwitterException e) {
+      throw new UnsupportedQueryException("Unable to get OAuth2 token.", e);
+    }
+
+    rateLimitScheduler.acquire();
+    try {
+      return searchAndTrack(token, query);
+    } catch (TwitterException e) {
+      if (e.getStatusCode() != HttpResponseCode.UNAUTHORIZED) {
+        throw new UnsupportedQueryException(e);
+      }
+      LOGGER.debug("OAuth2 token was rejected, fetching a new one.", e);
+    }
+
+    try {
+      token = tokenManager.refresh(token);
+      rateLimitScheduler.acquire();
+      return searchAndTrack(token, query);
+    } catch (TwitterException e) {
+      throw new UnsupportedQueryException(e);
+    }
+  }
+
+  /**
+   * Checks that Twitter accepts this client's token by reading the search rate limit, which also
+   * refreshes the quota tracked by the scheduler. The rate limit status endpoint has its own quota,
+   * so probing does not use up searches.
+   *
+   * @return true if Twitter answered
+   */
+  public boolean probe() {
+    try {
+      OAuth2Token token = tokenManager.getToken();
+      Map<String, RateLimitStatus> rateLimits;
+      try {
+        rateLimits = tokenManager.getInstance(token).getRateLimitStatus(SEARCH_RESOURCE);
+      } catch (TwitterException e) {
+        if (e.getStatusCode() != HttpResponseCode.UNAUTHORIZED) {
+          throw e;
+        }
+        token = tokenManager.refresh(token);
+        rateLimits = tokenManager.getInstance(token).getRateLimitStatus(SEARCH_RESOURCE);
+      }
+      rateLimitScheduler.update(rateLimits.get(SEARCH_TWEETS_ENDPOINT));
+      return true;
+    } catch (TwitterException e) {
+      LOGGER.debug("Twitter availability probe failed.", e);
+      return false;
+    }
+  }
+
+  private QueryResult searchAndTrack(OAuth2Token token, Query query) throws TwitterException {
+    long start = System.nanoTime();
+    try {
+      QueryResult queryResult = tokenManager.getInstance(token).search().search(query);
+      transportMetrics.record(System.nanoTime() - start, null);
+      rateLimitScheduler.update(queryResult.getRateLimitStatus());
+      return queryResult;
+    } catch (TwitterException e) {
+      transportMetrics.record(System.nanoTime() - start, e);
+      rateLimitScheduler.update(e.getRateLimitStatus());
+      throw e;
+    }
+  }
+}
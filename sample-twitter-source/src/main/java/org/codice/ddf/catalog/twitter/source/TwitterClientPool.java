@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads searches over the clients for every configured consumer key pair. Clients are taken in
+ * turn, skipping any whose rate limit window is exhausted, so the aggregate search throughput grows
+ * with the number of credentials.
+ */
+public class TwitterClientPool {
+
+  private final List<TwitterClient> clients;
+
+  private final AtomicInteger next = new AtomicInteger();
+
+  public TwitterClientPool(List<TwitterClient> clients) {
+    if (clients.isEmpty()) {
+      throw new IllegalArgumentException("At least one Twitter client is required.");
+    }
+    this.clients = Collections.unmodifiableList(new ArrayList<>(clients));
+  }
+
+  public void start() {
+    clients.forEach(TwitterClient::start);
+  }
+
+  public void stop() {
+    clients.forEach(TwitterClient::stop);
+  }
+
+  public List<TwitterClient> getClients() {
+    return clients;
+  }
+
+  /**
+   * Returns the next client with quota left. If every client is exhausted the next client in turn
+   * is returned and its scheduler decides whether the search waits or is rejected.
+   */
+  public TwitterClient next() {
+    int size = clients.size();
+    int start = Math.floorMod(next.getAndIncrement(), size);
+    for (int i = 0; i < size; i++) {
+      TwitterClient client = clients.get((start + i) % size);
+      if (!client.getRateLimitScheduler().isDegraded()) {
+        return client;
+      }
+    }
+    return clients.get(start);
+  }
+
+  /**
+   * Probes every client. The pool is reachable when at least one client reaches Twitter and has its
+   * token accepted; whether any quota is left is checked separately, by {@link #isDegraded()}.
+   */
+  public boolean probe() {
+    boolean reachable = false;
+    for (TwitterClient client : clients) {
+      reachable |= client.probe();
+    }
+    return reachable;
+  }
+
+  /** Returns true only when every client's rate limit window is exhausted. */
+  public boolean isDegraded() {
+    return clients.stream().allMatch(client -> client.getRateLimitScheduler().isDegraded());
+  }
+
+  /** Returns the number of searches waiting on any client's rate limit. */
+  public int getQueueDepth() {
+    return clients.stream()
+        .mapToInt(client -> client.getRateLimitScheduler().getQueueDepth())
+        .sum();
+  }
+
+  /** Returns the remaining quota summed over the clients that have reported one. */
+  public int getRemaining() {
+    return clients.stream()
+        .mapToInt(client -> client.getRateLimitScheduler().getRemaining())
+        .filter(remaining -> remaining >= 0)
+        .sum();
+  }
+}
@@ -13,7 +13,11 @@
  */
 package org.codice.ddf.catalog.twitter.source;
 
+import com.vividsolutions.jts.algorithm.MinimumBoundingCircle;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 import ddf.catalog.impl.filter.TemporalFilter;
@@ -21,8 +25,6 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
-import org.geotools.filter.AttributeExpressionImpl;
-import org.geotools.filter.LikeFilterImpl;
 import org.geotools.filter.visitor.DefaultFilterVisitor;
 import org.geotools.geometry.jts.spatialschema.geometry.primitive.SurfaceImpl;
 import org.geotools.temporal.object.DefaultPeriodDuration;
@@ -51,6 +53,11 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(TwitterFilterVisitor.class);
 
+  // Mean radius of the Earth
+  private static final double EARTH_RADIUS_KM = 6371.0088;
+
+  private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
   private List<Filter> filters;
 
   // Can only have one each of each type of filter in an Twitter query
@@ -58,13 +65,11 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
 
   private TemporalFilter temporalSearch;
 
-  private double latitude;
-
-  private double longitude;
-
-  private double radius;
+  // Length of the temporal search when it ends at the current time, otherwise 0
+  private long temporalDurationMillis;
 
-  private boolean hasSpatial;
+  // One circle, or one per part of a multi-part geometry; each part becomes its own Twitter search
+  private List<SpatialSearch> spatialSearches = new ArrayList<>();
 
   private NestedTypes currentNest = null;
 
@@ -77,6 +82,9 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
 
   @Override
   public Object visit(Not filter, Object data) {
+    if (ContextualQueryCompiler.isContextual(filter)) {
+      return visitContextual(filter, data);
+    }
     Object newData;
     NestedTypes parentNest = currentNest;
     LOGGER.trace("ENTERING: NOT filter");
@@ -91,10 +99,15 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
 
   @Override
   public Object visit(Or filter, Object data) {
+    if (ContextualQueryCompiler.isContextual(filter)) {
+      return visitContextual(filter, data);
+    }
     Object newData;
     NestedTypes parentNest = currentNest;
     LOGGER.trace("ENTERING: OR filter");
-    currentNest = NestedTypes.OR;
+    if (parentNest != NestedTypes.NOT) {
+      currentNest = NestedTypes.OR;
+    }
     filters.add(filter);
     newData = super.visit(filter, data);
     currentNest = parentNest;
@@ -105,10 +118,16 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
 
   @Override
   public Object visit(And filter, Object data) {
+    if (ContextualQueryCompiler.isContextual(filter)) {
+      return visitContextual(filter, data);
+    }
     Object newData;
     NestedTypes parentNest = currentNest;
     LOGGER.trace("ENTERING: AND filter");
-    currentNest = NestedTypes.AND;
+    // Under NOT or OR the conjunction cannot be sent to Twitter, so it is only checked on results
+    if (parentNest == null) {
+      currentNest = NestedTypes.AND;
+    }
     filters.add(filter);
     newData = super.visit(filter, data);
     currentNest = parentNest;
@@ -139,11 +158,8 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
       LOGGER.debug("point: coords[0] = {},   coords[1] = {}", coords.x, coords.y);
       LOGGER.debug("radius = {}", distance);
 
-      longitude = coords.x;
-      latitude = coords.y;
-      radius = distance / 1000;
-
-      hasSpatial = true;
+      spatialSearches = new ArrayList<>();
+      spatialSearches.add(new SpatialSearch(coords.y, coords.x, distance / 1000));
 
       filters.add(filter);
     } else {
@@ -165,35 +181,10 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
       // the geometry.
       // Example:
       // <ogc:Literal>org.geotools.geometry.jts.spatialschema.geometry.primitive.SurfaceImpl@64a7c45e</ogc:Literal>
-      Literal literalWrapper = (Literal) filter.getExpression2();
-      Object geometryExpression = literalWrapper.getValue();
-
-      if (geometryExpression instanceof SurfaceImpl) {
-        SurfaceImpl polygon = (SurfaceImpl) literalWrapper.evaluate(null);
-
-        Point point = polygon.getJTSGeometry().getCentroid();
-
-        longitude = point.getX();
-
-        latitude = point.getY();
-
-        radius = point.getBoundary().getLength() * 10;
-
-        hasSpatial = true;
-
-        filters.add(filter);
-
-      } else if (geometryExpression instanceof Polygon) {
-        Polygon polygon = (Polygon) geometryExpression;
-        Point centroid = polygon.getCentroid();
-        longitude = centroid.getX();
-        latitude = centroid.getY();
-        radius = polygon.getBoundary().getLength() * 10;
-        hasSpatial = true;
-
+      if (handleArea((Literal) filter.getExpression2())) {
         filters.add(filter);
       } else {
-        LOGGER.warn("Only POLYGON geometry WKT for Contains filter is supported");
+        LOGGER.warn("Only POLYGON and MULTIPOLYGON geometry WKT for Contains filter is supported");
       }
     } else {
       LOGGER.warn(ONLY_AND_MSG);
@@ -214,34 +205,11 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
       // the geometry.
       // Example:
       // <ogc:Literal>org.geotools.geometry.jts.spatialschema.geometry.primitive.SurfaceImpl@64a7c45e</ogc:Literal>
-      Literal literalWrapper = (Literal) filter.getExpression2();
-      Object geometryExpression = literalWrapper.getValue();
-
-      if (geometryExpression instanceof SurfaceImpl) {
-        SurfaceImpl polygon = (SurfaceImpl) literalWrapper.evaluate(null);
-
-        Point point = polygon.getJTSGeometry().getCentroid();
-
-        longitude = point.getX();
-
-        latitude = point.getY();
-
-        radius = point.getBoundary().getLength() * 10;
-
-        hasSpatial = true;
-
-        filters.add(filter);
-      } else if (geometryExpression instanceof Polygon) {
-        Polygon polygon = (Polygon) geometryExpression;
-        Point centroid = polygon.getCentroid();
-        longitude = centroid.getX();
-        latitude = centroid.getY();
-        radius = polygon.getBoundary().getLength() * 10;
-        hasSpatial = true;
-
+      if (handleArea((Literal) filter.getExpression2())) {
         filters.add(filter);
       } else {
-        LOGGER.warn("Only POLYGON geometry WKT for Intersects filter is supported");
+        LOGGER.warn(
+            "Only POLYGON and MULTIPOLYGON geometry WKT for Intersects filter is supported");
       }
     } else {
       LOGGER.warn(ONLY_AND_MSG);
@@ -252,6 +220,61 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
     return super.visit(filter, data);
   }
 
+  /**
+   * Maps a polygon or multi-polygon to search circles, one per polygon, each carrying its polygon
+   * so that results outside it can be dropped.
+   *
+   * @return false if the literal is not an area geometry
+   */
+  private boolean handleArea(Literal literalWrapper) {
+    Object geometryExpression = literalWrapper.getValue();
+
+    Geometry geometry;
+    if (geometryExpression instanceof SurfaceImpl) {
+      geometry = ((SurfaceImpl) literalWrapper.evaluate(null)).getJTSGeometry();
+    } else if (geometryExpression instanceof Polygon
+        || geometryExpression instanceof MultiPolygon) {
+      geometry = (Geometry) geometryExpression;
+    } else {
+      return false;
+    }
+
+    spatialSearches = new ArrayList<>(geometry.getNumGeometries());
+    for (int i = 0; i < geometry.getNumGeometries(); i++) {
+      spatialSearches.add(enclosingCircle(geometry.getGeometryN(i)));
+    }
+    return true;
+  }
+
+  /**
+   * Returns the smallest search circle around {@code polygon}. The circle is found in degrees, so
+   * its radius is taken as the largest great-circle distance from the centre to a vertex of the
+   * polygon's hull, which keeps the whole polygon inside the circle at any latitude.
+   */
+  private static SpatialSearch enclosingCircle(Geometry polygon) {
+    Coordinate centre = new MinimumBoundingCircle(polygon).getCentre();
+    if (centre == null) {
+      return new SpatialSearch(0, 0, 0, polygon);
+    }
+    double radius = 0;
+    for (Coordinate vertex : polygon.convexHull().getCoordinates()) {
+      radius = Math.max(radius, distanceKm(centre, vertex));
+    }
+    return new SpatialSearch(centre.y, centre.x, radius, polygon);
+  }
+
+  /** Haversine distance between two longitude/latitude coordinates. */
+  private static double distanceKm(Coordinate from, Coordinate to) {
+    double deltaLat = Math.toRadians(to.y - from.y);
+    double deltaLon = Math.toRadians(to.x - from.x);
+    double a =
+        Math.pow(Math.sin(deltaLat / 2), 2)
+            + Math.cos(Math.toRadians(from.y))
+                * Math.cos(Math.toRadians(to.y))
+                * Math.pow(Math.sin(deltaLon / 2), 2);
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
   /** TOverlaps filter maps to a Temporal (Absolute and Offset) search criteria. */
   @Override
   public Object visit(TOverlaps filter, Object data) {
@@ -294,6 +317,7 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
       Date end = period.getEnding().getPosition().getDate();
 
       temporalSearch = new TemporalFilter(start, end);
+      temporalDurationMillis = 0;
 
       filters.add(filter);
     } else if (literal instanceof PeriodDuration) {
@@ -305,6 +329,7 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
       Date start = new Date(end.getTime() - duration.getTimeInMillis());
 
       temporalSearch = new TemporalFilter(start, end);
+      temporalDurationMillis = duration.getTimeInMillis();
 
       filters.add(filter);
     }
@@ -325,30 +350,33 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
   /** PropertyIsLike filter maps to a Contextual search criteria. */
   @Override
   public Object visit(PropertyIsLike filter, Object data) {
-    LOGGER.trace("ENTERING: PropertyIsLike filter");
-
-    if (currentNest != NestedTypes.NOT) {
-
-      LikeFilterImpl likeFilter = (LikeFilterImpl) filter;
+    return visitContextual(filter, data);
+  }
 
-      AttributeExpressionImpl expression = (AttributeExpressionImpl) likeFilter.getExpression();
-      String selectors = expression.getPropertyName();
-      LOGGER.debug("selectors = {}", selectors);
+  /**
+   * A keyword expression, a PropertyIsLike or a boolean tree of them, is compiled as a whole into
+   * the Twitter search syntax. Expressions that meet under AND are joined into one search phrase.
+   */
+  private Object visitContextual(Filter filter, Object data) {
+    LOGGER.trace("ENTERING: contextual filter");
 
-      String searchPhrase = likeFilter.getLiteral();
-      LOGGER.debug("searchPhrase = [{}]", searchPhrase);
-      if (contextualSearch != null) {
+    if (currentNest == null || NestedTypes.AND.equals(currentNest)) {
+      ContextualSearch compiled = ContextualQueryCompiler.compile(filter);
+      LOGGER.debug("searchPhrase = [{}]", compiled == null ? null : compiled.getSearchPhrase());
+      if (compiled == null) {
+        LOGGER.debug("Contextual filter places no restriction on the keywords.");
+      } else if (contextualSearch != null) {
         contextualSearch.setSearchPhrase(
-            contextualSearch.getSearchPhrase() + " " + currentNest.toString() + " " + searchPhrase);
+            contextualSearch.getSearchPhrase() + " " + compiled.getSearchPhrase());
       } else {
-        contextualSearch =
-            new ContextualSearch(selectors, searchPhrase, likeFilter.isMatchingCase());
+        contextualSearch = compiled;
       }
+      filters.add(filter);
     }
 
-    LOGGER.trace("EXITING: PropertyIsLike filter");
+    LOGGER.trace("EXITING: contextual filter");
 
-    return super.visit(filter, data);
+    return data;
   }
 
   @Override
@@ -385,20 +413,49 @@ public class TwitterFilterVisitor extends DefaultFilterVisitor {
     return temporalSearch;
   }
 
+  /**
+   * Returns the length of the temporal search if it is relative to the current time, or 0 if it has
+   * fixed dates or there is none.
+   */
+  public long getTemporalDurationMillis() {
+    return temporalSearch == null ? 0 : temporalDurationMillis;
+  }
+
+  /** Returns the search circles, one per part of a multi-part geometry. */
+  public List<SpatialSearch> getSpatialSearches() {
+    return spatialSearches;
+  }
+
+  /**
+   * Returns one search circle around every part of the spatial criteria, matching the whole
+   * geometry, for when searching each part on its own would take too many searches.
+   */
+  public SpatialSearch getEnclosingSpatialSearch() {
+    if (spatialSearches.size() == 1) {
+      return spatialSearches.get(0);
+    }
+    // Only a multi-polygon has several parts, each with its polygon
+    Polygon[] polygons = new Polygon[spatialSearches.size()];
+    for (int i = 0; i < polygons.length; i++) {
+      polygons[i] = (Polygon) spatialSearches.get(i).getArea();
+    }
+    return enclosingCircle(GEOMETRY_FACTORY.createMultiPolygon(polygons));
+  }
+
   public double getLatitude() {
-    return latitude;
+    return hasSpatial() ? spatialSearches.get(0).getLatitude() : 0;
   }
 
   public double getLongitude() {
-    return longitude;
+    return hasSpatial() ? spatialSearches.get(0).getLongitude() : 0;
   }
 
   public double getRadius() {
-    return radius;
+    return hasSpatial() ? spatialSearches.get(0).getRadius() : 0;
   }
 
   public boolean hasSpatial() {
-    return hasSpatial;
+    return !spatialSearches.isEmpty();
   }
 
   private enum NestedTypes {
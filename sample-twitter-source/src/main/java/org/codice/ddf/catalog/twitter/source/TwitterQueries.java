@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import twitter4j.GeoLocation;
+import twitter4j.Query;
+
+/** Helpers for working with twitter4j {@link Query} objects, which are mutable. */
+final class TwitterQueries {
+
+  private TwitterQueries() {}
+
+  /**
+   * Returns a copy of {@code query} so that paging parameters such as max_id can be changed
+   * without modifying a query that is used as a cache key.
+   */
+  static Query copyOf(Query query) {
+    Query copy = new Query(query.getQuery());
+    copy.setLang(query.getLang());
+    copy.setLocale(query.getLocale());
+    copy.setMaxId(query.getMaxId());
+    copy.setSinceId(query.getSinceId());
+    copy.setCount(query.getCount());
+    copy.setSince(query.getSince());
+    copy.setUntil(query.getUntil());
+    copy.setResultType(query.getResultType());
+
+    // twitter4j only exposes the geocode in its "latitude,longitude,radius<unit>" form
+    String geocode = query.getGeocode();
+    if (geocode != null) {
+      String[] parts = geocode.split(",");
+      String radius = parts[2];
+      int unitStart = radius.length() - 2;
+      copy.setGeoCode(
+          new GeoLocation(Double.parseDouble(parts[0]), Double.parseDouble(parts[1])),
+          Double.parseDouble(radius.substring(0, unitStart)),
+          Query.Unit.valueOf(radius.substring(unitStart)));
+    }
+    return copy;
+  }
+}
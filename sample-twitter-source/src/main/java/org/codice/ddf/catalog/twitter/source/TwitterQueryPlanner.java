@@ -0,0 +1,330 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import com.codahale.metrics.Meter;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.codice.ddf.catalog.twitter.source.ResidualPredicateCompiler.ResidualPredicate;
+import org.geotools.filter.visitor.DefaultFilterVisitor;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Not;
+import org.opengis.filter.Or;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import twitter4j.GeoLocation;
+import twitter4j.Query;
+
+/**
+ * Turns a catalog query into the Twitter searches that together answer it.
+ *
+ * <p>Twitter search only understands a conjunction of one phrase, one geocode circle and a date
+ * range, so {@link TwitterFilterVisitor} drops anything under an OR other than keywords. The
+ * planner rewrites the filter into a disjunction of such conjunctions instead: each OR branch that
+ * holds spatial or temporal criteria, and each polygon of a multi-polygon, becomes its own search.
+ * The searches are run independently and their results merged.
+ *
+ * <p>Plans are cached by the structure and literal values of the filter, so a repeated filter
+ * reuses its searches without walking the filter again. Relative time ranges are resolved against
+ * the current time each time a cached plan is used.
+ */
+public class TwitterQueryPlanner {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TwitterQueryPlanner.class);
+
+  // Plans do not go stale, as relative dates are resolved on use; this only bounds idle entries
+  private static final long PLAN_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  // The date format of Twitter's since and until operators, which are UTC days
+  private static final DateTimeFormatter DAY_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+
+  private final int maxSubQueries;
+
+  private final ResidualPredicateCompiler residualCompiler = new ResidualPredicateCompiler();
+
+  // Keyed by the filter key and the requested count
+  private final ExpiringCache<String, List<PlannedSearch>> planCache;
+
+  private final Meter planCacheHits;
+
+  private final Meter planCacheMisses;
+
+  /**
+   * @param maxSubQueries the most searches one catalog query may be split into; queries with more
+   *     OR branches fall back to a single search, and branches whose polygons would need more
+   *     searches each search one circle around their polygons
+   * @param planCacheSize the number of plans kept for reuse, or 0 to plan every query from scratch
+   * @param planCacheHits marked when a query reuses a cached plan
+   * @param planCacheMisses marked when a query that could be cached is planned from scratch
+   */
+  public TwitterQueryPlanner(
+      int maxSubQueries, int planCacheSize, Meter planCacheHits, Meter planCacheMisses) {
+    this.maxSubQueries = Math.max(1, maxSubQueries);
+    this.planCache = new ExpiringCache<>(planCacheSize, PLAN_TTL_MILLIS);
+    this.planCacheHits = planCacheHits;
+    this.planCacheMisses = planCacheMisses;
+  }
+
+  /**
+   * Returns the distinct Twitter searches for {@code catalogQuery}, each asking for {@code count}
+   * tweets per request. The list always holds at least one search.
+   */
+  public List<TwitterSearch> plan(ddf.catalog.operation.Query catalogQuery, int count) {
+    String filterKey = FilterKeyBuilder.keyOf(catalogQuery);
+    if (filterKey == null) {
+      return searches(buildPlan(catalogQuery, count));
+    }
+    String key = filterKey + "|" + count;
+    List<PlannedSearch> plan = planCache.get(key);
+    if (plan != null) {
+      planCacheHits.mark();
+    } else {
+      planCacheMisses.mark();
+      plan = buildPlan(catalogQuery, count);
+      planCache.put(key, plan);
+    }
+    return searches(plan);
+  }
+
+  /** Drops every cached plan. */
+  public void clear() {
+    planCache.clear();
+  }
+
+  /**
+   * Returns the searches of a plan, each with its own copy of the template query so that callers
+   * may change it. Relative time ranges are resolved against the current time.
+   */
+  private List<TwitterSearch> searches(List<PlannedSearch> plan) {
+    List<TwitterSearch> searches = new ArrayList<>(plan.size());
+    for (PlannedSearch planned : plan) {
+      Query query = TwitterQueries.copyOf(planned.search.getQuery());
+      if (planned.relativeMillis > 0) {
+        Date end = new Date();
+        setDateRange(query, new Date(end.getTime() - planned.relativeMillis), end);
+      }
+      searches.add(planned.search.withQuery(query));
+    }
+    return searches;
+  }
+
+  private List<PlannedSearch> buildPlan(ddf.catalog.operation.Query catalogQuery, int count) {
+    List<List<Filter>> branches = null;
+    Object root = catalogQuery.accept(new RootFilterVisitor(), null);
+    if (root instanceof Filter) {
+      branches = split((Filter) root);
+    }
+    if (branches == null || branches.size() > maxSubQueries) {
+      if (branches != null) {
+        LOGGER.debug(
+            "Query splits into {} searches, more than the limit of {}; running it as one search.",
+            branches.size(),
+            maxSubQueries);
+      }
+      branches = Collections.singletonList(Collections.singletonList(catalogQuery));
+    }
+
+    List<PlannedSearch> plan = planBranches(branches, count, true);
+    if (plan.size() > maxSubQueries) {
+      LOGGER.debug(
+          "Query needs {} searches, more than the limit of {}; searching around all polygons of "
+              + "each branch at once.",
+          plan.size(),
+          maxSubQueries);
+      plan = planBranches(branches, count, false);
+    }
+    return plan;
+  }
+
+  /**
+   * Plans one search per branch, or with {@code splitPolygons} one per polygon of a branch's
+   * multi-polygon. Otherwise a branch searches one circle around all its polygons, and results
+   * outside them are still dropped, so the plan only costs more filtering, never results.
+   */
+  private List<PlannedSearch> planBranches(
+      List<List<Filter>> branches, int count, boolean splitPolygons) {
+    // A set, since different branches can reduce to the same search
+    Set<PlannedSearch> searches = new LinkedHashSet<>();
+    for (List<Filter> branch : branches) {
+      TwitterFilterVisitor visitor = new TwitterFilterVisitor();
+      branch.forEach(filter -> filter.accept(visitor, null));
+      // Whatever Twitter cannot match exactly is checked again on the results
+      ResidualPredicate residual = residualCompiler.compile(branch);
+      long relativeMillis = visitor.getTemporalDurationMillis();
+      if (visitor.hasSpatial()) {
+        List<SpatialSearch> spatialSearches =
+            splitPolygons
+                ? visitor.getSpatialSearches()
+                : Collections.singletonList(visitor.getEnclosingSpatialSearch());
+        for (SpatialSearch spatialSearch : spatialSearches) {
+          searches.add(
+              new PlannedSearch(
+                  new TwitterSearch(
+                      createQuery(visitor, spatialSearch, count),
+                      spatialSearch.getArea(),
+                      residual),
+                  relativeMillis));
+        }
+      } else {
+        searches.add(
+            new PlannedSearch(
+                new TwitterSearch(createQuery(visitor, null, count), null, residual),
+                relativeMillis));
+      }
+    }
+    return new ArrayList<>(searches);
+  }
+
+  /**
+   * Splits {@code filter} into the conjunctions whose union it matches. Returns null when the
+   * filter is a single conjunction that needs no splitting.
+   */
+  private List<List<Filter>> split(Filter filter) {
+    List<List<Filter>> branches = branches(filter);
+    return branches.size() > 1 ? branches : null;
+  }
+
+  private List<List<Filter>> branches(Filter filter) {
+    // Keyword only expressions are pushed down as one search phrase rather than split
+    if (filter instanceof Or && !ContextualQueryCompiler.isContextual(filter)) {
+      List<List<Filter>> branches = new ArrayList<>();
+      for (Filter child : ((Or) filter).getChildren()) {
+        branches.addAll(branches(child));
+        if (branches.size() > maxSubQueries) {
+          return branches;
+        }
+      }
+      return branches;
+    }
+    if (filter instanceof And) {
+      // Distribute the conjunction over the branches of its children
+      List<List<Filter>> branches = Collections.singletonList(Collections.emptyList());
+      for (Filter child : ((And) filter).getChildren()) {
+        List<List<Filter>> product = new ArrayList<>();
+        for (List<Filter> childBranch : branches(child)) {
+          for (List<Filter> branch : branches) {
+            List<Filter> combined = new ArrayList<>(branch);
+            combined.addAll(childBranch);
+            product.add(combined);
+          }
+        }
+        if (product.size() > maxSubQueries) {
+          return product;
+        }
+        branches = product;
+      }
+      return branches;
+    }
+    // NOT and single predicates are left to the visitor
+    return Collections.singletonList(Collections.singletonList(filter));
+  }
+
+  /**
+   * Builds the twitter4j query for the criteria collected by {@code visitor}. The query is a
+   * normalized form of the request (search phrase, geocode/radius, since/until and count) and is
+   * also used as the result cache key.
+   */
+  private Query createQuery(TwitterFilterVisitor visitor, SpatialSearch spatialSearch, int count) {
+    Query query = new Query();
+    query.setCount(count);
+    if (spatialSearch != null) {
+      GeoLocation geoLocation =
+          new GeoLocation(spatialSearch.getLatitude(), spatialSearch.getLongitude());
+      query.setGeoCode(geoLocation, spatialSearch.getRadius(), Query.Unit.km);
+    }
+    if (visitor.getContextualSearch() != null) {
+      query.setQuery(visitor.getContextualSearch().getSearchPhrase());
+    }
+    if (visitor.getTemporalSearch() != null) {
+      setDateRange(
+          query,
+          visitor.getTemporalSearch().getStartDate(),
+          visitor.getTemporalSearch().getEndDate());
+    }
+    return query;
+  }
+
+  /**
+   * Sets the since/until dates of {@code query} to the UTC days holding {@code start} and {@code
+   * end}. Twitter's until is exclusive, so it is the day after the end.
+   */
+  private static void setDateRange(Query query, Date start, Date end) {
+    query.setSince(DAY_FORMAT.format(start.toInstant()));
+    query.setUntil(DAY_FORMAT.format(end.toInstant().plus(1, ChronoUnit.DAYS)));
+  }
+
+  /**
+   * A search of a cached plan. A search over a relative time range keeps the length of the range,
+   * so that its dates can be moved to the current time when the plan is used.
+   */
+  private static class PlannedSearch {
+    private final TwitterSearch search;
+
+    private final long relativeMillis;
+
+    private PlannedSearch(TwitterSearch search, long relativeMillis) {
+      this.search = search;
+      this.relativeMillis = relativeMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof PlannedSearch)) {
+        return false;
+      }
+      PlannedSearch other = (PlannedSearch) o;
+      return relativeMillis == other.relativeMillis && search.equals(other.search);
+    }
+
+    @Override
+    public int hashCode() {
+      return search.hashCode();
+    }
+  }
+
+  /**
+   * Returns the outermost logical operator of a query without descending into it, or the visitor's
+   * data if the query is a single predicate. Catalog queries wrap their filter, so this is how the
+   * planner reaches it.
+   */
+  private static class RootFilterVisitor extends DefaultFilterVisitor {
+    @Override
+    public Object visit(And filter, Object data) {
+      return filter;
+    }
+
+    @Override
+    public Object visit(Or filter, Object data) {
+      return filter;
+    }
+
+    @Override
+    public Object visit(Not filter, Object data) {
+      return filter;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import ddf.catalog.data.Metacard;
+import java.util.Objects;
+import org.codice.ddf.catalog.twitter.source.ResidualPredicateCompiler.ResidualPredicate;
+import twitter4j.GeoLocation;
+import twitter4j.Place;
+import twitter4j.Query;
+import twitter4j.Status;
+
+/**
+ * One Twitter search: the query sent to Twitter, for polygon criteria the polygon the tweets it
+ * returns must fall in, and any criteria Twitter cannot apply at all. Twitter can only search a
+ * circle, so without this check every tweet between the polygon and its enclosing circle would be
+ * returned.
+ *
+ * <p>Two searches are equal when they send the same query and match the same area and criteria,
+ * which makes them usable as cache keys.
+ */
+public class TwitterSearch {
+
+  private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+  private final Query query;
+
+  private final PreparedGeometry area;
+
+  private final ResidualPredicate residual;
+
+  /**
+   * @param query the normalized query sent to Twitter
+   * @param area the area tweets must intersect, or null to accept every tweet Twitter returns
+   */
+  public TwitterSearch(Query query, Geometry area) {
+    this(query, area, null);
+  }
+
+  /**
+   * @param query the normalized query sent to Twitter
+   * @param area the area tweets must intersect, or null to accept every tweet Twitter returns
+   * @param residual the remaining criteria results must meet, or null if there are none
+   */
+  public TwitterSearch(Query query, Geometry area, ResidualPredicate residual) {
+    this.query = query;
+    this.area = area == null ? null : PreparedGeometryFactory.prepare(area);
+    this.residual = residual;
+  }
+
+  private TwitterSearch(Query query, PreparedGeometry area, ResidualPredicate residual) {
+    this.query = query;
+    this.area = area;
+    this.residual = residual;
+  }
+
+  /** Returns a search for {@code query} sharing this search's area and residual criteria. */
+  public TwitterSearch withQuery(Query query) {
+    return new TwitterSearch(query, area, residual);
+  }
+
+  public Query getQuery() {
+    return query;
+  }
+
+  public boolean hasArea() {
+    return area != null;
+  }
+
+  public boolean hasResidual() {
+    return residual != null;
+  }
+
+  /** Returns true if some of the tweets Twitter returns may be dropped by this search. */
+  public boolean isFiltered() {
+    return area != null || residual != null;
+  }
+
+  /** Returns true if {@code metacard} meets the criteria Twitter could not apply. */
+  public boolean matchesResidual(Metacard metacard) {
+    return residual == null || residual.test(metacard);
+  }
+
+  /**
+   * Returns true if {@code status} falls in the search area. The tweet's own coordinates are used
+   * when present, otherwise the bounding box of its place; tweets with neither are not matched by
+   * an area search.
+   */
+  public boolean matches(Status status) {
+    if (area == null) {
+      return true;
+    }
+    Geometry location = locationOf(status);
+    return location != null && area.intersects(location);
+  }
+
+  private static Geometry locationOf(Status status) {
+    GeoLocation geoLocation = status.getGeoLocation();
+    if (geoLocation != null) {
+      return GEOMETRY_FACTORY.createPoint(
+          new Coordinate(geoLocation.getLongitude(), geoLocation.getLatitude()));
+    }
+    Place place = status.getPlace();
+    if (place == null || place.getBoundingBoxCoordinates() == null) {
+      return null;
+    }
+    Envelope envelope = new Envelope();
+    for (GeoLocation[] ring : place.getBoundingBoxCoordinates()) {
+      for (GeoLocation corner : ring) {
+        envelope.expandToInclude(corner.getLongitude(), corner.getLatitude());
+      }
+    }
+    return envelope.isNull() ? null : GEOMETRY_FACTORY.toGeometry(envelope);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TwitterSearch)) {
+      return false;
+    }
+    TwitterSearch other = (TwitterSearch) o;
+    if (!query.equals(other.query) || !Objects.equals(residual, other.residual)) {
+      return false;
+    }
+    return area == null
+        ? other.area == null
+        : other.area != null && area.getGeometry().equalsExact(other.area.getGeometry());
+  }
+
+  @Override
+  public int hashCode() {
+    return query.hashCode();
+  }
+}
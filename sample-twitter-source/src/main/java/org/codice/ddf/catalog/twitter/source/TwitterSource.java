@@ -13,10 +13,15 @@
  */
 package org.codice.ddf.catalog.twitter.source;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import ddf.catalog.data.ContentType;
 import ddf.catalog.data.Metacard;
 import ddf.catalog.data.Result;
-import ddf.catalog.data.impl.MetacardImpl;
 import ddf.catalog.data.impl.ResultImpl;
 import ddf.catalog.operation.QueryRequest;
 import ddf.catalog.operation.ResourceResponse;
@@ -29,25 +34,39 @@ import ddf.catalog.service.ConfiguredService;
 import ddf.catalog.source.FederatedSource;
 import ddf.catalog.source.SourceMonitor;
 import ddf.catalog.source.UnsupportedQueryException;
+import ddf.metrics.collector.CollectorException;
+import ddf.metrics.collector.rrd4j.RrdJmxCollector;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import twitter4j.GeoLocation;
 import twitter4j.Query;
 import twitter4j.QueryResult;
 import twitter4j.Status;
-import twitter4j.Twitter;
-import twitter4j.TwitterException;
 import twitter4j.TwitterFactory;
 import twitter4j.conf.Configuration;
 import twitter4j.conf.ConfigurationBuilder;
@@ -56,7 +75,54 @@ public class TwitterSource implements FederatedSource, ConfiguredService {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(TwitterSource.class);
 
-  TwitterFactory twitterFactory;
+  private static final String METRICS_DOMAIN = "sdk.metrics.twitter";
+
+  // The maximum number of tweets the search API returns per request
+  private static final int MAX_SEARCH_COUNT = 100;
+
+  // The number the search API returns when no count is sent, which queries without a page size
+  // were given before searches were paged here
+  private static final int DEFAULT_PAGE_SIZE = 15;
+
+  private static final long NO_MAX_ID = -1L;
+
+  // Filtered searches stop after this many requests for one page, since a sparse area or a
+  // selective residual criteria can otherwise walk the whole search window looking for matches
+  private static final int MAX_FILTERED_REQUESTS = 10;
+
+  private static final long PAGE_CURSOR_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  // Sized apart from the result cache, so that turning the result cache off keeps max_id paging
+  private static final int PAGE_CURSOR_CACHE_SIZE = 100;
+
+  // Likewise for since_id refresh, which pays off most when results are not cached
+  private static final int RECENT_WINDOW_CACHE_SIZE = 100;
+
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  private JmxReporter reporter;
+
+  private Meter resultCacheHits;
+
+  private Meter resultCacheMisses;
+
+  private Meter incrementalRefreshes;
+
+  private Timer queryLatency;
+
+  private Timer mappingLatency;
+
+  private Timer residualEvaluation;
+
+  private Histogram queryResults;
+
+  // Feed the metrics to the RRD files behind the metrics graphs; one per source instance, so they
+  // are created here rather than declared in the blueprint
+  private final List<RrdJmxCollector> collectors = new ArrayList<>();
+
+  TwitterClientPool clientPool;
+
+  AvailabilityProbe availabilityProbe;
 
   String id;
 
@@ -66,24 +132,286 @@ public class TwitterSource implements FederatedSource, ConfiguredService {
 
   String consumerSecret;
 
+  List<String> additionalCredentials = new ArrayList<>();
+
+  int tokenRefreshMinutes = 60;
+
+  int resultCacheSize = 100;
+
+  long resultCacheTtlSeconds = 30;
+
+  int rateLimitReserve = 2;
+
+  long rateLimitMaxWaitSeconds = 5;
+
+  int rateLimitMaxQueued = 10;
+
+  long availabilityProbeSeconds = 60;
+
+  long availabilityProbeMaxBackoffSeconds = 900;
+
+  boolean gzipEnabled = true;
+
+  int httpConnectTimeoutMillis = 5000;
+
+  int httpReadTimeoutMillis = 20000;
+
+  int httpRetryCount = 0;
+
+  int httpRetryIntervalSeconds = 5;
+
+  // Empty to use Twitter's own endpoints
+  String restBaseUrl = "";
+
+  String oauth2TokenUrl = "";
+
+  int maxSubQueries = 8;
+
+  int planCacheSize = 200;
+
+  int searchThreads = 4;
+
+  TwitterQueryPlanner queryPlanner;
+
+  // Runs every Twitter search, so that callers can stop waiting when their query times out
+  private ExecutorService searchExecutor;
+
+  // Keyed by the normalized searches, whose twitter4j queries implement equals and hashCode over
+  // every search parameter, and the requested start index. The tweets are kept rather than their
+  // results, since callers and plugins modify the metacards they are given.
+  private final ExpiringCache<PageKey, List<Status>> resultCache =
+      new ExpiringCache<>(resultCacheSize, TimeUnit.SECONDS.toMillis(resultCacheTtlSeconds));
+
+  // Result offset to the max_id that continues the search from that offset, per search
+  private final ExpiringCache<TwitterSearch, NavigableMap<Integer, Long>> pageCursors =
+      new ExpiringCache<>(PAGE_CURSOR_CACHE_SIZE, PAGE_CURSOR_TTL_MILLIS);
+
+  // The newest page of each search, refreshed with since_id when the search is repeated
+  private final ExpiringCache<TwitterSearch, RecentWindow> recentWindows =
+      new ExpiringCache<>(RECENT_WINDOW_CACHE_SIZE, PAGE_CURSOR_TTL_MILLIS);
+
   private String configurationPid;
 
   public TwitterSource() {}
 
   public void init() {
-    ConfigurationBuilder configurationBuilder = new ConfigurationBuilder();
-    Configuration configuration =
-        configurationBuilder
-            .setOAuthConsumerKey(consumerKey)
-            .setOAuthConsumerSecret(consumerSecret)
-            .setApplicationOnlyAuthEnabled(true)
-            .build();
+    List<String[]> credentials = new ArrayList<>();
+    credentials.add(new String[] {consumerKey, consumerSecret});
+    for (String credential : additionalCredentials) {
+      // The metatype's default is a single empty entry
+      if (credential == null || credential.trim().isEmpty()) {
+        continue;
+      }
+      String[] pair = credential.split(":", 2);
+      if (pair.length == 2 && !pair[0].trim().isEmpty()) {
+        credentials.add(new String[] {pair[0].trim(), pair[1].trim()});
+      } else {
+        LOGGER.warn("Ignoring malformed Twitter credential; expected consumerKey:consumerSecret.");
+      }
+    }
+
+    // Maps to the MBean's ObjectName, i.e., sdk.metrics.twitter:name=<id>.OAuth2Token.Fetches
+    Timer tokenFetches = metrics.timer(MetricRegistry.name(id, "OAuth2Token", "Fetches"));
+    Meter rateLimitRejections = metrics.meter(MetricRegistry.name(id, "RateLimit", "Rejections"));
+    TransportMetrics transportMetrics = new TransportMetrics(metrics, id);
 
-    twitterFactory = new TwitterFactory(configuration);
+    List<TwitterClient> clients = new ArrayList<>(credentials.size());
+    for (String[] credential : credentials) {
+      TwitterFactory twitterFactory =
+          new TwitterFactory(createConfiguration(credential[0], credential[1]));
+      clients.add(
+          new TwitterClient(
+              new OAuth2TokenManager(
+                  twitterFactory, tokenFetches, TimeUnit.MINUTES.toMillis(tokenRefreshMinutes)),
+              new RateLimitScheduler(
+                  rateLimitReserve,
+                  TimeUnit.SECONDS.toMillis(rateLimitMaxWaitSeconds),
+                  rateLimitMaxQueued,
+                  rateLimitRejections),
+              transportMetrics));
+    }
+    clientPool = new TwitterClientPool(clients);
+    clientPool.start();
+
+    availabilityProbe =
+        new AvailabilityProbe(
+            clientPool::probe,
+            TimeUnit.SECONDS.toMillis(availabilityProbeSeconds),
+            TimeUnit.SECONDS.toMillis(availabilityProbeMaxBackoffSeconds));
+    availabilityProbe.start();
+
+    queryPlanner =
+        new TwitterQueryPlanner(
+            maxSubQueries,
+            planCacheSize,
+            metrics.meter(MetricRegistry.name(id, "PlanCache", "Hits")),
+            metrics.meter(MetricRegistry.name(id, "PlanCache", "Misses")));
+    AtomicInteger threadCount = new AtomicInteger();
+    // Bounded, and rejects rather than running searches on the caller, which could not time out
+    searchExecutor =
+        new ThreadPoolExecutor(
+            searchThreads,
+            searchThreads,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(searchThreads * maxSubQueries),
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "twitter-search-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    metrics.register(
+        MetricRegistry.name(id, "RateLimit", "QueueDepth"),
+        (Gauge<Integer>) clientPool::getQueueDepth);
+    metrics.register(
+        MetricRegistry.name(id, "RateLimit", "Remaining"),
+        (Gauge<Integer>) clientPool::getRemaining);
+
+    resultCacheHits = metrics.meter(MetricRegistry.name(id, "ResultCache", "Hits"));
+    resultCacheMisses = metrics.meter(MetricRegistry.name(id, "ResultCache", "Misses"));
+    incrementalRefreshes = metrics.meter(MetricRegistry.name(id, "IncrementalRefresh", "Hits"));
+    residualEvaluation = metrics.timer(MetricRegistry.name(id, "Residual", "Evaluation"));
+
+    queryLatency = metrics.timer(MetricRegistry.name(id, "Query", "Latency"));
+    mappingLatency = metrics.timer(MetricRegistry.name(id, "Mapping", "Latency"));
+    queryResults = metrics.histogram(MetricRegistry.name(id, "Query", "Results"));
+
+    reporter = JmxReporter.forRegistry(metrics).inDomain(METRICS_DOMAIN).build();
+    reporter.start();
+
+    // DERIVE is for the ever increasing counts, GAUGE for values that wax and wane
+    collect(MetricRegistry.name(id, "Query", "Latency"), "Count", "DERIVE", "count");
+    collect(MetricRegistry.name(id, "Query", "Latency"), "95thPercentile", "GAUGE", "p95");
+    collect(MetricRegistry.name(id, "Query", "Results"), "Mean", "GAUGE", "mean");
+    collect(MetricRegistry.name(id, "Transport", "Requests"), "95thPercentile", "GAUGE", "p95");
+    collect(MetricRegistry.name(id, "Mapping", "Latency"), "95thPercentile", "GAUGE", "p95");
+    collect(MetricRegistry.name(id, "RateLimit", "Remaining"), "Value", "GAUGE", "value");
   }
 
   public void destroy() {
-    twitterFactory = null;
+    if (searchExecutor != null) {
+      searchExecutor.shutdownNow();
+      searchExecutor = null;
+    }
+    if (availabilityProbe != null) {
+      availabilityProbe.stop();
+      availabilityProbe = null;
+    }
+    if (clientPool != null) {
+      clientPool.stop();
+      clientPool = null;
+    }
+    collectors.forEach(RrdJmxCollector::destroy);
+    collectors.clear();
+    if (reporter != null) {
+      reporter.stop();
+      reporter = null;
+    }
+    if (queryPlanner != null) {
+      queryPlanner.clear();
+    }
+    // The gauges read the client pool, so they are registered again with the next one
+    metrics.remove(MetricRegistry.name(id, "RateLimit", "QueueDepth"));
+    metrics.remove(MetricRegistry.name(id, "RateLimit", "Remaining"));
+    resultCache.clear();
+    pageCursors.clear();
+    recentWindows.clear();
+  }
+
+  /**
+   * Applies an updated configuration. The credentials, clients, probe and search threads are built
+   * from the settings in {@link #init()}, so the source is restarted with the new settings; a query
+   * running meanwhile may fail.
+   */
+  public synchronized void refresh(Map<String, Object> configuration) {
+    if (configuration == null) {
+      return;
+    }
+    destroy();
+
+    ManagedProperties properties = new ManagedProperties(configuration);
+    properties.applyString("id", this::setId);
+    properties.applyString("consumerKey", this::setConsumerKey);
+    properties.applyString("consumerSecret", this::setConsumerSecret);
+    properties.applyList("additionalCredentials", this::setAdditionalCredentials);
+    properties.applyInt("tokenRefreshMinutes", this::setTokenRefreshMinutes);
+    properties.applyInt("resultCacheSize", this::setResultCacheSize);
+    properties.applyLong("resultCacheTtlSeconds", this::setResultCacheTtlSeconds);
+    properties.applyInt("rateLimitReserve", this::setRateLimitReserve);
+    properties.applyLong("rateLimitMaxWaitSeconds", this::setRateLimitMaxWaitSeconds);
+    properties.applyInt("rateLimitMaxQueued", this::setRateLimitMaxQueued);
+    properties.applyLong("availabilityProbeSeconds", this::setAvailabilityProbeSeconds);
+    properties.applyLong(
+        "availabilityProbeMaxBackoffSeconds", this::setAvailabilityProbeMaxBackoffSeconds);
+    properties.applyInt("maxSubQueries", this::setMaxSubQueries);
+    properties.applyInt("planCacheSize", this::setPlanCacheSize);
+    properties.applyInt("searchThreads", this::setSearchThreads);
+    properties.applyBoolean("gzipEnabled", this::setGzipEnabled);
+    properties.applyInt("httpConnectTimeoutMillis", this::setHttpConnectTimeoutMillis);
+    properties.applyInt("httpReadTimeoutMillis", this::setHttpReadTimeoutMillis);
+    properties.applyInt("httpRetryCount", this::setHttpRetryCount);
+    properties.applyInt("httpRetryIntervalSeconds", this::setHttpRetryIntervalSeconds);
+    properties.applyString("restBaseUrl", this::setRestBaseUrl);
+    properties.applyString("oauth2TokenUrl", this::setOauth2TokenUrl);
+
+    init();
+  }
+
+  /**
+   * Starts recording {@code attribute} of the MBean for {@code metric} in an RRD file named after
+   * the metric, so that it can be graphed like the other catalog metrics.
+   */
+  private void collect(String metric, String attribute, String type, String dataSource) {
+    String rrdName = (metric + "." + dataSource).replaceAll("[^A-Za-z0-9]", "_");
+    RrdJmxCollector collector =
+        new RrdJmxCollector(objectName(metric), attribute, rrdName, type, dataSource);
+    try {
+      collector.init();
+      collectors.add(collector);
+    } catch (CollectorException e) {
+      LOGGER.warn("Unable to collect {} {} for graphing.", metric, attribute, e);
+    }
+  }
+
+  /** Returns the MBean name {@link JmxReporter} registers {@code metric} under. */
+  private static String objectName(String metric) {
+    try {
+      ObjectName objectName = new ObjectName(METRICS_DOMAIN, "name", metric);
+      if (!objectName.isPattern()) {
+        return objectName.toString();
+      }
+    } catch (MalformedObjectNameException e) {
+      LOGGER.trace("Quoting metric name {}.", metric, e);
+    }
+    return METRICS_DOMAIN + ":name=" + ObjectName.quote(metric);
+  }
+
+  /**
+   * twitter4j connects with {@link java.net.HttpURLConnection}, which keeps idle connections alive
+   * in a JVM-wide cache sized by the {@code http.maxConnections} system property, so connection
+   * reuse is not configured per source.
+   */
+  private Configuration createConfiguration(String consumerKey, String consumerSecret) {
+    ConfigurationBuilder configurationBuilder = new ConfigurationBuilder();
+    configurationBuilder
+        .setOAuthConsumerKey(consumerKey)
+        .setOAuthConsumerSecret(consumerSecret)
+        .setApplicationOnlyAuthEnabled(true)
+        .setGZIPEnabled(gzipEnabled)
+        .setHttpConnectionTimeout(httpConnectTimeoutMillis)
+        .setHttpReadTimeout(httpReadTimeoutMillis)
+        .setHttpRetryCount(httpRetryCount)
+        .setHttpRetryIntervalSeconds(httpRetryIntervalSeconds);
+    // Another endpoint is only needed for a proxy or a local stand-in used in testing
+    if (restBaseUrl != null && !restBaseUrl.trim().isEmpty()) {
+      configurationBuilder.setRestBaseURL(restBaseUrl);
+    }
+    if (oauth2TokenUrl != null && !oauth2TokenUrl.trim().isEmpty()) {
+      configurationBuilder.setOAuth2TokenURL(oauth2TokenUrl);
+    }
+    return configurationBuilder.build();
   }
 
   @Override
@@ -102,129 +430,342 @@ public class TwitterSource implements FederatedSource, ConfiguredService {
     return Collections.emptySet();
   }
 
+  /**
+   * Returns true if the last background probe reached Twitter and a client has quota left, without
+   * contacting Twitter. The quota is checked on each call, so the source is reported unavailable as
+   * soon as the rate limit is exhausted, and available again as soon as it resets.
+   */
   @Override
   public boolean isAvailable() {
-    Twitter instance = twitterFactory.getInstance();
-    try {
-      instance.getOAuth2Token();
-      return true;
-    } catch (TwitterException e) {
-      LOGGER.error("Unable to get OAuth2 token.", e);
-      return false;
-    }
+    return availabilityProbe.isAvailable() && !clientPool.isDegraded();
   }
 
+  /**
+   * Returns the state {@link #isAvailable()} does. {@code callback} is told whether Twitter is
+   * reachable now and afterwards only when that changes.
+   */
   @Override
   public boolean isAvailable(SourceMonitor callback) {
-    if (isAvailable()) {
-      callback.setAvailable();
-      return true;
-    } else {
-      callback.setUnavailable();
-      return false;
-    }
+    return availabilityProbe.isAvailable(callback) && !clientPool.isDegraded();
   }
 
+  /**
+   * Runs the Twitter searches for {@code request} on the search executor and waits for them no
+   * longer than the query's timeout. If the timeout passes first the searches are cancelled and the
+   * tweets collected so far are returned with a warning, so a slow Twitter response cannot hold the
+   * calling federation thread.
+   */
   @Override
   public SourceResponse query(QueryRequest request) throws UnsupportedQueryException {
-    Twitter instance = twitterFactory.getInstance();
+    Timer.Context context = queryLatency.time();
+    try {
+      SourceResponse response = runQuery(request);
+      queryResults.update(response.getResults().size());
+      return response;
+    } finally {
+      context.stop();
+    }
+  }
+
+  private SourceResponse runQuery(QueryRequest request) throws UnsupportedQueryException {
+    int pageSize = request.getQuery().getPageSize();
+    if (pageSize <= 0) {
+      pageSize = DEFAULT_PAGE_SIZE;
+    }
+    int startIndex = Math.max(request.getQuery().getStartIndex(), 1);
+    List<TwitterSearch> searches = queryPlanner.plan(request.getQuery(), pageSize);
+
+    PageKey pageKey = new PageKey(searches, startIndex);
+    List<Status> cached = resultCache.get(pageKey);
+    if (cached != null) {
+      resultCacheHits.mark();
+      return new SourceResponseImpl(request, toResults(cached));
+    }
+    resultCacheMisses.mark();
+
+    int offset = startIndex - 1;
+    // A split query is merged before paging, so each search reads up to the end of the page
+    int searchOffset = searches.size() == 1 ? offset : 0;
+    int searchPageSize = searches.size() == 1 ? pageSize : offset + pageSize;
+
+    List<List<Status>> collected = new ArrayList<>(searches.size());
+    // Set when a filtered search gives up before filling its page
+    AtomicBoolean truncated = new AtomicBoolean();
+    List<Future<?>> futures = new ArrayList<>(searches.size());
     try {
-      instance.getOAuth2Token();
-    } catch (TwitterException e) {
-      throw new UnsupportedQueryException("Unable to get OAuth2 token.", e);
-    }
-    TwitterFilterVisitor visitor = new TwitterFilterVisitor();
-    request.getQuery().accept(visitor, null);
-    Query query = new Query();
-    query.setCount(request.getQuery().getPageSize());
-    if (visitor.hasSpatial()) {
-      GeoLocation geoLocation = new GeoLocation(visitor.getLatitude(), visitor.getLongitude());
-      query.setGeoCode(geoLocation, visitor.getRadius(), Query.Unit.km);
-    }
-    if (visitor.getContextualSearch() != null) {
-      query.setQuery(visitor.getContextualSearch().getSearchPhrase());
-    }
-    if (visitor.getTemporalSearch() != null) {
-      Calendar.Builder builder = new Calendar.Builder();
-      builder.setInstant(visitor.getTemporalSearch().getStartDate());
-      Calendar calendar = builder.build();
-      query.setSince(
-          calendar.get(Calendar.YEAR)
-              + "-"
-              + calendar.get(Calendar.MONTH)
-              + "-"
-              + calendar.get(Calendar.DAY_OF_MONTH));
-
-      builder = new Calendar.Builder();
-      builder.setInstant(visitor.getTemporalSearch().getEndDate());
-      calendar = builder.build();
-      query.setUntil(
-          calendar.get(Calendar.YEAR)
-              + "-"
-              + calendar.get(Calendar.MONTH)
-              + "-"
-              + calendar.get(Calendar.DAY_OF_MONTH));
-    }
-
-    QueryResult queryResult;
+      for (TwitterSearch search : searches) {
+        List<Status> page = Collections.synchronizedList(new ArrayList<>(searchPageSize));
+        collected.add(page);
+        futures.add(
+            searchExecutor.submit(
+                () -> {
+                  if (!fetchPage(search, searchOffset, searchPageSize, page)) {
+                    truncated.set(true);
+                  }
+                  return null;
+                }));
+      }
+    } catch (RejectedExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      throw new UnsupportedQueryException("Too many Twitter searches are waiting to run.", e);
+    }
+
+    long timeoutMillis = request.getQuery().getTimeoutMillis();
+    boolean complete = await(futures, timeoutMillis);
+
+    List<Status> statuses;
+    if (searches.size() == 1) {
+      statuses = snapshot(collected.get(0));
+    } else {
+      statuses = merge(collected, offset, pageSize);
+    }
+    List<Result> resultList = toResults(statuses);
+
+    List<String> warnings = new ArrayList<>();
+    if (!complete) {
+      warnings.add(
+          String.format(
+              "Twitter did not respond within %d ms; returning %d partial results.",
+              timeoutMillis, resultList.size()));
+    } else if (truncated.get()) {
+      warnings.add(
+          String.format(
+              "Twitter returned too few matching tweets within %d requests; returning %d partial "
+                  + "results.",
+              MAX_FILTERED_REQUESTS, resultList.size()));
+    }
+    SourceResponseImpl response = new SourceResponseImpl(request, resultList);
+    if (!warnings.isEmpty()) {
+      // Partial pages are not cached, so that repeating the query searches again
+      response.setWarnings(warnings);
+      return response;
+    }
+    resultCache.put(pageKey, Collections.unmodifiableList(statuses));
+    return response;
+  }
+
+  /** Maps {@code statuses} to new metacards, so no two responses share a result. */
+  private List<Result> toResults(List<Status> statuses) {
+    Timer.Context context = mappingLatency.time();
     try {
-      queryResult = instance.search().search(query);
-    } catch (TwitterException e) {
-      throw new UnsupportedQueryException(e);
+      return statuses.stream()
+          .map(status -> new ResultImpl(getMetacard(status)))
+          .collect(Collectors.toList());
+    } finally {
+      context.stop();
     }
-    List<Result> resultList = new ArrayList<>(queryResult.getCount());
-    resultList.addAll(
-        queryResult
-            .getTweets()
-            .stream()
-            .map(status -> new ResultImpl(getMetacard(status)))
-            .collect(Collectors.toList()));
-    return new SourceResponseImpl(request, resultList);
   }
 
-  private Metacard getMetacard(Status status) {
-    MetacardImpl metacard = new MetacardImpl();
-    metacard.setSourceId(id);
-    metacard.setId(String.valueOf(status.getId()));
-    metacard.setTitle(status.getText());
-    metacard.setMetadata(
-        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
-            + "<Resource>"
-            + "<name>"
-            + status.getText()
-            + "</name>"
-            + "</Resource>");
-    metacard.setCreatedDate(status.getCreatedAt());
-    metacard.setModifiedDate(status.getCreatedAt());
-    metacard.setEffectiveDate(status.getCreatedAt());
-    metacard.setPointOfContact(status.getUser().getName());
-    if (status.getURLEntities() != null && status.getURLEntities().length > 0) {
-      try {
-        metacard.setResourceURI(new URI(status.getURLEntities()[0].getExpandedURL()));
-      } catch (URISyntaxException e) {
-        LOGGER.error("Unable to set resource URI.", e);
+  /**
+   * Waits for every search to finish within {@code timeoutMillis}, or without limit if it is not
+   * positive, cancelling those still running when the time is up.
+   *
+   * @return false if the searches were cut short
+   */
+  private boolean await(List<Future<?>> futures, long timeoutMillis)
+      throws UnsupportedQueryException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      for (Future<?> future : futures) {
+        if (timeoutMillis > 0) {
+          future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } else {
+          future.get();
+        }
       }
-    } else if (status.getMediaEntities() != null && status.getMediaEntities().length > 0) {
-      try {
-        metacard.setResourceURI(new URI(status.getMediaEntities()[0].getExpandedURL()));
-      } catch (URISyntaxException e) {
-        LOGGER.error("Unable to set resource URI.", e);
+      return true;
+    } catch (TimeoutException e) {
+      LOGGER.debug("Twitter query timed out after {} ms.", timeoutMillis);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UnsupportedQueryException("Interrupted while searching Twitter.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UnsupportedQueryException) {
+        throw (UnsupportedQueryException) e.getCause();
       }
-    } else if (status.getExtendedMediaEntities() != null
-        && status.getExtendedMediaEntities().length > 0) {
-      try {
-        metacard.setResourceURI(new URI(status.getExtendedMediaEntities()[0].getExpandedURL()));
-      } catch (URISyntaxException e) {
-        LOGGER.error("Unable to set resource URI.", e);
+      throw new UnsupportedQueryException(e.getCause());
+    } finally {
+      futures.forEach(future -> future.cancel(true));
+    }
+  }
+
+  private static List<Status> snapshot(List<Status> page) {
+    synchronized (page) {
+      return new ArrayList<>(page);
+    }
+  }
+
+  /**
+   * Merges the tweets of a split query into one page. Tweets matched by more than one search are
+   * kept once, and the merge is ordered newest first, as Twitter orders a single search.
+   */
+  private static List<Status> merge(List<List<Status>> pages, int offset, int pageSize) {
+    // Status ids increase with time, so sorting by id orders the tweets newest first
+    Map<Long, Status> merged = new TreeMap<>(Comparator.reverseOrder());
+    for (List<Status> page : pages) {
+      for (Status status : snapshot(page)) {
+        merged.putIfAbsent(status.getId(), status);
       }
     }
-    GeoLocation geoLocation = status.getGeoLocation();
-    if (geoLocation != null) {
-      metacard.setLocation(
-          "POINT (" + geoLocation.getLongitude() + " " + geoLocation.getLatitude() + ")");
+    return merged.values().stream().skip(offset).limit(pageSize).collect(Collectors.toList());
+  }
+
+  /**
+   * Collects up to {@code pageSize} statuses starting {@code offset} results into the search.
+   *
+   * <p>Twitter search pages with max_id rather than offsets, so the source remembers, per query,
+   * the max_id that continues the search at each offset it has reached. Paging forward resumes from
+   * the nearest remembered cursor, so reading the next page costs one remote call instead of
+   * walking every earlier page again.
+   *
+   * <p>Offsets count only the tweets that match the search's area and residual criteria, since the
+   * others are dropped here rather than by Twitter.
+   *
+   * <p>Tweets are added to {@code page} as each response arrives, so a caller that gives up waiting
+   * still sees the tweets found so far. Interrupting the thread stops the search between requests.
+   *
+   * <p>The first page of a search is kept, and when the search is repeated only tweets newer than
+   * that page are requested (see {@link #refreshFirstPage}).
+   *
+   * @return false if the search stopped before reaching the end of the page or of the search
+   */
+  private boolean fetchPage(TwitterSearch search, int offset, int pageSize, List<Status> page)
+      throws UnsupportedQueryException {
+    if (offset == 0 && refreshFirstPage(search, pageSize, page)) {
+      return true;
     }
 
-    return metacard;
+    NavigableMap<Integer, Long> cursors = pageCursors.get(search);
+    if (cursors == null) {
+      cursors = new ConcurrentSkipListMap<>();
+      pageCursors.put(search, cursors);
+    }
+    // The first page always starts from the newest tweets
+    cursors.put(0, NO_MAX_ID);
+
+    Map.Entry<Integer, Long> cursor = cursors.floorEntry(offset);
+    int position = cursor.getKey();
+    long maxId = cursor.getValue();
+
+    int requests = 0;
+    boolean complete = true;
+    while (page.size() < pageSize) {
+      if (Thread.currentThread().isInterrupted()) {
+        complete = false;
+        break;
+      }
+      if (search.isFiltered() && requests++ >= MAX_FILTERED_REQUESTS) {
+        LOGGER.debug("Stopping after {} requests with {} matching tweets.", requests, page.size());
+        complete = false;
+        break;
+      }
+      int toSkip = offset - position;
+      // When filtering, some of the tweets returned are dropped, so always ask for a full page
+      int count =
+          search.isFiltered()
+              ? MAX_SEARCH_COUNT
+              : Math.min(toSkip > 0 ? toSkip : pageSize - page.size(), MAX_SEARCH_COUNT);
+
+      Query pageQuery = TwitterQueries.copyOf(search.getQuery());
+      pageQuery.setCount(count);
+      pageQuery.setMaxId(maxId);
+      QueryResult queryResult = clientPool.next().search(pageQuery);
+
+      for (Status status : queryResult.getTweets()) {
+        maxId = status.getId() - 1;
+        if (!matches(search, status)) {
+          continue;
+        }
+        if (position >= offset && page.size() < pageSize) {
+          page.add(status);
+        }
+        position++;
+      }
+      cursors.put(position, maxId);
+
+      if (queryResult.getTweets().isEmpty() || !queryResult.hasNext()) {
+        break;
+      }
+    }
+
+    if (offset == 0 && complete) {
+      recentWindows.put(search, new RecentWindow(snapshot(page), pageSize));
+    }
+    return complete;
+  }
+
+  /**
+   * Fills {@code page} with the first page of a repeated search by asking Twitter only for tweets
+   * newer than the newest one seen last time (since_id), and topping them up with the kept page.
+   * Polling the same search then costs one small request instead of downloading the page again.
+   *
+   * @return false if there is no usable kept page, or if more new tweets arrived than one request
+   *     can return, in which case the page is fetched in full
+   */
+  private boolean refreshFirstPage(TwitterSearch search, int pageSize, List<Status> page)
+      throws UnsupportedQueryException {
+    RecentWindow window = recentWindows.get(search);
+    if (window == null || window.pageSize != pageSize || window.statuses.isEmpty()) {
+      return false;
+    }
+
+    Query refreshQuery = TwitterQueries.copyOf(search.getQuery());
+    refreshQuery.setCount(
+        search.isFiltered() ? MAX_SEARCH_COUNT : Math.min(pageSize, MAX_SEARCH_COUNT));
+    refreshQuery.setSinceId(window.statuses.get(0).getId());
+    QueryResult queryResult = clientPool.next().search(refreshQuery);
+
+    List<Status> newer =
+        queryResult.getTweets().stream()
+            .filter(status -> matches(search, status))
+            .collect(Collectors.toList());
+    // Twitter returns the newest tweets first; if there are more, some new tweets between them and
+    // the kept page are missing
+    if (queryResult.hasNext() && newer.size() < pageSize) {
+      return false;
+    }
+
+    Map<Long, Status> merged = new LinkedHashMap<>();
+    newer.forEach(status -> merged.putIfAbsent(status.getId(), status));
+    window.statuses.forEach(status -> merged.putIfAbsent(status.getId(), status));
+    List<Status> firstPage = merged.values().stream().limit(pageSize).collect(Collectors.toList());
+    page.addAll(firstPage);
+
+    recentWindows.put(search, new RecentWindow(firstPage, pageSize));
+    if (!newer.isEmpty()) {
+      // Offsets moved, so earlier cursors are stale; the end of the new first page is known
+      NavigableMap<Integer, Long> cursors = new ConcurrentSkipListMap<>();
+      if (firstPage.size() == pageSize) {
+        cursors.put(pageSize, firstPage.get(pageSize - 1).getId() - 1);
+      }
+      pageCursors.put(search, cursors);
+    }
+    incrementalRefreshes.mark();
+    return true;
+  }
+
+  /**
+   * Returns true if {@code status} falls in the search's area and meets the criteria Twitter could
+   * not apply, which are checked on the metacard it maps to.
+   */
+  private boolean matches(TwitterSearch search, Status status) {
+    if (!search.matches(status)) {
+      return false;
+    }
+    if (!search.hasResidual()) {
+      return true;
+    }
+    Timer.Context context = residualEvaluation.time();
+    try {
+      return search.matchesResidual(getMetacard(status));
+    } finally {
+      context.stop();
+    }
+  }
+
+  private Metacard getMetacard(Status status) {
+    return new StatusMetacard(status, id);
   }
 
   @Override
@@ -277,6 +818,162 @@ public class TwitterSource implements FederatedSource, ConfiguredService {
     this.consumerSecret = consumerSecret;
   }
 
+  public int getTokenRefreshMinutes() {
+    return tokenRefreshMinutes;
+  }
+
+  public void setTokenRefreshMinutes(int tokenRefreshMinutes) {
+    this.tokenRefreshMinutes = tokenRefreshMinutes;
+  }
+
+  public int getResultCacheSize() {
+    return resultCacheSize;
+  }
+
+  public void setResultCacheSize(int resultCacheSize) {
+    this.resultCacheSize = resultCacheSize;
+    resultCache.configure(resultCacheSize, TimeUnit.SECONDS.toMillis(resultCacheTtlSeconds));
+  }
+
+  public long getResultCacheTtlSeconds() {
+    return resultCacheTtlSeconds;
+  }
+
+  public void setResultCacheTtlSeconds(long resultCacheTtlSeconds) {
+    this.resultCacheTtlSeconds = resultCacheTtlSeconds;
+    resultCache.configure(resultCacheSize, TimeUnit.SECONDS.toMillis(resultCacheTtlSeconds));
+  }
+
+  public int getRateLimitReserve() {
+    return rateLimitReserve;
+  }
+
+  public void setRateLimitReserve(int rateLimitReserve) {
+    this.rateLimitReserve = rateLimitReserve;
+  }
+
+  public long getRateLimitMaxWaitSeconds() {
+    return rateLimitMaxWaitSeconds;
+  }
+
+  public void setRateLimitMaxWaitSeconds(long rateLimitMaxWaitSeconds) {
+    this.rateLimitMaxWaitSeconds = rateLimitMaxWaitSeconds;
+  }
+
+  public int getRateLimitMaxQueued() {
+    return rateLimitMaxQueued;
+  }
+
+  public void setRateLimitMaxQueued(int rateLimitMaxQueued) {
+    this.rateLimitMaxQueued = rateLimitMaxQueued;
+  }
+
+  public List<String> getAdditionalCredentials() {
+    return additionalCredentials;
+  }
+
+  public void setAdditionalCredentials(List<String> additionalCredentials) {
+    this.additionalCredentials =
+        additionalCredentials == null ? new ArrayList<>() : new ArrayList<>(additionalCredentials);
+  }
+
+  public long getAvailabilityProbeSeconds() {
+    return availabilityProbeSeconds;
+  }
+
+  public void setAvailabilityProbeSeconds(long availabilityProbeSeconds) {
+    // A zero interval would have the probe reschedule itself without pause
+    this.availabilityProbeSeconds = Math.max(1, availabilityProbeSeconds);
+  }
+
+  public long getAvailabilityProbeMaxBackoffSeconds() {
+    return availabilityProbeMaxBackoffSeconds;
+  }
+
+  public void setAvailabilityProbeMaxBackoffSeconds(long availabilityProbeMaxBackoffSeconds) {
+    this.availabilityProbeMaxBackoffSeconds = availabilityProbeMaxBackoffSeconds;
+  }
+
+  public int getMaxSubQueries() {
+    return maxSubQueries;
+  }
+
+  public void setMaxSubQueries(int maxSubQueries) {
+    this.maxSubQueries = maxSubQueries;
+  }
+
+  public int getPlanCacheSize() {
+    return planCacheSize;
+  }
+
+  public void setPlanCacheSize(int planCacheSize) {
+    this.planCacheSize = planCacheSize;
+  }
+
+  public int getSearchThreads() {
+    return searchThreads;
+  }
+
+  public void setSearchThreads(int searchThreads) {
+    this.searchThreads = searchThreads;
+  }
+
+  public boolean isGzipEnabled() {
+    return gzipEnabled;
+  }
+
+  public void setGzipEnabled(boolean gzipEnabled) {
+    this.gzipEnabled = gzipEnabled;
+  }
+
+  public int getHttpConnectTimeoutMillis() {
+    return httpConnectTimeoutMillis;
+  }
+
+  public void setHttpConnectTimeoutMillis(int httpConnectTimeoutMillis) {
+    this.httpConnectTimeoutMillis = httpConnectTimeoutMillis;
+  }
+
+  public int getHttpReadTimeoutMillis() {
+    return httpReadTimeoutMillis;
+  }
+
+  public void setHttpReadTimeoutMillis(int httpReadTimeoutMillis) {
+    this.httpReadTimeoutMillis = httpReadTimeoutMillis;
+  }
+
+  public int getHttpRetryCount() {
+    return httpRetryCount;
+  }
+
+  public void setHttpRetryCount(int httpRetryCount) {
+    this.httpRetryCount = httpRetryCount;
+  }
+
+  public int getHttpRetryIntervalSeconds() {
+    return httpRetryIntervalSeconds;
+  }
+
+  public void setHttpRetryIntervalSeconds(int httpRetryIntervalSeconds) {
+    this.httpRetryIntervalSeconds = httpRetryIntervalSeconds;
+  }
+
+  public String getRestBaseUrl() {
+    return restBaseUrl;
+  }
+
+  public void setRestBaseUrl(String restBaseUrl) {
+    this.restBaseUrl = restBaseUrl;
+  }
+
+  public String getOauth2TokenUrl() {
+    return oauth2TokenUrl;
+  }
+
+  public void setOauth2TokenUrl(String oauth2TokenUrl) {
+    this.oauth2TokenUrl = oauth2TokenUrl;
+  }
+
   public void setResourceReader(ResourceReader resourceReader) {
     this.resourceReader = resourceReader;
   }
@@ -290,4 +987,44 @@ public class TwitterSource implements FederatedSource, ConfiguredService {
   public void setConfigurationPid(String configurationPid) {
     this.configurationPid = configurationPid;
   }
+
+  private static class RecentWindow {
+    // Newest first
+    private final List<Status> statuses;
+
+    private final int pageSize;
+
+    private RecentWindow(List<Status> statuses, int pageSize) {
+      this.statuses = Collections.unmodifiableList(statuses);
+      this.pageSize = pageSize;
+    }
+  }
+
+  private static class PageKey {
+    private final List<TwitterSearch> searches;
+
+    private final int startIndex;
+
+    private PageKey(List<TwitterSearch> searches, int startIndex) {
+      this.searches = searches;
+      this.startIndex = startIndex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof PageKey)) {
+        return false;
+      }
+      PageKey other = (PageKey) o;
+      return startIndex == other.startIndex && searches.equals(other.searches);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * searches.hashCode() + startIndex;
+    }
+  }
 }
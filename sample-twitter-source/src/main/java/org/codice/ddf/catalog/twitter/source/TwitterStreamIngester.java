@@ -0,0 +1,541 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import ddf.catalog.CatalogFramework;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.operation.impl.CreateRequestImpl;
+import ddf.catalog.source.IngestException;
+import ddf.catalog.source.SourceUnavailableException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.osgi.service.blueprint.container.ServiceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import twitter4j.FilterQuery;
+import twitter4j.StallWarning;
+import twitter4j.Status;
+import twitter4j.StatusAdapter;
+import twitter4j.TwitterStream;
+import twitter4j.TwitterStreamFactory;
+import twitter4j.conf.ConfigurationBuilder;
+
+/**
+ * Streams tweets for configured tracks and location boxes into the local catalog, so that queries
+ * over them are answered from the local index instead of searching Twitter each time.
+ *
+ * <p>Statuses from the stream are queued and written by a single thread in batches of up to {@code
+ * batchSize}, each batch as one create request. Statuses already ingested are skipped by id, since
+ * the stream repeats statuses when it reconnects.
+ *
+ * <p>The streaming API cannot be paused or replayed, and twitter4j hands statuses to listeners
+ * through its own unbounded queue. So when the catalog falls behind and the queue fills up, the
+ * stream is disconnected until the queue has drained to half, and for at least a few seconds,
+ * rather than letting statuses pile up in memory. Statuses that arrive while the queue is full are
+ * counted and dropped, and while the catalog is unavailable a batch is retried rather than dropped.
+ * A batch the catalog keeps failing on for another reason is dropped after a few attempts, so that
+ * one bad batch cannot stall ingest.
+ */
+public class TwitterStreamIngester implements StreamIngester {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TwitterStreamIngester.class);
+
+  private static final String METRICS_DOMAIN = "sdk.metrics.twitter";
+
+  // Statuses are repeated after a reconnect, which Twitter allows a few minutes to happen in
+  private static final long DEDUP_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private static final long MAX_RETRY_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  // Attempts at a batch that fails for a reason other than the catalog being unavailable
+  private static final int MAX_ATTEMPTS = 5;
+
+  // Twitter throttles clients that reconnect too often, so a paused stream stays down this long
+  private static final long MIN_PAUSE_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  private final CatalogFramework catalogFramework;
+
+  private final MetricRegistry metrics = new MetricRegistry();
+
+  private JmxReporter reporter;
+
+  private Meter ingested;
+
+  private Meter duplicates;
+
+  private Meter dropped;
+
+  private Meter pauses;
+
+  private Meter failures;
+
+  private Timer batches;
+
+  String id = "DDF-Twitter-Ingest";
+
+  String consumerKey;
+
+  String consumerSecret;
+
+  String accessToken;
+
+  String accessTokenSecret;
+
+  List<String> tracks = new ArrayList<>();
+
+  List<String> locations = new ArrayList<>();
+
+  int batchSize = 100;
+
+  long batchMaxWaitMillis = 1000;
+
+  int queueCapacity = 10000;
+
+  int dedupCacheSize = 100000;
+
+  // Empty to use Twitter's own endpoint
+  String streamBaseUrl = "";
+
+  private BlockingQueue<QueuedStatus> queue;
+
+  private ExpiringCache<Long, Boolean> ingestedIds;
+
+  private TwitterStream twitterStream;
+
+  private FilterQuery filterQuery;
+
+  // Replaced when the ingester restarts; a writer that is no longer this one stops
+  private volatile Thread writer;
+
+  private volatile boolean running;
+
+  private volatile boolean paused;
+
+  private long pausedAt;
+
+  // The oldest status of the batch being written, or null between batches
+  private volatile QueuedStatus writing;
+
+  public TwitterStreamIngester(CatalogFramework catalogFramework) {
+    this.catalogFramework = catalogFramework;
+  }
+
+  public void init() {
+    filterQuery = createFilterQuery();
+    if (filterQuery == null) {
+      LOGGER.warn("No tracks or locations are configured for {}; nothing is ingested.", id);
+      return;
+    }
+
+    queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    // Kept across restarts, so that the statuses the stream repeats are still skipped
+    if (ingestedIds == null) {
+      ingestedIds = new ExpiringCache<>(dedupCacheSize, DEDUP_TTL_MILLIS);
+    } else {
+      ingestedIds.configure(dedupCacheSize, DEDUP_TTL_MILLIS);
+    }
+
+    // Maps to the MBean's ObjectName, i.e., sdk.metrics.twitter:name=<id>.Ingest.Statuses
+    ingested = metrics.meter(MetricRegistry.name(id, "Ingest", "Statuses"));
+    duplicates = metrics.meter(MetricRegistry.name(id, "Ingest", "Duplicates"));
+    dropped = metrics.meter(MetricRegistry.name(id, "Ingest", "Dropped"));
+    pauses = metrics.meter(MetricRegistry.name(id, "Ingest", "Pauses"));
+    failures = metrics.meter(MetricRegistry.name(id, "Ingest", "Failures"));
+    batches = metrics.timer(MetricRegistry.name(id, "Ingest", "Batches"));
+    metrics.register(MetricRegistry.name(id, "Ingest", "QueueDepth"), (Gauge<Integer>) queue::size);
+    metrics.register(MetricRegistry.name(id, "Ingest", "LagMillis"), (Gauge<Long>) this::getLag);
+    reporter = JmxReporter.forRegistry(metrics).inDomain(METRICS_DOMAIN).build();
+    reporter.start();
+
+    running = true;
+    writer = new Thread(this::write, "twitter-ingest-" + id);
+    writer.setDaemon(true);
+    writer.start();
+
+    twitterStream = new TwitterStreamFactory(createConfiguration().build()).getInstance();
+    twitterStream.addListener(new IngestListener());
+    twitterStream.filter(filterQuery);
+  }
+
+  public void destroy() {
+    synchronized (this) {
+      running = false;
+      if (twitterStream != null) {
+        twitterStream.shutdown();
+        twitterStream = null;
+      }
+    }
+    if (writer != null) {
+      writer.interrupt();
+      writer = null;
+    }
+    if (reporter != null) {
+      reporter.stop();
+      reporter = null;
+    }
+    metrics.getNames().forEach(metrics::remove);
+  }
+
+  /**
+   * Applies an updated configuration. The stream, queue and writer are built from the settings in
+   * {@link #init()}, so the ingester is restarted with the new settings. Statuses still queued are
+   * dropped; the ids already ingested are kept.
+   */
+  public synchronized void refresh(Map<String, Object> configuration) {
+    if (configuration == null) {
+      return;
+    }
+    destroy();
+
+    ManagedProperties properties = new ManagedProperties(configuration);
+    properties.applyString("id", this::setId);
+    properties.applyString("consumerKey", this::setConsumerKey);
+    properties.applyString("consumerSecret", this::setConsumerSecret);
+    properties.applyString("accessToken", this::setAccessToken);
+    properties.applyString("accessTokenSecret", this::setAccessTokenSecret);
+    properties.applyList("tracks", this::setTracks);
+    properties.applyList("locations", this::setLocations);
+    properties.applyInt("batchSize", this::setBatchSize);
+    properties.applyLong("batchMaxWaitMillis", this::setBatchMaxWaitMillis);
+    properties.applyInt("queueCapacity", this::setQueueCapacity);
+    properties.applyInt("dedupCacheSize", this::setDedupCacheSize);
+    properties.applyString("streamBaseUrl", this::setStreamBaseUrl);
+
+    init();
+  }
+
+  @Override
+  public long getLag() {
+    QueuedStatus oldest = writing;
+    if (oldest == null && queue != null) {
+      oldest = queue.peek();
+    }
+    return oldest == null
+        ? 0
+        : TimeUnit.NANOSECONDS.toMillis(Math.max(0, System.nanoTime() - oldest.queuedAt));
+  }
+
+  private ConfigurationBuilder createConfiguration() {
+    ConfigurationBuilder configurationBuilder = new ConfigurationBuilder();
+    configurationBuilder
+        .setOAuthConsumerKey(consumerKey)
+        .setOAuthConsumerSecret(consumerSecret)
+        .setOAuthAccessToken(accessToken)
+        .setOAuthAccessTokenSecret(accessTokenSecret);
+    // Another endpoint is only needed for a proxy or a local stand-in used in testing
+    if (streamBaseUrl != null && !streamBaseUrl.trim().isEmpty()) {
+      configurationBuilder.setStreamBaseURL(streamBaseUrl);
+    }
+    return configurationBuilder;
+  }
+
+  /** Returns the stream filter for the configured tracks and boxes, or null if there are none. */
+  private FilterQuery createFilterQuery() {
+    List<String> trackList = new ArrayList<>();
+    for (String track : tracks) {
+      if (track != null && !track.trim().isEmpty()) {
+        trackList.add(track.trim());
+      }
+    }
+    List<double[]> corners = new ArrayList<>();
+    for (String location : locations) {
+      if (location == null || location.trim().isEmpty()) {
+        continue;
+      }
+      String[] bounds = location.split(",");
+      try {
+        if (bounds.length != 4) {
+          throw new NumberFormatException(location);
+        }
+        // Southwest corner then northeast corner, each longitude first
+        corners.add(
+            new double[] {
+              Double.parseDouble(bounds[0].trim()), Double.parseDouble(bounds[1].trim())
+            });
+        corners.add(
+            new double[] {
+              Double.parseDouble(bounds[2].trim()), Double.parseDouble(bounds[3].trim())
+            });
+      } catch (NumberFormatException e) {
+        LOGGER.warn(
+            "Ignoring malformed location box {}; expected west,south,east,north.", location);
+      }
+    }
+    if (trackList.isEmpty() && corners.isEmpty()) {
+      return null;
+    }
+    FilterQuery query = new FilterQuery();
+    if (!trackList.isEmpty()) {
+      query.track(trackList.toArray(new String[0]));
+    }
+    if (!corners.isEmpty()) {
+      query.locations(corners.toArray(new double[0][]));
+    }
+    return query;
+  }
+
+  private boolean isWriter() {
+    return running && writer == Thread.currentThread();
+  }
+
+  /** Writes queued statuses to the catalog until the ingester is destroyed. */
+  private void write() {
+    List<Status> batch = new ArrayList<>(batchSize);
+    while (isWriter()) {
+      try {
+        QueuedStatus first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          resumeIfDrained();
+          continue;
+        }
+        writing = first;
+        batch.add(first.status);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchMaxWaitMillis);
+        while (batch.size() < batchSize) {
+          QueuedStatus next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next.status);
+        }
+        ingest(batch);
+        batch.clear();
+        writing = null;
+        resumeIfDrained();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void ingest(List<Status> batch) throws InterruptedException {
+    List<Metacard> metacards = new ArrayList<>(batch.size());
+    Set<Long> ids = new HashSet<>();
+    for (Status status : batch) {
+      if (ingestedIds.get(status.getId()) != null || ids.contains(status.getId())) {
+        duplicates.mark();
+        continue;
+      }
+      ids.add(status.getId());
+      metacards.add(new StatusMetacard(status, null));
+    }
+    if (metacards.isEmpty()) {
+      return;
+    }
+
+    long retryWaitMillis = 1000;
+    int attempts = 0;
+    while (isWriter()) {
+      Timer.Context context = batches.time();
+      try {
+        catalogFramework.create(new CreateRequestImpl(metacards));
+        context.stop();
+        ids.forEach(id -> ingestedIds.put(id, Boolean.TRUE));
+        ingested.mark(metacards.size());
+        return;
+      } catch (IngestException e) {
+        // The catalog rejected the statuses themselves, so retrying would not help
+        failures.mark();
+        LOGGER.warn("Catalog rejected {} statuses from the Twitter stream.", metacards.size(), e);
+        return;
+      } catch (SourceUnavailableException | ServiceUnavailableException e) {
+        // Hold on to the batch; the queue fills up meanwhile and pauses the stream. The framework
+        // service itself being absent is thrown by its proxy once the reference times out.
+        failures.mark();
+        LOGGER.debug("Catalog unavailable; retrying in {} ms.", retryWaitMillis, e);
+      } catch (RuntimeException e) {
+        // For example a failing plugin
+        failures.mark();
+        if (++attempts >= MAX_ATTEMPTS) {
+          dropped.mark(metacards.size());
+          LOGGER.warn(
+              "Dropping {} statuses from the Twitter stream after {} failed attempts.",
+              metacards.size(),
+              attempts,
+              e);
+          return;
+        }
+        LOGGER.debug("Unable to create statuses; retrying in {} ms.", retryWaitMillis, e);
+      }
+      TimeUnit.MILLISECONDS.sleep(retryWaitMillis);
+      retryWaitMillis = Math.min(retryWaitMillis * 2, MAX_RETRY_WAIT_MILLIS);
+    }
+  }
+
+  private synchronized void pause() {
+    if (paused || !running) {
+      return;
+    }
+    paused = true;
+    pausedAt = System.nanoTime();
+    pauses.mark();
+    LOGGER.info("Catalog is behind the Twitter stream; disconnecting until it catches up.");
+    // Closes the connection but keeps the listeners, so filter() reconnects
+    twitterStream.cleanUp();
+  }
+
+  private synchronized void resumeIfDrained() {
+    if (!paused
+        || !running
+        || queue.size() > queueCapacity / 2
+        || System.nanoTime() - pausedAt < TimeUnit.MILLISECONDS.toNanos(MIN_PAUSE_MILLIS)) {
+      return;
+    }
+    paused = false;
+    LOGGER.info("Catalog caught up with the Twitter stream; reconnecting.");
+    twitterStream.filter(filterQuery);
+  }
+
+  private class IngestListener extends StatusAdapter {
+    @Override
+    public void onStatus(Status status) {
+      if (!queue.offer(new QueuedStatus(status))) {
+        dropped.mark();
+        pause();
+      }
+    }
+
+    @Override
+    public void onStallWarning(StallWarning warning) {
+      LOGGER.warn(
+          "Twitter stream is stalling, {}% of its queue is full: {}",
+          warning.getPercentFull(), warning.getMessage());
+    }
+
+    @Override
+    public void onException(Exception e) {
+      LOGGER.debug("Twitter stream error; twitter4j reconnects.", e);
+    }
+  }
+
+  /** A status and when it was queued, to tell how long statuses wait for the catalog. */
+  private static class QueuedStatus {
+    private final Status status;
+
+    private final long queuedAt = System.nanoTime();
+
+    private QueuedStatus(Status status) {
+      this.status = status;
+    }
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getConsumerKey() {
+    return consumerKey;
+  }
+
+  public void setConsumerKey(String consumerKey) {
+    this.consumerKey = consumerKey;
+  }
+
+  public String getConsumerSecret() {
+    return consumerSecret;
+  }
+
+  public void setConsumerSecret(String consumerSecret) {
+    this.consumerSecret = consumerSecret;
+  }
+
+  public String getAccessToken() {
+    return accessToken;
+  }
+
+  public void setAccessToken(String accessToken) {
+    this.accessToken = accessToken;
+  }
+
+  public String getAccessTokenSecret() {
+    return accessTokenSecret;
+  }
+
+  public void setAccessTokenSecret(String accessTokenSecret) {
+    this.accessTokenSecret = accessTokenSecret;
+  }
+
+  public List<String> getTracks() {
+    return tracks;
+  }
+
+  public void setTracks(List<String> tracks) {
+    this.tracks = tracks == null ? new ArrayList<>() : tracks;
+  }
+
+  public List<String> getLocations() {
+    return locations;
+  }
+
+  public void setLocations(List<String> locations) {
+    this.locations = locations == null ? new ArrayList<>() : locations;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  public long getBatchMaxWaitMillis() {
+    return batchMaxWaitMillis;
+  }
+
+  public void setBatchMaxWaitMillis(long batchMaxWaitMillis) {
+    this.batchMaxWaitMillis = batchMaxWaitMillis;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public int getDedupCacheSize() {
+    return dedupCacheSize;
+  }
+
+  public void setDedupCacheSize(int dedupCacheSize) {
+    this.dedupCacheSize = dedupCacheSize;
+  }
+
+  public String getStreamBaseUrl() {
+    return streamBaseUrl;
+  }
+
+  public void setStreamBaseUrl(String streamBaseUrl) {
+    this.streamBaseUrl = streamBaseUrl;
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ddf.catalog.source.SourceMonitor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Test;
+
+public class AvailabilityProbeTest {
+
+  private AvailabilityProbe probe;
+
+  @After
+  public void tearDown() {
+    if (probe != null) {
+      probe.stop();
+    }
+  }
+
+  @Test
+  public void testReportsTheLastCheck() throws Exception {
+    AtomicBoolean up = new AtomicBoolean(true);
+    CountDownLatch checks = new CountDownLatch(3);
+    probe =
+        new AvailabilityProbe(
+            () -> {
+              checks.countDown();
+              return up.get();
+            },
+            10,
+            10);
+    assertFalse(probe.isAvailable());
+
+    probe.start();
+    assertTrue(checks.await(5, TimeUnit.SECONDS));
+    assertTrue(probe.isAvailable());
+
+    up.set(false);
+    assertTrue(await(() -> !probe.isAvailable()));
+  }
+
+  @Test
+  public void testBacksOffWhileUnavailable() throws Exception {
+    List<Long> checkTimes = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch checks = new CountDownLatch(5);
+    probe =
+        new AvailabilityProbe(
+            () -> {
+              checkTimes.add(System.nanoTime());
+              checks.countDown();
+              return false;
+            },
+            10,
+            80);
+
+    probe.start();
+    assertTrue(checks.await(5, TimeUnit.SECONDS));
+
+    // The delay doubles from the interval up to the maximum; scheduling only ever adds to it
+    List<Long> minimumGaps = Arrays.asList(20L, 40L, 80L, 80L);
+    for (int i = 0; i < minimumGaps.size(); i++) {
+      long gap = TimeUnit.NANOSECONDS.toMillis(checkTimes.get(i + 1) - checkTimes.get(i));
+      assertTrue("Gap " + i + " was " + gap + " ms", gap >= minimumGaps.get(i));
+    }
+  }
+
+  @Test
+  public void testFailingCheckCountsAsUnavailable() throws Exception {
+    CountDownLatch checks = new CountDownLatch(2);
+    probe =
+        new AvailabilityProbe(
+            () -> {
+              checks.countDown();
+              throw new IllegalStateException("unreachable");
+            },
+            1,
+            1);
+
+    probe.start();
+
+    assertTrue(checks.await(5, TimeUnit.SECONDS));
+    assertFalse(probe.isAvailable());
+  }
+
+  @Test
+  public void testMonitorsAreOnlyToldOfChanges() throws Exception {
+    AtomicBoolean up = new AtomicBoolean(false);
+    probe = new AvailabilityProbe(up::get, 5, 5);
+    List<String> told = Collections.synchronizedList(new ArrayList<>());
+    SourceMonitor monitor =
+        new SourceMonitor() {
+          @Override
+          public void setAvailable() {
+            told.add("available");
+          }
+
+          @Override
+          public void setUnavailable() {
+            told.add("unavailable");
+          }
+        };
+
+    assertFalse(probe.isAvailable(monitor));
+    probe.isAvailable(monitor);
+    probe.start();
+    up.set(true);
+    assertTrue(await(probe::isAvailable));
+    // Give the probe time to run again, which must not tell the monitor anything new
+    Thread.sleep(50);
+
+    assertEquals(Arrays.asList("unavailable", "available"), told);
+  }
+
+  private static boolean await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(5);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import ddf.catalog.data.Metacard;
+import ddf.catalog.filter.FilterBuilder;
+import ddf.catalog.filter.proxy.builder.GeotoolsFilterBuilder;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+public class ContextualQueryCompilerTest {
+
+  private static final FilterBuilder FILTER_BUILDER = new GeotoolsFilterBuilder();
+
+  @Test
+  public void testKeyword() {
+    assertEquals("cats", phrase(like("cats")));
+  }
+
+  @Test
+  public void testPhraseIsQuoted() {
+    assertEquals("\"black cats\"", phrase(like("black cats")));
+  }
+
+  @Test
+  public void testAndOrNot() {
+    assertEquals("cats -dogs", phrase(FILTER_BUILDER.allOf(like("cats"), not(like("dogs")))));
+    assertEquals("(cats OR dogs)", phrase(FILTER_BUILDER.anyOf(like("cats"), like("dogs"))));
+    assertEquals(
+        "fish (cats OR dogs)",
+        phrase(
+            FILTER_BUILDER.allOf(like("fish"), FILTER_BUILDER.anyOf(like("cats"), like("dogs")))));
+  }
+
+  @Test
+  public void testNotIsPushedToTerms() {
+    assertEquals(
+        "cats -dogs -fish",
+        phrase(
+            FILTER_BUILDER.allOf(
+                like("cats"), not(FILTER_BUILDER.anyOf(like("dogs"), like("fish"))))));
+  }
+
+  @Test
+  public void testNegationOnlyRootIsNotSearched() {
+    assertNull(ContextualQueryCompiler.compile(not(like("cats"))));
+    assertNull(
+        ContextualQueryCompiler.compile(not(FILTER_BUILDER.anyOf(like("cats"), like("dogs")))));
+    assertNull(
+        ContextualQueryCompiler.compile(not(FILTER_BUILDER.allOf(like("cats"), like("dogs")))));
+  }
+
+  @Test
+  public void testWildcardsAreDropped() {
+    assertEquals("cat", phrase(like("cat*")));
+    assertNull(ContextualQueryCompiler.compile(like("*")));
+  }
+
+  @Test
+  public void testWildcardsUnderNotAreLeftOut() {
+    assertEquals("cats", phrase(FILTER_BUILDER.allOf(like("cats"), not(like("dog*")))));
+    assertEquals(
+        "cats -fish",
+        phrase(
+            FILTER_BUILDER.allOf(
+                like("cats"), not(FILTER_BUILDER.anyOf(like("dog?"), like("fish"))))));
+    // NOT (dog* AND fish) is NOT dog* OR NOT fish, which cannot exclude anything
+    assertEquals(
+        "cats",
+        phrase(
+            FILTER_BUILDER.allOf(
+                like("cats"), not(FILTER_BUILDER.allOf(like("dog*"), like("fish"))))));
+  }
+
+  @Test
+  public void testIsContextual() {
+    assertTrue(
+        ContextualQueryCompiler.isContextual(
+            FILTER_BUILDER.anyOf(like("cats"), not(like("dogs")))));
+    assertFalse(
+        ContextualQueryCompiler.isContextual(
+            FILTER_BUILDER.allOf(
+                like("cats"), FILTER_BUILDER.attribute(Metacard.TITLE).is().equalTo().text("x"))));
+  }
+
+  private static String phrase(Filter filter) {
+    return ContextualQueryCompiler.compile(filter).getSearchPhrase();
+  }
+
+  private static Filter like(String text) {
+    return FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().text(text);
+  }
+
+  private static Filter not(Filter filter) {
+    return FILTER_BUILDER.not(filter);
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+  private final AtomicLong now = new AtomicLong();
+
+  @Test
+  public void testGetBeforeExpiry() {
+    ExpiringCache<String, String> cache = new ExpiringCache<>(10, 1000, now::get);
+    cache.put("key", "value");
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+    assertEquals("value", cache.get("key"));
+  }
+
+  @Test
+  public void testGetAfterExpiry() {
+    ExpiringCache<String, String> cache = new ExpiringCache<>(10, 1000, now::get);
+    cache.put("key", "value");
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+    assertNull(cache.get("key"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() {
+    ExpiringCache<String, String> cache = new ExpiringCache<>(2, 1000, now::get);
+    cache.put("a", "1");
+    cache.put("b", "2");
+    cache.get("a");
+    cache.put("c", "3");
+    assertEquals("1", cache.get("a"));
+    assertNull(cache.get("b"));
+    assertEquals("3", cache.get("c"));
+  }
+
+  @Test
+  public void testConfigureKeepsWhatStillFits() {
+    ExpiringCache<String, String> cache = new ExpiringCache<>(3, 1000, now::get);
+    cache.put("a", "1");
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(700));
+    cache.put("b", "2");
+    cache.put("c", "3");
+    cache.get("b");
+
+    // a has outlived the new time to live, and c is the least recently used of the rest
+    cache.configure(1, 600);
+
+    assertEquals(1, cache.size());
+    assertEquals("2", cache.get("b"));
+  }
+
+  @Test
+  public void testConfigureToZeroEmptiesTheCache() {
+    ExpiringCache<String, String> cache = new ExpiringCache<>(2, 1000, now::get);
+    cache.put("a", "1");
+
+    cache.configure(0, 1000);
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testDisabled() {
+    ExpiringCache<String, String> cache = new ExpiringCache<>(0, 1000, now::get);
+    cache.put("key", "value");
+    assertNull(cache.get("key"));
+  }
+}
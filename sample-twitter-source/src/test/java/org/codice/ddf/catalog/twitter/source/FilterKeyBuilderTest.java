@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+import ddf.catalog.data.Metacard;
+import ddf.catalog.filter.FilterBuilder;
+import ddf.catalog.filter.proxy.builder.GeotoolsFilterBuilder;
+import java.util.Date;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+public class FilterKeyBuilderTest {
+
+  private static final FilterBuilder FILTER_BUILDER = new GeotoolsFilterBuilder();
+
+  @Test
+  public void testEqualFiltersShareKey() {
+    assertNotNull(FilterKeyBuilder.keyOf(like("cats")));
+    assertEquals(
+        FilterKeyBuilder.keyOf(FILTER_BUILDER.allOf(like("cats"), title("x"))),
+        FilterKeyBuilder.keyOf(FILTER_BUILDER.allOf(like("cats"), title("x"))));
+  }
+
+  @Test
+  public void testLiteralsAreDistinct() {
+    assertDistinct(like("cats"), like("dogs"));
+    assertDistinct(
+        like("cats"),
+        FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().caseSensitiveText("cats"));
+    assertDistinct(
+        FILTER_BUILDER.attribute(Metacard.CREATED).is().after().date(new Date(1000)),
+        FILTER_BUILDER.attribute(Metacard.CREATED).is().after().date(new Date(2000)));
+  }
+
+  @Test
+  public void testOperatorsAndAttributesAreDistinct() {
+    assertDistinct(
+        like("cats"), FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().equalTo().text("cats"));
+    assertDistinct(
+        title("x"), FILTER_BUILDER.attribute(Metacard.POINT_OF_CONTACT).is().equalTo().text("x"));
+    assertDistinct(title("x"), FILTER_BUILDER.not(title("x")));
+    assertDistinct(
+        FILTER_BUILDER.allOf(like("cats"), title("x")),
+        FILTER_BUILDER.anyOf(like("cats"), title("x")));
+  }
+
+  @Test
+  public void testValuesCannotRunIntoEachOther() {
+    assertDistinct(
+        FILTER_BUILDER.allOf(like("ab"), like("c")), FILTER_BUILDER.allOf(like("a"), like("bc")));
+    assertDistinct(
+        FILTER_BUILDER.allOf(like("a;b"), like("c")),
+        FILTER_BUILDER.allOf(like("a"), like("b;c")));
+  }
+
+  @Test
+  public void testRelativePeriodsAreKeyedByDuration() throws Exception {
+    Filter first = FILTER_BUILDER.attribute(Metacard.CREATED).is().during().last(60000L);
+    Thread.sleep(5);
+    Filter second = FILTER_BUILDER.attribute(Metacard.CREATED).is().during().last(60000L);
+
+    assertEquals(FilterKeyBuilder.keyOf(first), FilterKeyBuilder.keyOf(second));
+    assertDistinct(first, FILTER_BUILDER.attribute(Metacard.CREATED).is().during().last(120000L));
+  }
+
+  private static void assertDistinct(Filter filter, Filter other) {
+    String key = FilterKeyBuilder.keyOf(filter);
+    assertNotNull(key);
+    assertNotEquals(key, FilterKeyBuilder.keyOf(other));
+  }
+
+  private static Filter like(String text) {
+    return FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().text(text);
+  }
+
+  private static Filter title(String title) {
+    return FILTER_BUILDER.attribute(Metacard.TITLE).is().equalTo().text(title);
+  }
+}
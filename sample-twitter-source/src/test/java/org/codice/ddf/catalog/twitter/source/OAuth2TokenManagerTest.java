@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import twitter4j.Query;
+import twitter4j.QueryResult;
+import twitter4j.TwitterFactory;
+import twitter4j.auth.OAuth2Token;
+import twitter4j.conf.ConfigurationBuilder;
+
+public class OAuth2TokenManagerTest {
+
+  private final Timer tokenFetches = new Timer();
+
+  private StubTwitterServer server;
+
+  private OAuth2TokenManager tokenManager;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new StubTwitterServer(StubTwitterServer.generateCorpus(100, 40.0, -111.0, 7));
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    if (tokenManager != null) {
+      tokenManager.stop();
+    }
+    server.stop();
+  }
+
+  @Test
+  public void testTokenIsFetchedOnce() throws Exception {
+    tokenManager = new OAuth2TokenManager(twitterFactory(), tokenFetches, 0);
+    assertFalse(tokenManager.hasToken());
+
+    OAuth2Token token = tokenManager.getToken();
+
+    assertSame(token, tokenManager.getToken());
+    assertTrue(tokenManager.hasToken());
+    assertEquals(1, server.getTokenRequests());
+    assertEquals(1, tokenFetches.getCount());
+  }
+
+  @Test
+  public void testRejectedTokenIsReplacedOnce() throws Exception {
+    tokenManager = new OAuth2TokenManager(twitterFactory(), tokenFetches, 0);
+    OAuth2Token rejected = tokenManager.getToken();
+    server.revokeToken();
+
+    OAuth2Token replacement = tokenManager.refresh(rejected);
+    // A caller that still holds the rejected token gets the replacement without another fetch
+    OAuth2Token later = tokenManager.refresh(rejected);
+
+    assertNotEquals(rejected, replacement);
+    assertEquals(replacement, later);
+    assertEquals(replacement, tokenManager.getToken());
+    assertEquals(2, server.getTokenRequests());
+  }
+
+  @Test
+  public void testTokenIsRefreshedInTheBackground() throws Exception {
+    tokenManager = new OAuth2TokenManager(twitterFactory(), tokenFetches, 20);
+    tokenManager.getToken();
+
+    tokenManager.start();
+
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (server.getTokenRequests() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertTrue(server.getTokenRequests() >= 3);
+  }
+
+  @Test
+  public void testSearchIsRetriedWithANewTokenAfterA401() throws Exception {
+    tokenManager = new OAuth2TokenManager(twitterFactory(), tokenFetches, 0);
+    TwitterClient client =
+        new TwitterClient(
+            tokenManager,
+            new RateLimitScheduler(0, 0, 0, new Meter()),
+            new TransportMetrics(new MetricRegistry(), "test"));
+    OAuth2Token rejected = tokenManager.getToken();
+    server.revokeToken();
+
+    QueryResult queryResult = client.search(new Query("cats"));
+
+    assertFalse(queryResult.getTweets().isEmpty());
+    assertNotEquals(rejected, tokenManager.getToken());
+    assertEquals(2, server.getTokenRequests());
+    // The rejected search and its retry
+    assertEquals(2, server.getSearchRequests());
+  }
+
+  private TwitterFactory twitterFactory() {
+    return new TwitterFactory(
+        new ConfigurationBuilder()
+            .setOAuthConsumerKey("key")
+            .setOAuthConsumerSecret("secret")
+            .setApplicationOnlyAuthEnabled(true)
+            .setRestBaseURL(server.getRestBaseUrl())
+            .setOAuth2TokenURL(server.getOAuth2TokenUrl())
+            .build());
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.codahale.metrics.Meter;
+import ddf.catalog.source.UnsupportedQueryException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import twitter4j.RateLimitStatus;
+
+public class RateLimitSchedulerTest {
+
+  private final Meter rejections = new Meter();
+
+  private final ExecutorService waiters = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    waiters.shutdownNow();
+  }
+
+  @Test
+  public void testUnknownQuotaIsAdmitted() throws Exception {
+    RateLimitScheduler scheduler = new RateLimitScheduler(2, 0, 0, rejections);
+
+    scheduler.acquire();
+
+    assertFalse(scheduler.isDegraded());
+    assertEquals(-1, scheduler.getRemaining());
+  }
+
+  @Test
+  public void testAdmitsDownToTheReserve() throws Exception {
+    RateLimitScheduler scheduler = new RateLimitScheduler(2, 1000, 1, rejections);
+    scheduler.update(status(5, 60));
+
+    scheduler.acquire();
+    scheduler.acquire();
+    assertFalse(scheduler.isDegraded());
+    scheduler.acquire();
+
+    assertEquals(2, scheduler.getRemaining());
+    assertTrue(scheduler.isDegraded());
+    assertEquals(0, rejections.getCount());
+  }
+
+  @Test
+  public void testRejectsWhenTheWindowResetsAfterTheDeadline() throws Exception {
+    RateLimitScheduler scheduler = new RateLimitScheduler(0, 1000, 1, rejections);
+    scheduler.update(status(0, 60));
+
+    assertRejected(scheduler);
+    assertEquals(0, scheduler.getQueueDepth());
+  }
+
+  @Test
+  public void testWaitsForTheQuotaToBeRestored() throws Exception {
+    RateLimitScheduler scheduler = new RateLimitScheduler(0, 10000, 1, rejections);
+    scheduler.update(status(0, 5));
+
+    Future<?> waiting = waiters.submit(() -> acquire(scheduler));
+    assertTrue(awaitQueueDepth(scheduler, 1));
+    assertFalse(waiting.isDone());
+
+    scheduler.update(status(100, 900));
+
+    waiting.get(5, TimeUnit.SECONDS);
+    assertEquals(0, scheduler.getQueueDepth());
+    assertEquals(99, scheduler.getRemaining());
+    assertEquals(0, rejections.getCount());
+  }
+
+  @Test
+  public void testRejectsWhenTheQueueIsFull() throws Exception {
+    RateLimitScheduler scheduler = new RateLimitScheduler(0, 10000, 1, rejections);
+    scheduler.update(status(0, 5));
+    Future<?> waiting = waiters.submit(() -> acquire(scheduler));
+    assertTrue(awaitQueueDepth(scheduler, 1));
+
+    assertRejected(scheduler);
+
+    scheduler.update(status(100, 900));
+    waiting.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testResetWindowIsNotDegraded() throws Exception {
+    RateLimitScheduler scheduler = new RateLimitScheduler(0, 0, 0, rejections);
+    scheduler.update(status(0, -1));
+
+    assertFalse(scheduler.isDegraded());
+    scheduler.acquire();
+    // The next response reports the new window's quota
+    assertEquals(-1, scheduler.getRemaining());
+  }
+
+  private void assertRejected(RateLimitScheduler scheduler) {
+    long rejected = rejections.getCount();
+    try {
+      scheduler.acquire();
+      fail("Expected the search to be rejected");
+    } catch (UnsupportedQueryException e) {
+      assertEquals(rejected + 1, rejections.getCount());
+    }
+  }
+
+  private static Void acquire(RateLimitScheduler scheduler) throws UnsupportedQueryException {
+    scheduler.acquire();
+    return null;
+  }
+
+  private static boolean awaitQueueDepth(RateLimitScheduler scheduler, int depth)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (scheduler.getQueueDepth() != depth) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  /** Returns a status with {@code remaining} searches left in a window resetting in seconds. */
+  static RateLimitStatus status(int remaining, int secondsUntilReset) {
+    int resetTime = (int) (System.currentTimeMillis() / 1000) + secondsUntilReset;
+    return new RateLimitStatus() {
+      @Override
+      public int getRemaining() {
+        return remaining;
+      }
+
+      @Override
+      public int getLimit() {
+        return 450;
+      }
+
+      @Override
+      public int getResetTimeInSeconds() {
+        return resetTime;
+      }
+
+      @Override
+      public int getSecondsUntilReset() {
+        return secondsUntilReset;
+      }
+    };
+  }
+}
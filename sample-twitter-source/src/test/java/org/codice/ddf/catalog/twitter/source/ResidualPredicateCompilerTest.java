@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.impl.MetacardImpl;
+import ddf.catalog.filter.FilterBuilder;
+import ddf.catalog.filter.proxy.builder.GeotoolsFilterBuilder;
+import java.util.Collections;
+import java.util.Date;
+import org.codice.ddf.catalog.twitter.source.ResidualPredicateCompiler.ResidualPredicate;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+public class ResidualPredicateCompilerTest {
+
+  private static final FilterBuilder FILTER_BUILDER = new GeotoolsFilterBuilder();
+
+  private static final Filter KEYWORD =
+      FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().text("foo");
+
+  private static final Filter TITLE =
+      FILTER_BUILDER.attribute(Metacard.TITLE).is().equalTo().text("bar");
+
+  private final ResidualPredicateCompiler compiler = new ResidualPredicateCompiler();
+
+  @Test
+  public void testComparison() {
+    ResidualPredicate predicate = compile(TITLE);
+
+    assertTrue(predicate.test(titled("bar")));
+    assertFalse(predicate.test(titled("baz")));
+  }
+
+  @Test
+  public void testKeywordsAreLeftToTwitter() {
+    assertNull(compile(KEYWORD));
+    assertEquals(compile(TITLE), compile(FILTER_BUILDER.allOf(KEYWORD, TITLE)));
+  }
+
+  @Test
+  public void testOrWithUnknownBranchMatchesEverything() {
+    assertNull(compile(FILTER_BUILDER.anyOf(KEYWORD, TITLE)));
+  }
+
+  @Test
+  public void testNotOfAndWithUnknownChildMatchesEverything() {
+    // NOT (foo AND bar) also matches tweets without foo that are titled bar
+    assertNull(compile(FILTER_BUILDER.not(FILTER_BUILDER.allOf(KEYWORD, TITLE))));
+  }
+
+  @Test
+  public void testNotOfOrKeepsKnownChildren() {
+    // NOT (foo OR bar) is NOT foo AND NOT bar, of which only NOT bar can be checked
+    ResidualPredicate predicate = compile(FILTER_BUILDER.not(FILTER_BUILDER.anyOf(KEYWORD, TITLE)));
+
+    assertFalse(predicate.test(titled("bar")));
+    assertTrue(predicate.test(titled("baz")));
+  }
+
+  @Test
+  public void testDoubleNegation() {
+    ResidualPredicate predicate =
+        compile(FILTER_BUILDER.not(FILTER_BUILDER.not(FILTER_BUILDER.allOf(KEYWORD, TITLE))));
+
+    assertTrue(predicate.test(titled("bar")));
+    assertFalse(predicate.test(titled("baz")));
+  }
+
+  @Test
+  public void testAttributesTweetsLackAreNotChecked() {
+    Filter anyText = FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().equalTo().text("foo");
+    Filter tags = FILTER_BUILDER.attribute(Metacard.TAGS).is().equalTo().text("resource");
+
+    assertNull(compile(anyText));
+    assertNull(compile(FILTER_BUILDER.not(tags)));
+    assertNull(compile(FILTER_BUILDER.attribute(Metacard.TAGS).is().empty()));
+    assertEquals(compile(TITLE), compile(FILTER_BUILDER.allOf(anyText, tags, TITLE)));
+  }
+
+  @Test
+  public void testTemporal() {
+    ResidualPredicate predicate =
+        compile(FILTER_BUILDER.attribute(Metacard.CREATED).is().after().date(new Date(1000)));
+
+    assertTrue(predicate.test(created(2000)));
+    assertFalse(predicate.test(created(500)));
+    assertFalse(predicate.test(new MetacardImpl()));
+  }
+
+  @Test
+  public void testSameCriteriaCompileToEqualPredicates() {
+    Filter filter = FILTER_BUILDER.not(FILTER_BUILDER.anyOf(KEYWORD, TITLE));
+
+    assertEquals(compile(filter), compile(filter));
+    assertEquals(compile(filter).hashCode(), compile(filter).hashCode());
+  }
+
+  private ResidualPredicate compile(Filter filter) {
+    return compiler.compile(Collections.singletonList(filter));
+  }
+
+  private static Metacard titled(String title) {
+    MetacardImpl metacard = new MetacardImpl();
+    metacard.setTitle(title);
+    return metacard;
+  }
+
+  private static Metacard created(long millis) {
+    MetacardImpl metacard = new MetacardImpl();
+    metacard.setCreatedDate(new Date(millis));
+    return metacard;
+  }
+}
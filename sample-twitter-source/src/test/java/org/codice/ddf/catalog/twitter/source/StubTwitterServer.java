@@ -0,0 +1,604 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for the parts of the Twitter API the source and the stream ingester use: the
+ * OAuth2 token endpoint, search, the search rate limit status and the filter stream. It serves a
+ * synthetic corpus of tweets with a configurable response latency and rate limit, so both can be
+ * tested and load tested without credentials or a network.
+ *
+ * <p>Search understands keywords, quoted phrases, {@code -} negation and {@code OR} between terms,
+ * the geocode circle, {@code since_id}, {@code max_id} and {@code count}. Parentheses are ignored
+ * and so are the since and until dates, as every tweet in the corpus is recent.
+ */
+public class StubTwitterServer {
+
+  private static final int DEFAULT_COUNT = 15;
+
+  private static final int MAX_COUNT = 100;
+
+  private static final double EARTH_RADIUS_KM = 6371.0088;
+
+  private static final Pattern TERM = Pattern.compile("(-?)(\"[^\"]*\"|\\S+)");
+
+  private static final String[] WORDS = {
+    "cats",
+    "dogs",
+    "fish",
+    "birds",
+    "coffee",
+    "rain",
+    "traffic",
+    "music",
+    "game",
+    "news",
+    "storm",
+    "lunch",
+    "city",
+    "river",
+    "train",
+    "market",
+    "school",
+    "garden",
+    "bridge",
+    "festival"
+  };
+
+  // Newest first, as Twitter returns them; tweets may be added while searches are served
+  private final List<Tweet> corpus;
+
+  private final HttpServer server;
+
+  private final ExecutorService executor;
+
+  private volatile long latencyMillis;
+
+  private volatile int rateLimit = 450;
+
+  private volatile long rateLimitWindowMillis = TimeUnit.MINUTES.toMillis(15);
+
+  private int remaining = rateLimit;
+
+  private long windowReset;
+
+  private final AtomicInteger searchRequests = new AtomicInteger();
+
+  private volatile long lastSinceId;
+
+  private final AtomicInteger tokenRequests = new AtomicInteger();
+
+  // Tokens are numbered, so that revoking one makes the token endpoint hand out the next
+  private final AtomicInteger tokenGeneration = new AtomicInteger(1);
+
+  private final AtomicInteger rateLimitedRequests = new AtomicInteger();
+
+  private final AtomicInteger streamConnections = new AtomicInteger();
+
+  /** Serves {@code corpus}, which must be ordered newest first, on an ephemeral local port. */
+  public StubTwitterServer(List<Tweet> corpus) throws IOException {
+    this.corpus = new CopyOnWriteArrayList<>(corpus);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/oauth2/token", this::token);
+    server.createContext("/1.1/search/tweets.json", this::search);
+    server.createContext("/1.1/application/rate_limit_status.json", this::rateLimitStatus);
+    server.createContext("/1.1/statuses/filter.json", this::filterStream);
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+  }
+
+  /**
+   * Generates {@code size} tweets of a few words each from a small vocabulary, about half of them
+   * located within a degree of {@code latitude, longitude}. The same seed gives the same corpus.
+   */
+  public static List<Tweet> generateCorpus(int size, double latitude, double longitude, long seed) {
+    Random random = new Random(seed);
+    long now = System.currentTimeMillis();
+    List<Tweet> tweets = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      long id = 1_000_000_000L + size - i;
+      StringBuilder text = new StringBuilder();
+      int words = 3 + random.nextInt(6);
+      for (int w = 0; w < words; w++) {
+        text.append(w == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      Double lat = null;
+      Double lon = null;
+      if (random.nextBoolean()) {
+        lat = latitude + random.nextDouble() * 2 - 1;
+        lon = longitude + random.nextDouble() * 2 - 1;
+      }
+      tweets.add(new Tweet(id, text.toString(), new Date(now - i * 1000L), lat, lon));
+    }
+    return tweets;
+  }
+
+  public void start() {
+    windowReset = System.currentTimeMillis() + rateLimitWindowMillis;
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /** Returns the base URL to configure as the ingester's stream base URL. */
+  public String getStreamBaseUrl() {
+    return getRestBaseUrl();
+  }
+
+  /** Returns the base URL to configure as the source's REST base URL. */
+  public String getRestBaseUrl() {
+    return "http://" + address() + "/1.1/";
+  }
+
+  /** Returns the URL to configure as the source's OAuth2 token URL. */
+  public String getOAuth2TokenUrl() {
+    return "http://" + address() + "/oauth2/token";
+  }
+
+  /** Delays every response by {@code latencyMillis}, to stand in for the round trip to Twitter. */
+  public void setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  /**
+   * Allows {@code rateLimit} searches per window of {@code windowMillis}; more are answered 429.
+   */
+  public synchronized void setRateLimit(int rateLimit, long windowMillis) {
+    this.rateLimit = rateLimit;
+    this.rateLimitWindowMillis = windowMillis;
+    this.remaining = rateLimit;
+    this.windowReset = System.currentTimeMillis() + windowMillis;
+  }
+
+  /** Adds {@code tweets}, which must be ordered newest first and be newer than the corpus. */
+  public void addTweets(List<Tweet> tweets) {
+    corpus.addAll(0, tweets);
+  }
+
+  /**
+   * Rejects the bearer token handed out so far with a 401, as Twitter does once a token is
+   * invalidated. The token endpoint hands out a new token from then on.
+   */
+  public void revokeToken() {
+    tokenGeneration.incrementAndGet();
+  }
+
+  public int getSearchRequests() {
+    return searchRequests.get();
+  }
+
+  /** Returns the since_id of the last admitted search, or 0 if it had none. */
+  public long getLastSinceId() {
+    return lastSinceId;
+  }
+
+  public int getTokenRequests() {
+    return tokenRequests.get();
+  }
+
+  public int getRateLimitedRequests() {
+    return rateLimitedRequests.get();
+  }
+
+  public int getStreamConnections() {
+    return streamConnections.get();
+  }
+
+  /** Returns the number of tweets in the corpus the stream sends for {@code track}. */
+  public int countTracked(String track) {
+    List<List<String>> disjuncts = tracked(track);
+    return (int) corpus.stream().filter(tweet -> matches(tweet, disjuncts, null)).count();
+  }
+
+  private String address() {
+    InetSocketAddress address = server.getAddress();
+    return address.getAddress().getHostAddress() + ":" + address.getPort();
+  }
+
+  private void token(HttpExchange exchange) throws IOException {
+    tokenRequests.incrementAndGet();
+    delay();
+    respond(
+        exchange,
+        200,
+        "{\"token_type\":\"bearer\",\"access_token\":\"" + accessToken() + "\"}",
+        Collections.emptyMap());
+  }
+
+  private void search(HttpExchange exchange) throws IOException {
+    searchRequests.incrementAndGet();
+    delay();
+    if (!authorized(exchange)) {
+      return;
+    }
+    Map<String, String> rateLimitHeaders = new HashMap<>();
+    boolean admitted;
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      if (now >= windowReset) {
+        remaining = rateLimit;
+        windowReset = now + rateLimitWindowMillis;
+      }
+      admitted = remaining > 0;
+      if (admitted) {
+        remaining--;
+      }
+      rateLimitHeaders.put("x-rate-limit-limit", String.valueOf(rateLimit));
+      rateLimitHeaders.put("x-rate-limit-remaining", String.valueOf(remaining));
+      rateLimitHeaders.put("x-rate-limit-reset", String.valueOf(windowReset / 1000));
+    }
+    if (!admitted) {
+      rateLimitedRequests.incrementAndGet();
+      respond(
+          exchange,
+          429,
+          "{\"errors\":[{\"code\":88,\"message\":\"Rate limit exceeded\"}]}",
+          rateLimitHeaders);
+      return;
+    }
+
+    Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+    String q = parameters.getOrDefault("q", "");
+    List<List<String>> disjuncts = parse(q);
+    double[] geocode = geocode(parameters.get("geocode"));
+    long sinceId = Long.parseLong(parameters.getOrDefault("since_id", "0"));
+    lastSinceId = sinceId;
+    long maxId = Long.parseLong(parameters.getOrDefault("max_id", String.valueOf(Long.MAX_VALUE)));
+    int count =
+        Math.min(
+            MAX_COUNT,
+            Integer.parseInt(parameters.getOrDefault("count", String.valueOf(DEFAULT_COUNT))));
+
+    List<Tweet> page = new ArrayList<>(count);
+    boolean more = false;
+    for (Tweet tweet : corpus) {
+      if (tweet.id > maxId || !matches(tweet, disjuncts, geocode)) {
+        continue;
+      }
+      if (tweet.id <= sinceId) {
+        break;
+      }
+      if (page.size() == count) {
+        more = true;
+        break;
+      }
+      page.add(tweet);
+    }
+    respond(exchange, 200, searchResponse(page, q, sinceId, count, more), rateLimitHeaders);
+  }
+
+  /**
+   * Streams the tweets matching the {@code track} parameter, oldest first, one JSON object per
+   * line, then ends the stream. Clients reconnect and are sent the same tweets again, as Twitter
+   * may do, so the stream also exercises deduplication. Location boxes are not applied.
+   */
+  private void filterStream(HttpExchange exchange) throws IOException {
+    streamConnections.incrementAndGet();
+    delay();
+    byte[] body = readAll(exchange);
+    Map<String, String> parameters = parameters(new String(body, StandardCharsets.UTF_8));
+    List<List<String>> disjuncts = tracked(parameters.getOrDefault("track", ""));
+
+    exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+    exchange.sendResponseHeaders(200, 0);
+    try (OutputStream out = exchange.getResponseBody()) {
+      for (int i = corpus.size() - 1; i >= 0; i--) {
+        Tweet tweet = corpus.get(i);
+        if (matches(tweet, disjuncts, null)) {
+          StringBuilder json = new StringBuilder();
+          appendStatus(json, tweet);
+          out.write(json.append("\r\n").toString().getBytes(StandardCharsets.UTF_8));
+        }
+      }
+      out.flush();
+    }
+  }
+
+  /** Parses a comma separated track list, where the words of each phrase must all appear. */
+  private static List<List<String>> tracked(String track) {
+    List<List<String>> disjuncts = new ArrayList<>();
+    for (String phrase : track.split(",")) {
+      if (!phrase.trim().isEmpty()) {
+        disjuncts.add(Arrays.asList(phrase.trim().toLowerCase().split("\\s+")));
+      }
+    }
+    return disjuncts;
+  }
+
+  private static byte[] readAll(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+      return bytes.toByteArray();
+    }
+  }
+
+  private void rateLimitStatus(HttpExchange exchange) throws IOException {
+    delay();
+    if (!authorized(exchange)) {
+      return;
+    }
+    String body;
+    synchronized (this) {
+      body =
+          "{\"rate_limit_context\":{\"application\":\"stand-in\"},\"resources\":{\"search\":"
+              + "{\"/search/tweets\":{\"limit\":"
+              + rateLimit
+              + ",\"remaining\":"
+              + remaining
+              + ",\"reset\":"
+              + windowReset / 1000
+              + "}}}}";
+    }
+    respond(exchange, 200, body, Collections.emptyMap());
+  }
+
+  private boolean authorized(HttpExchange exchange) throws IOException {
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if (authorization != null && authorization.endsWith(" " + accessToken())) {
+      return true;
+    }
+    respond(
+        exchange,
+        401,
+        "{\"errors\":[{\"code\":89,\"message\":\"Invalid or expired token.\"}]}",
+        Collections.emptyMap());
+    return false;
+  }
+
+  private String accessToken() {
+    return "stand-in-token-" + tokenGeneration.get();
+  }
+
+  private String searchResponse(List<Tweet> page, String q, long sinceId, int count, boolean more)
+      throws UnsupportedEncodingException {
+    StringBuilder json = new StringBuilder("{\"statuses\":[");
+    for (int i = 0; i < page.size(); i++) {
+      json.append(i == 0 ? "" : ",");
+      appendStatus(json, page.get(i));
+    }
+    long maxId = page.isEmpty() ? 0 : page.get(0).id;
+    String encoded = URLEncoder.encode(q, "UTF-8");
+    json.append("],\"search_metadata\":{\"completed_in\":0.01,\"max_id\":")
+        .append(maxId)
+        .append(",\"max_id_str\":\"")
+        .append(maxId)
+        .append("\",\"query\":")
+        .append(quote(encoded))
+        .append(",\"refresh_url\":\"?since_id=")
+        .append(maxId)
+        .append("&q=")
+        .append(encoded)
+        .append("\",\"count\":")
+        .append(count)
+        .append(",\"since_id\":")
+        .append(sinceId)
+        .append(",\"since_id_str\":\"")
+        .append(sinceId)
+        .append('"');
+    if (more) {
+      json.append(",\"next_results\":\"?max_id=")
+          .append(page.get(page.size() - 1).id - 1)
+          .append("&q=")
+          .append(encoded)
+          .append("&count=")
+          .append(count)
+          .append('"');
+    }
+    return json.append("}}").toString();
+  }
+
+  private static void appendStatus(StringBuilder json, Tweet tweet) {
+    SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    json.append("{\"id\":")
+        .append(tweet.id)
+        .append(",\"id_str\":\"")
+        .append(tweet.id)
+        .append("\",\"text\":")
+        .append(quote(tweet.text))
+        .append(",\"created_at\":\"")
+        .append(format.format(tweet.createdAt))
+        .append("\",\"user\":{\"id\":")
+        .append(tweet.id % 1000)
+        .append(",\"name\":\"User ")
+        .append(tweet.id % 1000)
+        .append("\",\"screen_name\":\"user")
+        .append(tweet.id % 1000)
+        .append("\"}");
+    if (tweet.latitude != null) {
+      json.append(",\"coordinates\":{\"type\":\"Point\",\"coordinates\":[")
+          .append(tweet.longitude)
+          .append(',')
+          .append(tweet.latitude)
+          .append("]}");
+    }
+    json.append('}');
+  }
+
+  /** Parses a search phrase into a disjunction of conjunctions of terms. */
+  private static List<List<String>> parse(String q) {
+    List<List<String>> disjuncts = new ArrayList<>();
+    List<String> conjunction = new ArrayList<>();
+    Matcher matcher = TERM.matcher(q.replace('(', ' ').replace(')', ' '));
+    while (matcher.find()) {
+      if (matcher.group().equals("OR")) {
+        disjuncts.add(conjunction);
+        conjunction = new ArrayList<>();
+      } else {
+        conjunction.add(matcher.group(1) + matcher.group(2).replace("\"", "").toLowerCase());
+      }
+    }
+    disjuncts.add(conjunction);
+    return disjuncts;
+  }
+
+  private static boolean matches(Tweet tweet, List<List<String>> disjuncts, double[] geocode) {
+    if (geocode != null
+        && (tweet.latitude == null
+            || distanceKm(geocode[0], geocode[1], tweet.latitude, tweet.longitude) > geocode[2])) {
+      return false;
+    }
+    String text = " " + tweet.text.toLowerCase() + " ";
+    for (List<String> conjunction : disjuncts) {
+      boolean all = true;
+      for (String term : conjunction) {
+        boolean negated = term.startsWith("-");
+        boolean contains = text.contains(" " + (negated ? term.substring(1) : term) + " ");
+        if (contains == negated) {
+          all = false;
+          break;
+        }
+      }
+      if (all) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static double[] geocode(String geocode) {
+    if (geocode == null) {
+      return null;
+    }
+    String[] parts = geocode.split(",");
+    double radius = Double.parseDouble(parts[2].replaceAll("[a-z]", ""));
+    if (parts[2].endsWith("mi")) {
+      radius *= 1.609344;
+    }
+    return new double[] {Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), radius};
+  }
+
+  private static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+    double deltaLat = Math.toRadians(lat2 - lat1);
+    double deltaLon = Math.toRadians(lon2 - lon1);
+    double a =
+        Math.pow(Math.sin(deltaLat / 2), 2)
+            + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2))
+                * Math.pow(Math.sin(deltaLon / 2), 2);
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  private static Map<String, String> parameters(String rawQuery) throws IOException {
+    Map<String, String> parameters = new HashMap<>();
+    if (rawQuery == null) {
+      return parameters;
+    }
+    for (String pair : rawQuery.split("&")) {
+      String[] keyValue = pair.split("=", 2);
+      parameters.put(
+          URLDecoder.decode(keyValue[0], "UTF-8"),
+          keyValue.length > 1 ? URLDecoder.decode(keyValue[1], "UTF-8") : "");
+    }
+    return parameters;
+  }
+
+  private static String quote(String text) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (char c : text.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  private void delay() {
+    long millis = latencyMillis;
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void respond(
+      HttpExchange exchange, int status, String body, Map<String, String> headers)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+    headers.forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /** A synthetic tweet, with or without a location. */
+  public static class Tweet {
+    private final long id;
+
+    private final String text;
+
+    private final Date createdAt;
+
+    private final Double latitude;
+
+    private final Double longitude;
+
+    public Tweet(long id, String text, Date createdAt, Double latitude, Double longitude) {
+      this.id = id;
+      this.text = text;
+      this.createdAt = createdAt;
+      this.latitude = latitude;
+      this.longitude = longitude;
+    }
+  }
+}
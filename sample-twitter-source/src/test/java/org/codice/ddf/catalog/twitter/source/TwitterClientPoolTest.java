@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.codice.ddf.catalog.twitter.source.RateLimitSchedulerTest.status;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.Meter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class TwitterClientPoolTest {
+
+  private final List<TwitterClient> clients = Arrays.asList(client(), client(), client());
+
+  private final TwitterClientPool pool = new TwitterClientPool(clients);
+
+  @Test
+  public void testClientsAreTakenInTurn() {
+    assertSame(clients.get(0), pool.next());
+    assertSame(clients.get(1), pool.next());
+    assertSame(clients.get(2), pool.next());
+    assertSame(clients.get(0), pool.next());
+  }
+
+  @Test
+  public void testExhaustedClientsAreSkipped() {
+    clients.get(1).getRateLimitScheduler().update(status(0, 60));
+
+    assertSame(clients.get(0), pool.next());
+    assertSame(clients.get(2), pool.next());
+    assertSame(clients.get(2), pool.next());
+    assertFalse(pool.isDegraded());
+  }
+
+  @Test
+  public void testDegradedOnlyWhenEveryClientIsExhausted() {
+    clients.get(0).getRateLimitScheduler().update(status(0, 60));
+    clients.get(1).getRateLimitScheduler().update(status(0, 60));
+    assertFalse(pool.isDegraded());
+
+    clients.get(2).getRateLimitScheduler().update(status(0, 60));
+
+    assertTrue(pool.isDegraded());
+    // The scheduler of the client in turn decides whether the search waits
+    assertSame(clients.get(0), pool.next());
+    assertSame(clients.get(1), pool.next());
+  }
+
+  @Test
+  public void testRemainingCountsOnlyReportedQuotas() {
+    clients.get(0).getRateLimitScheduler().update(status(10, 60));
+    clients.get(2).getRateLimitScheduler().update(status(5, 60));
+
+    assertEquals(15, pool.getRemaining());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAtLeastOneClientIsRequired() {
+    new TwitterClientPool(Collections.emptyList());
+  }
+
+  // Only the schedulers are used to pick a client, so the clients never contact Twitter
+  private static TwitterClient client() {
+    return new TwitterClient(null, new RateLimitScheduler(0, 0, 0, new Meter()), null);
+  }
+}
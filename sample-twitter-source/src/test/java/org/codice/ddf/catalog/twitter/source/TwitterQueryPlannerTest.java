@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.codahale.metrics.Meter;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.filter.FilterBuilder;
+import ddf.catalog.filter.proxy.builder.GeotoolsFilterBuilder;
+import ddf.catalog.operation.impl.QueryImpl;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import twitter4j.Query;
+
+public class TwitterQueryPlannerTest {
+
+  private static final FilterBuilder FILTER_BUILDER = new GeotoolsFilterBuilder();
+
+  private final Meter planCacheHits = new Meter();
+
+  private final TwitterQueryPlanner planner =
+      new TwitterQueryPlanner(8, 10, planCacheHits, new Meter());
+
+  @Test
+  public void testDateRangeIsInclusiveUtcDays() {
+    Query query =
+        planOne(
+            during(
+                Date.from(Instant.parse("2016-01-05T23:30:00Z")),
+                Date.from(Instant.parse("2016-01-31T12:00:00Z"))));
+
+    assertEquals("2016-01-05", query.getSince());
+    // Twitter's until excludes its day
+    assertEquals("2016-02-01", query.getUntil());
+  }
+
+  @Test
+  public void testCachedPlanKeepsDateRange() {
+    Filter filter =
+        during(
+            Date.from(Instant.parse("2016-12-31T00:00:00Z")),
+            Date.from(Instant.parse("2016-12-31T23:59:59Z")));
+    planOne(filter);
+
+    Query query = planOne(filter);
+
+    assertEquals(1, planCacheHits.getCount());
+    assertEquals("2016-12-31", query.getSince());
+    assertEquals("2017-01-01", query.getUntil());
+  }
+
+  @Test
+  public void testNegatedConjunctionIsNotSearchedFor() {
+    // NOT (cats AND during) matches tweets without cats or outside the range, so Twitter must be
+    // asked for everything and the negation left to the results
+    Filter filter =
+        FILTER_BUILDER.not(
+            during(
+                Date.from(Instant.parse("2016-01-05T00:00:00Z")),
+                Date.from(Instant.parse("2016-01-06T00:00:00Z"))));
+
+    List<TwitterSearch> searches = planner.plan(new QueryImpl(filter), 10);
+
+    assertEquals(1, searches.size());
+    assertNull(searches.get(0).getQuery().getQuery());
+    assertNull(searches.get(0).getQuery().getSince());
+    assertFalse(searches.get(0).hasResidual());
+  }
+
+  @Test
+  public void testKeywordUnderNegatedDisjunctionIsNotSearchedFor() {
+    Filter filter =
+        FILTER_BUILDER.not(
+            FILTER_BUILDER.anyOf(
+                FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().text("cats"),
+                FILTER_BUILDER.attribute(Metacard.TITLE).is().equalTo().text("dogs")));
+
+    Query query = planOne(filter);
+
+    assertNull(query.getQuery());
+  }
+
+  private Query planOne(Filter filter) {
+    List<TwitterSearch> searches = planner.plan(new QueryImpl(filter), 10);
+    assertEquals(1, searches.size());
+    return searches.get(0).getQuery();
+  }
+
+  private static Filter during(Date start, Date end) {
+    return FILTER_BUILDER.allOf(
+        FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().text("cats"),
+        FILTER_BUILDER.attribute(Metacard.CREATED).is().during().dates(start, end));
+  }
+}
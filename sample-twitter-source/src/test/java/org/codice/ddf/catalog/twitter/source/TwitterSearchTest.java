@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+import java.lang.reflect.Proxy;
+import org.junit.Test;
+import twitter4j.GeoLocation;
+import twitter4j.Place;
+import twitter4j.Query;
+import twitter4j.Status;
+
+public class TwitterSearchTest {
+
+  // A right triangle, whose enclosing circle also covers (9, 9)
+  private static final String TRIANGLE = "POLYGON ((0 0, 10 0, 0 10, 0 0))";
+
+  @Test
+  public void testPointInsidePolygonMatches() throws Exception {
+    TwitterSearch search = new TwitterSearch(new Query(), wkt(TRIANGLE));
+
+    assertTrue(search.matches(status(new GeoLocation(1, 1), null)));
+  }
+
+  @Test
+  public void testPointInCircleButOutsidePolygonIsDropped() throws Exception {
+    TwitterSearch search = new TwitterSearch(new Query(), wkt(TRIANGLE));
+
+    assertFalse(search.matches(status(new GeoLocation(9, 9), null)));
+  }
+
+  @Test
+  public void testPlaceBoundingBoxIsUsedWithoutCoordinates() throws Exception {
+    TwitterSearch search = new TwitterSearch(new Query(), wkt(TRIANGLE));
+
+    assertTrue(search.matches(status(null, place(4, 4, 6, 6))));
+    assertFalse(search.matches(status(null, place(8, 8, 9, 9))));
+  }
+
+  @Test
+  public void testTweetWithoutLocationIsDroppedFromAreaSearch() throws Exception {
+    assertFalse(new TwitterSearch(new Query(), wkt(TRIANGLE)).matches(status(null, null)));
+    assertTrue(new TwitterSearch(new Query(), null).matches(status(null, null)));
+  }
+
+  @Test
+  public void testEqualityIncludesArea() throws Exception {
+    Query query = new Query("cats");
+
+    assertEquals(new TwitterSearch(query, wkt(TRIANGLE)), new TwitterSearch(query, wkt(TRIANGLE)));
+    assertNotEquals(
+        new TwitterSearch(query, wkt(TRIANGLE)),
+        new TwitterSearch(query, wkt("POLYGON ((0 0, 5 0, 0 5, 0 0))")));
+    assertNotEquals(new TwitterSearch(query, wkt(TRIANGLE)), new TwitterSearch(query, null));
+  }
+
+  private static Geometry wkt(String wkt) throws Exception {
+    return new WKTReader().read(wkt);
+  }
+
+  private static Status status(GeoLocation geoLocation, Place place) {
+    return (Status)
+        Proxy.newProxyInstance(
+            Status.class.getClassLoader(),
+            new Class<?>[] {Status.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "getGeoLocation":
+                  return geoLocation;
+                case "getPlace":
+                  return place;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  /** A place whose bounding box spans the given longitudes and latitudes. */
+  private static Place place(double minLon, double minLat, double maxLon, double maxLat) {
+    GeoLocation[][] box = {
+      {
+        new GeoLocation(minLat, minLon),
+        new GeoLocation(minLat, maxLon),
+        new GeoLocation(maxLat, maxLon),
+        new GeoLocation(maxLat, minLon)
+      }
+    };
+    return (Place)
+        Proxy.newProxyInstance(
+            Place.class.getClassLoader(),
+            new Class<?>[] {Place.class},
+            (proxy, method, args) -> {
+              if (method.getName().equals("getBoundingBoxCoordinates")) {
+                return box;
+              }
+              throw new UnsupportedOperationException(method.getName());
+            });
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import ddf.catalog.operation.QueryRequest;
+import ddf.catalog.operation.SourceResponse;
+import ddf.catalog.source.Source;
+import ddf.catalog.source.UnsupportedQueryException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs queries against a source from several threads at once and reports the throughput and the
+ * latency percentiles. Paired with {@link StubTwitterServer} it measures the source offline, so a
+ * change to the source can be compared against the numbers from before it.
+ */
+public class TwitterSourceLoadDriver {
+
+  private final Source source;
+
+  private final List<QueryRequest> requests;
+
+  private final int threads;
+
+  /**
+   * @param source the source to query
+   * @param requests the queries to run; each thread cycles through them from a different start
+   * @param threads the number of threads querying at once
+   */
+  public TwitterSourceLoadDriver(Source source, List<QueryRequest> requests, int threads) {
+    this.source = source;
+    this.requests = new ArrayList<>(requests);
+    this.threads = threads;
+  }
+
+  /** Runs {@code queriesPerThread} queries on each thread and reports on all of them. */
+  public Report run(int queriesPerThread) throws InterruptedException {
+    long[] latencies = new long[threads * queriesPerThread];
+    AtomicInteger errors = new AtomicInteger();
+    AtomicLong results = new AtomicLong();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>(threads);
+    for (int t = 0; t < threads; t++) {
+      int thread = t;
+      Thread worker =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  return;
+                }
+                for (int i = 0; i < queriesPerThread; i++) {
+                  QueryRequest request = requests.get((thread + i * threads) % requests.size());
+                  long begin = System.nanoTime();
+                  try {
+                    SourceResponse response = source.query(request);
+                    results.addAndGet(response.getResults().size());
+                  } catch (UnsupportedQueryException | RuntimeException e) {
+                    errors.incrementAndGet();
+                  }
+                  // Each thread writes its own slots, and join() publishes them
+                  latencies[thread * queriesPerThread + i] = System.nanoTime() - begin;
+                }
+              },
+              "twitter-load-" + t);
+      workers.add(worker);
+      worker.start();
+    }
+
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    long elapsed = System.nanoTime() - begin;
+    Arrays.sort(latencies);
+    return new Report(latencies, errors.get(), results.get(), elapsed);
+  }
+
+  /** The outcome of a run. Latencies cover failed queries as well as successful ones. */
+  public static class Report {
+    private final long[] sortedLatencies;
+
+    private final int errors;
+
+    private final long results;
+
+    private final long elapsedNanos;
+
+    private Report(long[] sortedLatencies, int errors, long results, long elapsedNanos) {
+      this.sortedLatencies = sortedLatencies;
+      this.errors = errors;
+      this.results = results;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getQueries() {
+      return sortedLatencies.length;
+    }
+
+    public int getErrors() {
+      return errors;
+    }
+
+    public long getResults() {
+      return results;
+    }
+
+    /** Returns the queries completed per second. */
+    public double getThroughput() {
+      return sortedLatencies.length / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /** Returns the latency in milliseconds that {@code percentile} percent of queries met. */
+    public double getLatencyMillis(double percentile) {
+      if (sortedLatencies.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+      long nanos = sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))];
+      return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d queries (%d failed, %d results) at %.1f queries/s; latency p50 %.1f ms, p95 %.1f ms,"
+              + " p99 %.1f ms, max %.1f ms",
+          getQueries(),
+          errors,
+          results,
+          getThroughput(),
+          getLatencyMillis(50),
+          getLatencyMillis(95),
+          getLatencyMillis(99),
+          getLatencyMillis(100));
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ddf.catalog.data.Metacard;
+import ddf.catalog.data.Result;
+import ddf.catalog.filter.FilterBuilder;
+import ddf.catalog.filter.proxy.builder.GeotoolsFilterBuilder;
+import ddf.catalog.operation.QueryRequest;
+import ddf.catalog.operation.SourceResponse;
+import ddf.catalog.operation.impl.QueryImpl;
+import ddf.catalog.operation.impl.QueryRequestImpl;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Runs the source against {@link StubTwitterServer}, so no credentials or network are needed. */
+public class TwitterSourceTest {
+
+  private static final FilterBuilder FILTER_BUILDER = new GeotoolsFilterBuilder();
+
+  private static final long TIMEOUT_MILLIS = 10000;
+
+  private static final AtomicInteger SOURCE_COUNT = new AtomicInteger();
+
+  @ClassRule public static TemporaryFolder ddfHome = new TemporaryFolder();
+
+  private static StubTwitterServer server;
+
+  private static String previousDdfHome;
+
+  private TwitterSource source;
+
+  @BeforeClass
+  public static void setUpServer() throws Exception {
+    // The RRD collectors the source starts write their files under ddf.home
+    previousDdfHome = System.setProperty("ddf.home", ddfHome.getRoot().getAbsolutePath());
+    server = new StubTwitterServer(StubTwitterServer.generateCorpus(2000, 40.0, -111.0, 42));
+    server.start();
+  }
+
+  @AfterClass
+  public static void tearDownServer() {
+    server.stop();
+    if (previousDdfHome == null) {
+      System.clearProperty("ddf.home");
+    } else {
+      System.setProperty("ddf.home", previousDdfHome);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    source = new TwitterSource();
+    // Each source registers its metrics under its id
+    source.setId("twitter-test-" + SOURCE_COUNT.incrementAndGet());
+    source.setConsumerKey("key");
+    source.setConsumerSecret("secret");
+    source.setRestBaseUrl(server.getRestBaseUrl());
+    source.setOauth2TokenUrl(server.getOAuth2TokenUrl());
+    source.init();
+  }
+
+  @After
+  public void tearDown() {
+    source.destroy();
+  }
+
+  @Test
+  public void testKeywordQuery() throws Exception {
+    SourceResponse response = source.query(keywordQuery("cats", 1, 10));
+
+    assertEquals(10, response.getResults().size());
+    for (Result result : response.getResults()) {
+      assertTrue(result.getMetacard().getTitle().contains("cats"));
+    }
+  }
+
+  @Test
+  public void testQueryWithoutPageSizeGetsTheDefault() throws Exception {
+    SourceResponse response = source.query(keywordQuery("cats", 1, 0));
+
+    assertEquals(15, response.getResults().size());
+  }
+
+  @Test
+  public void testSecondPageFollowsFirst() throws Exception {
+    List<Long> first = ids(source.query(keywordQuery("coffee", 1, 10)));
+    List<Long> second = ids(source.query(keywordQuery("coffee", 11, 10)));
+
+    assertEquals(10, second.size());
+    long oldestOfFirst = first.get(first.size() - 1);
+    for (long id : second) {
+      assertTrue(id < oldestOfFirst);
+    }
+  }
+
+  @Test
+  public void testTimedOutQueryReturnsWhatItHasWithAWarning() throws Exception {
+    // Fetch the token first, so that only the search is slow
+    source.query(keywordQuery("lunch", 1, 10));
+    server.setLatencyMillis(2000);
+    SourceResponse response;
+    long elapsedMillis;
+    try {
+      long start = System.currentTimeMillis();
+      response = source.query(keywordQuery("bridge", 1, 10, 200));
+      elapsedMillis = System.currentTimeMillis() - start;
+    } finally {
+      server.setLatencyMillis(0);
+    }
+
+    assertTrue(elapsedMillis < 2000);
+    assertTrue(response.getResults().size() < 10);
+    assertEquals(1, response.getProcessingDetails().size());
+    assertTrue(
+        response
+            .getProcessingDetails()
+            .iterator()
+            .next()
+            .getWarnings()
+            .get(0)
+            .contains("200 ms"));
+
+    // The partial page was not cached
+    int searches = server.getSearchRequests();
+    response = source.query(keywordQuery("bridge", 1, 10));
+    assertEquals(10, response.getResults().size());
+    assertTrue(server.getSearchRequests() > searches);
+  }
+
+  @Test
+  public void testRepeatedQueryIsCached() throws Exception {
+    source.query(keywordQuery("river", 1, 10));
+    int searches = server.getSearchRequests();
+
+    source.query(keywordQuery("river", 1, 10));
+
+    assertEquals(searches, server.getSearchRequests());
+  }
+
+  @Test
+  public void testRepeatedQueryOnlyFetchesNewerTweets() throws Exception {
+    // The kept first page does not depend on the result cache
+    source.setResultCacheSize(0);
+    List<Long> first = ids(source.query(keywordQuery("market", 1, 10)));
+    long newId = first.get(0) + 1_000_000;
+    server.addTweets(
+        Collections.singletonList(
+            new StubTwitterServer.Tweet(newId, "market at dawn", new Date(), null, null)));
+    int searches = server.getSearchRequests();
+
+    List<Long> refreshed = ids(source.query(keywordQuery("market", 1, 10)));
+
+    assertEquals(searches + 1, server.getSearchRequests());
+    assertEquals(first.get(0).longValue(), server.getLastSinceId());
+    List<Long> expected = new ArrayList<>(Collections.singletonList(newId));
+    expected.addAll(first.subList(0, 9));
+    assertEquals(expected, refreshed);
+  }
+
+  @Test
+  public void testExhaustedQuotaIsUnavailableUntilTheWindowResets() throws Exception {
+    assertTrue(await(source::isAvailable));
+    // Three searches a window leave the reserve of two after one search
+    server.setRateLimit(3, TimeUnit.SECONDS.toMillis(2));
+    try {
+      source.query(keywordQuery("sunset", 1, 10));
+
+      // Neither state waits for the next probe, which is a minute away
+      assertFalse(source.isAvailable());
+      assertTrue(await(source::isAvailable));
+    } finally {
+      server.setRateLimit(450, TimeUnit.MINUTES.toMillis(15));
+    }
+  }
+
+  @Test
+  public void testRefreshRestartsWithTheNewSettings() throws Exception {
+    StubTwitterServer other =
+        new StubTwitterServer(StubTwitterServer.generateCorpus(100, 40.0, -111.0, 1));
+    other.start();
+    try {
+      Map<String, Object> configuration = new HashMap<>();
+      configuration.put("restBaseUrl", other.getRestBaseUrl());
+      configuration.put("oauth2TokenUrl", other.getOAuth2TokenUrl());
+      configuration.put("searchThreads", "2");
+      source.refresh(configuration);
+
+      source.query(keywordQuery("cats", 1, 10));
+
+      assertEquals(2, source.getSearchThreads());
+      assertTrue(other.getTokenRequests() > 0);
+      assertTrue(other.getSearchRequests() > 0);
+    } finally {
+      other.stop();
+    }
+  }
+
+  @Test
+  public void testLoad() throws Exception {
+    // Every query goes to the stand-in, to measure the source rather than its cache
+    source.setResultCacheSize(0);
+    List<QueryRequest> requests = new ArrayList<>();
+    for (String keyword : new String[] {"cats", "dogs", "fish", "birds", "rain", "music"}) {
+      requests.add(keywordQuery(keyword, 1, 20));
+    }
+    server.setLatencyMillis(5);
+    try {
+      TwitterSourceLoadDriver.Report report =
+          new TwitterSourceLoadDriver(source, requests, 4).run(25);
+      assertEquals(0, report.getErrors());
+      assertEquals(100, report.getQueries());
+      assertTrue(report.getResults() > 0);
+      assertTrue(report.getThroughput() > 0);
+      assertTrue(report.getLatencyMillis(99) >= report.getLatencyMillis(50));
+    } finally {
+      server.setLatencyMillis(0);
+    }
+  }
+
+  private static QueryRequest keywordQuery(String keyword, int startIndex, int pageSize) {
+    return keywordQuery(keyword, startIndex, pageSize, TIMEOUT_MILLIS);
+  }
+
+  private static QueryRequest keywordQuery(
+      String keyword, int startIndex, int pageSize, long timeoutMillis) {
+    return new QueryRequestImpl(
+        new QueryImpl(
+            FILTER_BUILDER.attribute(Metacard.ANY_TEXT).is().like().text(keyword),
+            startIndex,
+            pageSize,
+            null,
+            false,
+            timeoutMillis));
+  }
+
+  private static boolean await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(20);
+    }
+    return true;
+  }
+
+  private static List<Long> ids(SourceResponse response) {
+    List<Long> ids =
+        response.getResults().stream()
+            .map(result -> Long.valueOf(result.getMetacard().getId()))
+            .collect(Collectors.toList());
+    Set<Long> distinct = new HashSet<>(ids);
+    assertEquals(ids.size(), distinct.size());
+    return ids;
+  }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) Codice Foundation
+ *
+ * <p>This is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details. A copy of the GNU Lesser General Public
+ * License is distributed along with this program and can be found at
+ * <http://www.gnu.org/licenses/lgpl.html>.
+ */
+package org.codice.ddf.catalog.twitter.source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import ddf.catalog.CatalogFramework;
+import ddf.catalog.data.Metacard;
+import ddf.catalog.operation.CreateRequest;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.blueprint.container.ServiceUnavailableException;
+
+/** Streams from {@link StubTwitterServer} into a catalog framework that records what it is sent. */
+public class TwitterStreamIngesterTest {
+
+  private static final long WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final List<String> created = Collections.synchronizedList(new ArrayList<>());
+
+  // How many more creates fail as they do while the framework service is absent
+  private final AtomicInteger unavailableCreates = new AtomicInteger();
+
+  private StubTwitterServer server;
+
+  private TwitterStreamIngester ingester;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new StubTwitterServer(StubTwitterServer.generateCorpus(500, 40.0, -111.0, 7));
+    server.start();
+
+    CatalogFramework catalogFramework =
+        (CatalogFramework)
+            Proxy.newProxyInstance(
+                CatalogFramework.class.getClassLoader(),
+                new Class<?>[] {CatalogFramework.class},
+                (proxy, method, args) -> {
+                  if (!method.getName().equals("create")) {
+                    throw new UnsupportedOperationException(method.getName());
+                  }
+                  if (unavailableCreates.getAndDecrement() > 0) {
+                    throw new ServiceUnavailableException("No framework", null);
+                  }
+                  for (Metacard metacard : ((CreateRequest) args[0]).getMetacards()) {
+                    created.add(metacard.getId());
+                  }
+                  return null;
+                });
+
+    ingester = new TwitterStreamIngester(catalogFramework);
+    ingester.setId("twitter-ingest-test");
+    ingester.setConsumerKey("key");
+    ingester.setConsumerSecret("secret");
+    ingester.setAccessToken("token");
+    ingester.setAccessTokenSecret("tokenSecret");
+    ingester.setStreamBaseUrl(server.getStreamBaseUrl());
+    ingester.setBatchSize(20);
+    ingester.setBatchMaxWaitMillis(100);
+  }
+
+  @After
+  public void tearDown() {
+    ingester.destroy();
+    server.stop();
+  }
+
+  @Test
+  public void testTrackedTweetsIngestedOnce() throws Exception {
+    ingester.setTracks(Collections.singletonList("cats"));
+    ingester.init();
+    int tracked = server.countTracked("cats");
+
+    // The stand-in ends each stream, so the ingester reconnects and is sent every tweet again
+    waitFor(() -> created.size() >= tracked && server.getStreamConnections() >= 3);
+    // Give the repeated tweets time to reach the catalog if they were not skipped
+    Thread.sleep(500);
+
+    assertEquals(tracked, created.size());
+    assertEquals(tracked, new HashSet<>(created).size());
+  }
+
+  @Test
+  public void testBatchIsRetriedWhileTheFrameworkIsAbsent() throws Exception {
+    unavailableCreates.set(2);
+    ingester.setTracks(Collections.singletonList("cats"));
+    ingester.init();
+    int tracked = server.countTracked("cats");
+
+    waitFor(() -> created.size() >= tracked);
+
+    assertEquals(tracked, new HashSet<>(created).size());
+  }
+
+  @Test
+  public void testNothingIngestedWithoutTracksOrLocations() throws Exception {
+    ingester.init();
+
+    Thread.sleep(500);
+
+    assertEquals(0, server.getStreamConnections());
+    assertTrue(created.isEmpty());
+  }
+
+  @Test
+  public void testRefreshRestartsWithTheNewTracks() throws Exception {
+    ingester.init();
+    int tracked = server.countTracked("dogs");
+
+    ingester.refresh(Collections.singletonMap("tracks", new String[] {"dogs"}));
+
+    waitFor(() -> created.size() >= tracked);
+    assertEquals(tracked, new HashSet<>(created).size());
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out waiting for the ingester", System.currentTimeMillis() < deadline);
+      Thread.sleep(50);
+    }
+  }
+}